@@ -0,0 +1,323 @@
+package com.minisql.client;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 缓存路由的客户端：从master获取带纪元的路由快照，插入、查询、修改直接发到Region Server，master不在每个请求的路径上。
+ * 每个请求带上缓存的纪元，Region发现表或主键不归自己负责时返回409，客户端重新获取路由后重试；
+ * 另外每隔epochCheckInterval毫秒向master询问一次纪元，纪元变化时重新获取路由
+ */
+public class MiniSqlClient {
+    private static final Logger logger = LoggerFactory.getLogger(MiniSqlClient.class);
+
+    private static final String EPOCH_HEADER = "X-Routing-Epoch";
+    private static final String KEY_HEADER = "X-Routing-Key";
+    private static final String STALE = "409";
+    private static final int EPOCH_WAIT_RETRIES = 5;
+    private static final long EPOCH_WAIT_MS = 100;
+
+    private final List<String> masters; // master的地址，如http://192.168.1.2:8080
+    private final HttpClient http;
+    private int regionPort = 9090;
+    private long epochCheckInterval = 1000;
+    private int maxRetries = 2;
+    private Duration timeout = Duration.ofSeconds(10);
+
+    private volatile RoutingSnapshot routing = RoutingSnapshot.empty();
+    private volatile long lastEpochCheck;
+
+    public MiniSqlClient(List<String> masters) {
+        if (masters.isEmpty()) {
+            throw new IllegalArgumentException("At least one master is required");
+        }
+        this.masters = new ArrayList<>(masters);
+        this.http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    public MiniSqlClient regionPort(int regionPort) {
+        this.regionPort = regionPort;
+        return this;
+    }
+
+    /**
+     * @param epochCheckInterval 两次向master询问纪元的最小间隔（毫秒），0表示每个请求都询问，负数表示只在Region返回409时刷新
+     */
+    public MiniSqlClient epochCheckInterval(long epochCheckInterval) {
+        this.epochCheckInterval = epochCheckInterval;
+        return this;
+    }
+
+    /**
+     * @param maxRetries 路由过期时最多重试的次数
+     */
+    public MiniSqlClient maxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public MiniSqlClient timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @return 当前缓存的路由快照，第一次调用时从master获取
+     */
+    public RoutingSnapshot routing() throws MiniSqlException {
+        RoutingSnapshot snapshot = routing;
+        if (snapshot.getEpoch() < 0) {
+            return refresh();
+        }
+        long now = System.currentTimeMillis();
+        if (epochCheckInterval >= 0 && now - lastEpochCheck >= epochCheckInterval) {
+            lastEpochCheck = now;
+            long epoch = callMaster("/routing_epoch").getLongValue("epoch");
+            if (epoch != snapshot.getEpoch()) {
+                logger.info("Routing epoch changed from {} to {}", snapshot.getEpoch(), epoch);
+                return refresh();
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 从master重新获取路由快照
+     */
+    public synchronized RoutingSnapshot refresh() throws MiniSqlException {
+        RoutingSnapshot snapshot = RoutingSnapshot.parse(callMaster("/routing"));
+        routing = snapshot;
+        lastEpochCheck = System.currentTimeMillis();
+        logger.info("Routing refreshed at epoch {}", snapshot.getEpoch());
+        return snapshot;
+    }
+
+    /**
+     * 插入一行，直接发到负责该主键的Region Master
+     *
+     * @param pkValue 主键的实际值
+     * @param sql     INSERT语句
+     */
+    public JSONObject insert(String tableName, String pkValue, String sql) throws MiniSqlException {
+        String table = normalize(tableName);
+        for (int attempt = 0; ; attempt++) {
+            RoutingSnapshot snapshot = routing();
+            RoutingSnapshot.RegionRoute owner = snapshot.owner(table, pkValue);
+            if (owner == null) {
+                if (attempt < maxRetries && snapshot.hasTable(table)) {
+                    refresh();
+                    continue;
+                }
+                throw new MiniSqlException(snapshot.hasTable(table) ? "No region owns key " + pkValue + " of table " + table : "Table " + table + " doesn't exist");
+            }
+            JSONObject res = callRegion(owner.getMaster(), "/update", table, sql, snapshot.getEpoch(), pkValue);
+            if (!isStale(res, attempt)) {
+                return res;
+            }
+        }
+    }
+
+    /**
+     * 在所有负责该表的Region上查询，每个Region轮流选一个slave
+     *
+     * @return 每个Region的结果
+     */
+    public List<JSONObject> query(String tableName, String sql) throws MiniSqlException {
+        String table = normalize(tableName);
+        for (int attempt = 0; ; attempt++) {
+            RoutingSnapshot snapshot = routing();
+            List<JSONObject> results = new ArrayList<>();
+            boolean stale = false;
+            for (RoutingSnapshot.RegionRoute region : regionsOf(snapshot, table)) {
+                // 迁移的目标在切换路由前只有拷贝过去的行，查询它会重复返回source上的行
+                if (!region.hasRanges()) {
+                    continue;
+                }
+                JSONObject res = callRegion(pickSlave(region), "/query", table, sql, snapshot.getEpoch(), null);
+                if (isStale(res, attempt)) {
+                    stale = true;
+                    break;
+                }
+                results.add(res);
+            }
+            if (!stale) {
+                return results;
+            }
+        }
+    }
+
+    /**
+     * 在所有负责该表的Region Master上执行UPDATE或DELETE。路由过期时只在还没有成功执行的Region上重试，
+     * 已经返回结果的Region不再执行第二次，否则x=x+1之类的语句会被执行两次
+     *
+     * @return 每个Region的结果，Region正在离线迁移时结果的status为423
+     */
+    public List<JSONObject> update(String tableName, String sql) throws MiniSqlException {
+        String table = normalize(tableName);
+        Map<Integer, JSONObject> results = new LinkedHashMap<>();
+        for (int attempt = 0; ; attempt++) {
+            RoutingSnapshot snapshot = routing();
+            JSONObject stale = null;
+            for (RoutingSnapshot.RegionRoute region : regionsOf(snapshot, table)) {
+                if (results.containsKey(region.getRegionId())) {
+                    continue;
+                }
+                JSONObject res = callRegion(region.getMaster(), "/update", table, sql, snapshot.getEpoch(), null);
+                if (STALE.equals(res.getString("status"))) {
+                    stale = res;
+                } else {
+                    results.put(region.getRegionId(), res);
+                }
+            }
+            if (stale == null || !isStale(stale, attempt)) {
+                return new ArrayList<>(results.values());
+            }
+        }
+    }
+
+    /**
+     * 建表需要master选择Region，建表后刷新路由
+     */
+    public JSONObject createTable(String tableName, String sql) throws MiniSqlException {
+        String table = normalize(tableName);
+        JSONObject data = callMaster("/create_table?tableName=" + table);
+        List<String> hostNames = data.getJSONArray("hostNames").toJavaList(String.class);
+        if (hostNames.isEmpty()) {
+            throw new MiniSqlException("No writable region for table " + table);
+        }
+        JSONObject res = callRegion(hostNames.get(0), "/create", table, sql, null, null);
+        refresh();
+        return res;
+    }
+
+    /**
+     * 在所有负责该表的Region Master上删表，之后刷新路由
+     */
+    public List<JSONObject> dropTable(String tableName, String sql) throws MiniSqlException {
+        String table = normalize(tableName);
+        List<JSONObject> results = new ArrayList<>();
+        for (RoutingSnapshot.RegionRoute region : regionsOf(routing(), table)) {
+            results.add(callRegion(region.getMaster(), "/drop", table, sql, null, null));
+        }
+        refresh();
+        return results;
+    }
+
+    /**
+     * Region Server把表名转为大写后登记到Zookeeper
+     */
+    private static String normalize(String tableName) {
+        return tableName.toUpperCase();
+    }
+
+    private static List<RoutingSnapshot.RegionRoute> regionsOf(RoutingSnapshot snapshot, String table) throws MiniSqlException {
+        List<RoutingSnapshot.RegionRoute> regions = snapshot.regions(table);
+        if (regions.isEmpty()) {
+            throw new MiniSqlException("Table " + table + " doesn't exist");
+        }
+        return regions;
+    }
+
+    private static String pickSlave(RoutingSnapshot.RegionRoute region) {
+        List<String> slaves = region.getSlaves();
+        return slaves.isEmpty() ? region.getMaster() : slaves.get(ThreadLocalRandom.current().nextInt(slaves.size()));
+    }
+
+    /**
+     * Region返回路由过期时刷新路由，超过重试次数时抛出异常
+     *
+     * @return 是否需要重试
+     */
+    private boolean isStale(JSONObject res, int attempt) throws MiniSqlException {
+        if (!STALE.equals(res.getString("status"))) {
+            return false;
+        }
+        if (attempt >= maxRetries) {
+            throw new MiniSqlException("Routing is still stale after " + attempt + " retries: " + res.getString("msg"));
+        }
+        long epoch = res.getLongValue("epoch");
+        logger.info("Region reports stale routing at epoch {}, refreshing", epoch);
+        // master收到纪元变化可能比Region晚，等master的快照追上Region报告的纪元
+        for (int i = 0; refresh().getEpoch() < epoch && i < EPOCH_WAIT_RETRIES; i++) {
+            try {
+                Thread.sleep(EPOCH_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MiniSqlException("Interrupted", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 依次尝试每个master
+     *
+     * @return ApiResult的data
+     */
+    private JSONObject callMaster(String path) throws MiniSqlException {
+        MiniSqlException last = null;
+        for (String master : masters) {
+            try {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(master + path)).timeout(timeout)
+                        .POST(HttpRequest.BodyPublishers.noBody()).build();
+                JSONObject res = JSON.parseObject(http.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).body());
+                if (res == null || res.getIntValue("status") != 200) {
+                    last = new MiniSqlException("Master " + master + " rejected " + path + ": " + (res == null ? "no response" : res.getString("message")));
+                    continue;
+                }
+                return res.getJSONObject("data");
+            } catch (IOException e) {
+                last = new MiniSqlException("Can't reach master " + master, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MiniSqlException("Interrupted", e);
+            }
+        }
+        throw last;
+    }
+
+    private JSONObject callRegion(String hostName, String path, String tableName, String sql, Long epoch, String pkValue) throws MiniSqlException {
+        String url = "http://" + hostName.replaceFirst(":[0-9]+$", "") + ":" + regionPort + path;
+        JSONObject body = new JSONObject();
+        body.put("sql", sql);
+        body.put("tableName", tableName);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toJSONString(), StandardCharsets.UTF_8));
+        if (epoch != null) {
+            request.header(EPOCH_HEADER, String.valueOf(epoch));
+        }
+        if (pkValue != null) {
+            // 请求头只能是ASCII，主键按百分号编码，Region解码后计算哈希
+            request.header(KEY_HEADER, URLEncoder.encode(pkValue, StandardCharsets.UTF_8));
+        }
+        try {
+            JSONObject res = JSON.parseObject(http.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).body());
+            if (res == null) {
+                throw new MiniSqlException("No response from " + url);
+            }
+            return res;
+        } catch (IOException e) {
+            throw new MiniSqlException("Can't reach region server " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MiniSqlException("Interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.minisql.client;
+
+/**
+ * 请求master或Region Server失败
+ */
+public class MiniSqlException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public MiniSqlException(String message) {
+        super(message);
+    }
+
+    public MiniSqlException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
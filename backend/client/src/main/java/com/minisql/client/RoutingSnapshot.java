@@ -0,0 +1,155 @@
+package com.minisql.client;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+
+import java.util.*;
+
+/**
+ * 从master的/routing获取的路由快照：表 -> Region -> 哈希区间、master和slaves。快照生成后不再修改，
+ * 每张表有一个按区间起点排序的索引，主键路由只需计算一次哈希并做一次floor查找
+ */
+public class RoutingSnapshot {
+    public static final int MAX_HASH = 65536; // 与master和Region的Configs.MAX_HASH一致
+
+    /**
+     * 一张表在一个Region上的路由
+     */
+    public static class RegionRoute {
+        private final int regionId;
+        private final String master;
+        private final List<String> slaves;
+        private final String ranges;
+        private final boolean writable;
+
+        RegionRoute(int regionId, String master, List<String> slaves, String ranges, boolean writable) {
+            this.regionId = regionId;
+            this.master = master;
+            this.slaves = Collections.unmodifiableList(slaves);
+            this.ranges = ranges;
+            this.writable = writable;
+        }
+
+        public int getRegionId() {
+            return regionId;
+        }
+
+        public String getMaster() {
+            return master;
+        }
+
+        public List<String> getSlaves() {
+            return slaves;
+        }
+
+        /**
+         * @return 负责的哈希区间，编码为"s1,e1;s2,e2"
+         */
+        public String getRanges() {
+            return ranges;
+        }
+
+        public boolean isWritable() {
+            return writable;
+        }
+
+        /**
+         * @return 是否负责任何区间，迁移的目标在切换路由前不负责任何区间
+         */
+        public boolean hasRanges() {
+            return ranges != null && !ranges.isBlank();
+        }
+    }
+
+    private static class Owner {
+        private final int end;
+        private final RegionRoute route;
+
+        private Owner(int end, RegionRoute route) {
+            this.end = end;
+            this.route = route;
+        }
+    }
+
+    private final long epoch;
+    private final Map<String, List<RegionRoute>> tables;
+    private final Map<String, NavigableMap<Integer, Owner>> owners;
+
+    private RoutingSnapshot(long epoch, Map<String, List<RegionRoute>> tables, Map<String, NavigableMap<Integer, Owner>> owners) {
+        this.epoch = epoch;
+        this.tables = tables;
+        this.owners = owners;
+    }
+
+    public static RoutingSnapshot empty() {
+        return new RoutingSnapshot(-1, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * @param data /routing返回的data：{epoch, tables: {表名: [{regionId, ranges, master, slaves, writable}]}}
+     */
+    public static RoutingSnapshot parse(JSONObject data) {
+        Map<String, List<RegionRoute>> tables = new HashMap<>();
+        Map<String, NavigableMap<Integer, Owner>> owners = new HashMap<>();
+        JSONObject tableJson = data.getJSONObject("tables");
+        if (tableJson != null) {
+            for (String tableName : tableJson.keySet()) {
+                List<RegionRoute> routes = new ArrayList<>();
+                TreeMap<Integer, Owner> index = new TreeMap<>();
+                JSONArray regions = tableJson.getJSONArray(tableName);
+                for (int i = 0; i < regions.size(); i++) {
+                    JSONObject region = regions.getJSONObject(i);
+                    List<String> slaves = region.getJSONArray("slaves") == null ? List.of() : region.getJSONArray("slaves").toJavaList(String.class);
+                    RegionRoute route = new RegionRoute(region.getIntValue("regionId"), region.getString("master"), slaves,
+                            region.getString("ranges"), region.getBooleanValue("writable"));
+                    routes.add(route);
+                    if (!route.hasRanges()) {
+                        continue;
+                    }
+                    for (String range : route.getRanges().split(";")) {
+                        String[] bounds = range.trim().split(",");
+                        index.put(Integer.parseInt(bounds[0].trim()), new Owner(Integer.parseInt(bounds[1].trim()), route));
+                    }
+                }
+                tables.put(tableName, Collections.unmodifiableList(routes));
+                owners.put(tableName, index);
+            }
+        }
+        return new RoutingSnapshot(data.getLongValue("epoch"), Collections.unmodifiableMap(tables), owners);
+    }
+
+    /**
+     * @return 与master和Region相同的主键哈希
+     */
+    public static int hash(String value) {
+        return value.hashCode() % MAX_HASH;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public boolean hasTable(String tableName) {
+        return tables.containsKey(tableName);
+    }
+
+    /**
+     * @return 负责该表的Region，表不存在时为空列表
+     */
+    public List<RegionRoute> regions(String tableName) {
+        return tables.getOrDefault(tableName, Collections.emptyList());
+    }
+
+    /**
+     * @return 负责该主键的Region，没有Region负责时返回null
+     */
+    public RegionRoute owner(String tableName, String pkValue) {
+        NavigableMap<Integer, Owner> index = owners.get(tableName);
+        if (index == null) {
+            return null;
+        }
+        int hash = hash(pkValue);
+        Map.Entry<Integer, Owner> entry = index.floorEntry(hash);
+        return entry != null && hash < entry.getValue().end ? entry.getValue().route : null;
+    }
+}
@@ -0,0 +1,148 @@
+package com.minisql.master.zookeeper;
+
+import com.minisql.master.utils.HashRanges;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主键路由的吞吐：路由快照（pickServer / RoutingTable.owner）与原来逐个Region加锁扫描表的方式对比。
+ * 每种方式分别用1个线程和所有CPU核运行，快照不加锁，吞吐应随线程数增长；加锁扫描在Region的锁上串行。
+ * 运行：./gradlew -Pjmh jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+    private static final int KEYS = 4096;
+
+    @Param({"8"})
+    public int regionCount;
+
+    @Param({"16"})
+    public int tableCount;
+
+    @Param({"2"})
+    public int rangesPerRegion;
+
+    private Metadata metadata;
+    private RoutingTable routing;
+    private String[] tables;
+    private String[] keys;
+
+    /**
+     * 每个线程按自己的下标轮流取表和主键
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setup() {
+        Metadata.clear();
+        metadata = Metadata.getInstance();
+        tables = new String[tableCount];
+        for (int t = 0; t < tableCount; t++) {
+            tables[t] = "TABLE" + t;
+        }
+        // 每张表的哈希空间切成regionCount * rangesPerRegion段，轮流分给各Region，每个Region负责多个互不相交的区间
+        int slices = regionCount * rangesPerRegion;
+        int width = 65536 / slices;
+        for (int r = 0; r < regionCount; r++) {
+            Metadata.RegionMetadata region = new Metadata.RegionMetadata();
+            region.setRegionId(r + 1);
+            region.setMaster("10.0.0." + (r + 1) + ":2181");
+            for (String table : tables) {
+                HashRanges ranges = new HashRanges();
+                for (int s = r; s < slices; s += regionCount) {
+                    ranges.add(s * width, s == slices - 1 ? 65536 : (s + 1) * width);
+                }
+                region.addTable(table, ranges);
+            }
+            metadata.getRegions().add(region);
+        }
+        metadata.refreshRouting();
+        routing = metadata.getRouting();
+        // 只取哈希值非负的主键，保证每个主键都有Region负责
+        List<String> keyList = new ArrayList<>(KEYS);
+        for (int i = 0; keyList.size() < KEYS; i++) {
+            String key = "key" + i;
+            if (Metadata.RegionMetadata.hash(key) >= 0) {
+                keyList.add(key);
+            }
+        }
+        keys = keyList.toArray(new String[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Metadata.clear();
+    }
+
+    private String table(Cursor cursor) {
+        return tables[cursor.next % tables.length];
+    }
+
+    private String key(Cursor cursor) {
+        return keys[cursor.next++ % keys.length];
+    }
+
+    /**
+     * 原来的INSERT_TABLE路由：逐个Region在它的锁内扫描表，再在锁内判断是否可写，不含原来对每个Region记录的日志
+     */
+    private List<String> legacyScan(String tableName, String pkValue) {
+        List<String> hostName = new ArrayList<>();
+        for (var region : metadata.getRegions()) {
+            if (region.pkValueBelongThisRegion(tableName, pkValue)) {
+                synchronized (region) {
+                    if (region.isWritable()) {
+                        hostName.add(region.getMaster());
+                    }
+                }
+            }
+        }
+        return hostName;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> pickServerSingle(Cursor cursor) {
+        return metadata.pickServer(table(cursor), Metadata.OperationType.INSERT_TABLE, key(cursor));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<String> pickServerAllCores(Cursor cursor) {
+        return metadata.pickServer(table(cursor), Metadata.OperationType.INSERT_TABLE, key(cursor));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Metadata.RegionMetadata ownerSingle(Cursor cursor) {
+        return routing.owner(table(cursor), Metadata.RegionMetadata.hash(key(cursor)));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Metadata.RegionMetadata ownerAllCores(Cursor cursor) {
+        return routing.owner(table(cursor), Metadata.RegionMetadata.hash(key(cursor)));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> legacyScanSingle(Cursor cursor) {
+        return legacyScan(table(cursor), key(cursor));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<String> legacyScanAllCores(Cursor cursor) {
+        return legacyScan(table(cursor), key(cursor));
+    }
+}
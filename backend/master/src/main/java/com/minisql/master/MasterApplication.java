@@ -2,15 +2,17 @@ package com.minisql.master;
 
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
+import com.minisql.master.migration.MigrationJob;
+import com.minisql.master.migration.MigrationScheduler;
 import com.minisql.master.utils.Configs;
 import com.minisql.master.utils.PersistenceHandler;
 import com.minisql.master.zookeeper.Metadata;
+import com.minisql.master.zookeeper.ReplicaStats;
 import com.minisql.master.zookeeper.ZkClient;
 import com.google.common.collect.Sets;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
-import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -28,9 +30,6 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.util.Enumeration;
-import java.util.List;
-import java.util.Set;
-import java.util.Vector;
 
 import static com.minisql.master.utils.Configs.MAX_HOTPOINT_THRESHOLD;
 import static com.minisql.master.utils.Configs.MIN_HOTPOINT_THRESHOLD;
@@ -122,13 +121,48 @@ public class MasterApplication {
         }
     }
 
+    /**
+     * 拉取Region Server的查询负载，用于按延迟和负载选择处理查询的slave；拉取失败计入该Server的连续失败次数
+     */
+    private void requestServerStats(String hostName) {
+        RestTemplate rt = restTemplate();
+        String requestUrl = Configs.REGION_SERVER_HTTPS + "://" + hostName.replaceFirst(":[0-9]+", ":" + Configs.REGION_SERVER_PORT) + "/serverStats";
+        ReplicaStats stats = ReplicaStats.getInstance();
+        try {
+            JSONObject jsonObject = JSON.parseObject(rt.postForObject(requestUrl, "", String.class));
+            if (jsonObject != null && "200".equals(jsonObject.getString("status"))) {
+                stats.report(hostName, jsonObject.getDoubleValue("latencyMs"), jsonObject.getIntValue("inflight"));
+                stats.observe(hostName, -1, true);
+            } else {
+                stats.observe(hostName, -1, false);
+            }
+        } catch (Exception e) {
+            logger.warn("Request server stats of {} failed: {}", hostName, e.getMessage());
+            stats.observe(hostName, -1, false);
+        }
+    }
+
+    /**
+     * 每个master都独立选择处理查询的slave，因此都需要拉取负载
+     */
+    @Scheduled(fixedRate = 2000)
+    public void serverStatsCollector() {
+        for (var region : Metadata.getInstance().getRegions()) {
+            if (region.isOnline()) {
+                for (var regionSlave : region.getSlaves()) {
+                    requestServerStats(regionSlave);
+                }
+            }
+        }
+    }
+
     /**
      * 热点检测：
      * 1. 利用Metadata，遍历所有Region的元数据
      * 2. 如果Region是上线的（代表可写）
      * 3. 从中选取被访问次数最多和最少的Region
      * 4. 如果上线Region>=2且MaxVisitedRegion的次数>=2*MinVisitedRegion的次数且MaxVisitedRegion的次数>MAX_HOTPOINT_THRESHOLD且MinVisitedRegion的次数>MIN_HOTPOINT_THRESHOLD
-     * 5. 执行数据迁移，将MaxVisitedRegion一半的数据迁移至MinVisitedRegion
+     * 5. 执行数据迁移，按负载直方图将MaxVisitedRegion约一半的负载迁移至MinVisitedRegion
      * 6. 重置所有Region的访问次数
      */
     @Scheduled(fixedRate = 10000)
@@ -153,15 +187,9 @@ public class MasterApplication {
                 }
             }
             if (maxRegion != null) {
+                // 一张表在一个Region上可以负责多个区间，目标Region已有同一张表时迁移的区间直接并入
                 for (var region : metadata.getRegions()) {
-                    boolean regionHasTable = false;
-                    for (var t : maxRegion.getTables()) {
-                        if (region.hasTable(t.getTableName())) {
-                            regionHasTable = true;
-                            break;
-                        }
-                    }
-                    if (region.getVisitCount() < min && region.isOnline() && !regionHasTable) {
+                    if (region.getVisitCount() < min && region.isOnline() && region != maxRegion) {
                         writableRegionCount++;
                         min = region.getVisitCount();
                         minRegion = region;
@@ -173,22 +201,13 @@ public class MasterApplication {
             if (maxRegion != null && minRegion != null) {
                 logger.info("Max region is region{} with visit count {}, min region is region{} with visit count {}", maxRegion.getRegionId(), max, minRegion.getRegionId(), min);
             }
-            // 符合热点迁移条件，将Max Region中的半数数据表迁移至Min Region
+            // 符合热点迁移条件，按负载直方图将Max Region中每张表约一半的负载迁移至Min Region；上一次迁移未结束时不再提交
             if ((maxRegion != null && minRegion != null) && (writableRegionCount >= 2 && max > 2 * min && max > MAX_HOTPOINT_THRESHOLD && min > MIN_HOTPOINT_THRESHOLD)) {
                 logger.info("Hot point found, synchronising...");
-                Set<Metadata.RegionMetadata.Table> tablesToMove = maxRegion.getTables();
-                String
-                        maxRegionHostName = maxRegion.getMaster().replaceFirst(":[0-9]+", ":" + Configs.REGION_SERVER_PORT),
-                        minRegionHostName = minRegion.getMaster().replaceFirst(":[0-9]+", ":" + Configs.REGION_SERVER_PORT);
-                if (!tablesToMove.isEmpty()) {
-                    // 数据迁移的时候对Max Region和Min Region加锁，防止其他操作干扰
-                    maxRegion.acquireLock();
-                    minRegion.acquireLock();
-                    requestSyncTables(maxRegionHostName, minRegionHostName, tablesToMove, minRegion.getRegionId());
-                    minRegion.releaseLock();
-                    maxRegion.releaseLock();
+                MigrationJob job = MigrationScheduler.getInstance().submit(maxRegion, minRegion, maxRegion.getTables());
+                if (job != null) {
+                    logger.info("Hot point synchronisation scheduled as migration job {}", job.getId());
                 }
-                logger.info("Hot point synchronisation completed");
             } else {
                 logger.info("No hot point synchronisation is required");
             }
@@ -209,59 +228,4 @@ public class MasterApplication {
         }
 
     }
-
-    @Data
-    private static class Table {
-        public Table(String tableName, int targetStart, int targetEnd, int originalStart, int originalEnd) {
-            this.tableName = tableName;
-            this.targetStart = targetStart;
-            this.targetEnd = targetEnd;
-            this.originalStart = originalStart;
-            this.originalEnd = originalEnd;
-        }
-
-        private String tableName;
-        private int targetStart;
-        private int targetEnd;
-        private int originalStart;
-        private int originalEnd;
-    }
-
-    synchronized public void requestSyncTables(String maxRegion, String minRegion, Set<Metadata.RegionMetadata.Table> tables, int targetRegionId) {
-        logger.info("Need to move from {} to {} on region {}", maxRegion, minRegion, targetRegionId);
-        List<Table> tablesToMove = new Vector<>();
-        for (var table : tables) {
-            String tableName = table.getTableName();
-            int start = table.getStart(), end = table.getEnd();
-            if (end - start > 1) {
-                int mid = (start + end) / 2;
-                tablesToMove.add(new Table(tableName, mid, end, start, mid));
-            } else {
-                logger.warn("Partition size is already minimal, no repartition on table {} is required", tableName);
-            }
-        }
-        for (var table : tablesToMove) {
-            logger.info("Table {} Original[{},{}) Target[{},{})",
-                    table.getTableName(),
-                    table.getOriginalStart(),
-                    table.getOriginalEnd(),
-                    table.getTargetStart(),
-                    table.getTargetEnd()
-            );
-        }
-
-        try {
-            RestTemplate rt = restTemplate();
-            String requestUrl = Configs.REGION_SERVER_HTTPS + "://"
-                    + maxRegion.replaceFirst(":[0-9]+", ":" + Configs.REGION_SERVER_PORT)
-                    + "/hotsend?targetIP="
-                    + minRegion.replaceFirst(":[0-9]+", "")
-                    + "&targetRegionID=" + targetRegionId;
-            logger.info("Move data request URL: {}", requestUrl);
-            String r = rt.postForObject(requestUrl, tablesToMove, String.class);
-            logger.info("Hotpoint synchronization result: {}", r);
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-        }
-    }
 }
@@ -0,0 +1,14 @@
+package com.minisql.master.api;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量插入路由的请求体：一张表和要插入的若干个主键
+ */
+@Data
+public class BatchInsertRequest {
+    private String tableName;
+    private List<String> pkValues;
+}
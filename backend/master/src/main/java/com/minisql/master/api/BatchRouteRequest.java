@@ -0,0 +1,15 @@
+package com.minisql.master.api;
+
+import com.minisql.master.zookeeper.Metadata;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 多张表的批量路由请求体：同一种操作作用于若干张表
+ */
+@Data
+public class BatchRouteRequest {
+    private Metadata.OperationType type;
+    private List<String> tableNames;
+}
@@ -1,13 +1,21 @@
 package com.minisql.master.api;
 
+import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
+import com.minisql.master.coordinator.QueryCoordinator;
+import com.minisql.master.migration.MigrationScheduler;
+import com.minisql.master.utils.Configs;
 import com.minisql.master.zookeeper.Metadata;
+import com.minisql.master.zookeeper.RoutingTable;
 import com.minisql.master.zookeeper.ZkClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.minisql.master.api.StatusCode.*;
 
@@ -68,6 +76,40 @@ public class ClientController {
         }
     }
 
+    /**
+     * 由master并行查询负责该表的所有上线Region并合并结果，代替客户端逐个访问/query_table返回的slaves
+     *
+     * @param request 表名、SQL、截止时间和部分失败时的处理方式
+     * @return result为合并后的结果，格式与Region的/query相同；regions为每个Region的状态、行数和耗时；partial表示是否有Region失败
+     */
+    @PostMapping("/coordinated_query")
+    public ApiResult coordinatedQuery(@RequestBody CoordinatedQueryRequest request) {
+        String tableName = request.getTableName();
+        long deadlineMs = request.getDeadlineMs() == null ? Configs.COORDINATOR_DEADLINE_MS : request.getDeadlineMs();
+        boolean allowPartial = request.getAllowPartial() == null ? Configs.COORDINATOR_ALLOW_PARTIAL : request.getAllowPartial();
+        logger.info("Request coordinated query on table '{}' with deadline {} ms", tableName, deadlineMs);
+        JSONObject data = new JSONObject();
+        if (request.getSql() == null || deadlineMs <= 0 || deadlineMs > Configs.COORDINATOR_MAX_DEADLINE_MS) {
+            return new ApiResult(BAD_REQUEST.getStatus(), "sql is required and deadlineMs must be in (0, " + Configs.COORDINATOR_MAX_DEADLINE_MS + "]", data);
+        } else if (!metadata.hasTable(tableName)) {
+            return new ApiResult(TABLE_NOT_EXIST.getStatus(), TABLE_NOT_EXIST.getMessage(), data);
+        }
+        QueryCoordinator.Result result = QueryCoordinator.getInstance().query(tableName, request.getSql(), deadlineMs);
+        long succeeded = result.getRegions().stream().filter(QueryCoordinator.RegionResult::isOk).count();
+        data.put("regions", result.getRegions());
+        data.put("partial", !result.isComplete());
+        if (succeeded == 0 || (!result.isComplete() && !allowPartial)) {
+            String message = result.getRegions().isEmpty() ? "No online region for table " + tableName
+                    : (result.getRegions().size() - succeeded) + " of " + result.getRegions().size() + " regions failed";
+            return new ApiResult(SERVICE_UNAVAILABLE.getStatus(), message, data);
+        }
+        JSONObject merged = result.getMerged();
+        merged.put("status", "200");
+        merged.put("msg", result.isComplete() ? "Query table successfully" : "Query table partially, some regions failed");
+        data.put("result", merged);
+        return new ApiResult().ok().data(data).message("OK，返回所有Region合并后的查询结果");
+    }
+
     /**
      * @param tableName 要插入到的表
      * @param pkValue   主键值
@@ -85,6 +127,59 @@ public class ClientController {
         }
     }
 
+    /**
+     * 批量导入时一次请求路由一批主键，代替每行调用一次/insert
+     *
+     * @param request 表名和主键列表
+     * @return groups为Region Master -> 由它处理的主键，unrouted为没有可写Region负责的主键
+     */
+    @PostMapping("/insert_batch")
+    public ApiResult insertBatch(@RequestBody BatchInsertRequest request) {
+        String tableName = request.getTableName();
+        List<String> pkValues = request.getPkValues() == null ? List.of() : request.getPkValues();
+        logger.info("Request routing {} records of table '{}'", pkValues.size(), tableName);
+        JSONObject data = new JSONObject();
+        if (pkValues.size() > Configs.ROUTE_BATCH_MAX_KEYS) {
+            return new ApiResult(BAD_REQUEST.getStatus(), "Too many keys, at most " + Configs.ROUTE_BATCH_MAX_KEYS + " per request", data);
+        } else if (!metadata.hasTable(tableName)) {
+            return new ApiResult(TABLE_NOT_EXIST.getStatus(), TABLE_NOT_EXIST.getMessage(), data);
+        } else {
+            List<String> unrouted = new ArrayList<>();
+            data.put("groups", metadata.groupByMaster(tableName, pkValues, unrouted));
+            data.put("unrouted", unrouted);
+            return new ApiResult().ok().data(data).message("OK，返回按Region Master分组的主键");
+        }
+    }
+
+    /**
+     * 一次请求路由多张表的查询、修改、删除记录或删表操作
+     *
+     * @param request 操作类型和表名列表
+     * @return hostNames为表名 -> 负责的服务器，missingTables为不存在的表
+     */
+    @PostMapping("/route_batch")
+    public ApiResult routeBatch(@RequestBody BatchRouteRequest request) {
+        Metadata.OperationType type = request.getType();
+        List<String> tableNames = request.getTableNames() == null ? List.of() : request.getTableNames();
+        logger.info("Request routing {} for {} tables", type, tableNames.size());
+        JSONObject data = new JSONObject();
+        if (type == null || type == Metadata.OperationType.CREATE_TABLE || type == Metadata.OperationType.INSERT_TABLE) {
+            return new ApiResult(BAD_REQUEST.getStatus(), "Batch routing supports QUERY_TABLE, UPDATE_TABLE, DELETE_TABLE and DROP_TABLE", data);
+        }
+        Map<String, List<String>> hostNames = new LinkedHashMap<>();
+        List<String> missingTables = new ArrayList<>();
+        for (String tableName : tableNames) {
+            if (metadata.hasTable(tableName)) {
+                hostNames.put(tableName, metadata.pickServer(tableName, type, ""));
+            } else {
+                missingTables.add(tableName);
+            }
+        }
+        data.put("hostNames", hostNames);
+        data.put("missingTables", missingTables);
+        return new ApiResult().ok().data(data).message("OK，返回每张表负责处理该操作的服务器");
+    }
+
     /**
      * @param tableName 要修改的表名
      * @return 返回负责处理修改表的master(s)
@@ -133,6 +228,46 @@ public class ClientController {
         }
     }
 
+    /**
+     * 客户端缓存的路由快照：表 -> Region -> 哈希区间、master和slaves，客户端据此直接访问Region Server，
+     * 只在Region返回路由过期或/routing_epoch变化时重新获取
+     *
+     * @return epoch为路由纪元，tables为每张表的Region列表
+     */
+    @PostMapping("/routing")
+    public ApiResult routing() {
+        RoutingTable snapshot = metadata.getRouting();
+        JSONObject tables = new JSONObject();
+        for (String tableName : snapshot.tableNames()) {
+            JSONArray regions = new JSONArray();
+            for (var route : snapshot.routes(tableName)) {
+                Metadata.RegionMetadata region = route.getRegion();
+                JSONObject item = new JSONObject();
+                item.put("regionId", region.getRegionId());
+                item.put("ranges", route.getRanges().toString());
+                item.put("master", region.getMaster());
+                item.put("slaves", new ArrayList<>(region.getSlaves()));
+                item.put("writable", region.isWritable());
+                regions.add(item);
+            }
+            tables.put(tableName, regions);
+        }
+        JSONObject data = new JSONObject();
+        data.put("epoch", snapshot.getEpoch());
+        data.put("tables", tables);
+        return new ApiResult().ok().data(data);
+    }
+
+    /**
+     * @return 当前的路由纪元，客户端比较后决定是否重新获取/routing
+     */
+    @PostMapping("/routing_epoch")
+    public ApiResult routingEpoch() {
+        JSONObject data = new JSONObject();
+        data.put("epoch", metadata.getRouting().getEpoch());
+        return new ApiResult().ok().data(data);
+    }
+
     /**
      * @return 返回整个数据库当前状态的元数据
      */
@@ -144,6 +279,7 @@ public class ClientController {
         data.put("meta", metadata);
         data.put("masterUuid", Metadata.masterUuid);
         data.put("iAmMasterMaster", zkClient.iAmMasterMaster());
+        data.put("migrations", MigrationScheduler.getInstance().getJobs());
         return new ApiResult().ok().data(data);
     }
 }
@@ -0,0 +1,14 @@
+package com.minisql.master.api;
+
+import lombok.Data;
+
+/**
+ * 由master协调的跨Region查询的请求体
+ */
+@Data
+public class CoordinatedQueryRequest {
+    private String tableName;
+    private String sql;
+    private Long deadlineMs; // 整个查询的截止时间（毫秒），为空时使用COORDINATOR_DEADLINE_MS
+    private Boolean allowPartial; // 部分Region失败或超时时是否返回其余Region的结果，为空时使用COORDINATOR_ALLOW_PARTIAL
+}
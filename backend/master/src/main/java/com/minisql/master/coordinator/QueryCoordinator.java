@@ -0,0 +1,226 @@
+package com.minisql.master.coordinator;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.minisql.master.utils.Configs;
+import com.minisql.master.zookeeper.Metadata;
+import com.minisql.master.zookeeper.ReplicaStats;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 跨Region查询的协调器，单例。并行向负责该表的每个上线Region发送查询，每个Region按延迟和负载选择一台Server，
+ * Server不可达时在截止时间内换同Region的另一台Server重试一次。结果按Region顺序合并成与Region /query相同的格式，
+ * 查询耗时取决于最慢的Region而不是所有Region之和；截止时仍未返回的Region记为超时
+ */
+public class QueryCoordinator {
+    private static final Logger logger = LoggerFactory.getLogger(QueryCoordinator.class);
+
+    public static final String COLUMN_NAME = "Column Name";
+    public static final String ROW_PREFIX = "Row ";
+    private static final String UNREACHABLE = "503";
+    private static final String TIMEOUT = "504";
+
+    private static QueryCoordinator coordinator;
+
+    public static synchronized QueryCoordinator getInstance() {
+        if (coordinator == null) {
+            coordinator = new QueryCoordinator();
+        }
+        return coordinator;
+    }
+
+    /**
+     * 一个Region的查询结果
+     */
+    @Getter
+    public static class RegionResult {
+        private final int regionId;
+        private final String hostName;
+        private final String status; // Region返回的status，503为不可达，504为截止时未返回
+        private final String msg;
+        private final int rows;
+        private final long elapsedMs;
+        @Getter(AccessLevel.NONE)
+        private final JSONObject response;
+
+        private RegionResult(int regionId, String hostName, String status, String msg, JSONObject response, long elapsedMs) {
+            this.regionId = regionId;
+            this.hostName = hostName;
+            this.status = status;
+            this.msg = msg;
+            this.response = response;
+            this.elapsedMs = elapsedMs;
+            int n = 0;
+            while (response != null && response.containsKey(ROW_PREFIX + (n + 1))) {
+                n++;
+            }
+            this.rows = n;
+        }
+
+        public boolean isOk() {
+            return "200".equals(status);
+        }
+    }
+
+    /**
+     * 一次协调查询的结果
+     */
+    @Getter
+    public static class Result {
+        private final JSONObject merged; // 成功的Region的结果，格式与Region /query相同，行号重新连续编号
+        private final List<RegionResult> regions;
+        private final boolean complete; // 是否所有Region都成功
+
+        private Result(JSONObject merged, List<RegionResult> regions, boolean complete) {
+            this.merged = merged;
+            this.regions = regions;
+            this.complete = complete;
+        }
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(Configs.COORDINATOR_PARALLELISM, r -> {
+        Thread t = new Thread(r, "query-coordinator");
+        t.setDaemon(true);
+        return t;
+    });
+    private final RestTemplate restTemplate;
+
+    private QueryCoordinator() {
+        // 读超时取允许的最长截止时间，截止时间由等待结果的一方控制
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(1000); // 连接超时时间（单位：毫秒）
+        factory.setReadTimeout((int) Configs.COORDINATOR_MAX_DEADLINE_MS);
+        restTemplate = new RestTemplate(factory);
+    }
+
+    /**
+     * @param deadlineMs 整个查询的截止时间（毫秒）
+     * @return 每个上线Region的结果和合并后的结果，表没有上线的Region时regions为空
+     */
+    public Result query(String tableName, String sql, long deadlineMs) {
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        List<Metadata.RegionMetadata> regions = new ArrayList<>();
+        for (var route : Metadata.getInstance().getRouting().routes(tableName)) {
+            // 迁移的目标在切换路由前不负责任何区间，只有拷贝过去的行，查询它会重复返回source上的行
+            if (route.getRegion().isOnline() && !route.getRanges().isEmpty()) {
+                regions.add(route.getRegion());
+            }
+        }
+        List<Future<RegionResult>> futures = new ArrayList<>(regions.size());
+        for (var region : regions) {
+            futures.add(executor.submit(() -> queryRegion(region, tableName, sql, deadline)));
+        }
+        List<RegionResult> results = new ArrayList<>(regions.size());
+        boolean complete = true;
+        for (int i = 0; i < regions.size(); i++) {
+            int regionId = regions.get(i).getRegionId();
+            RegionResult result;
+            try {
+                result = futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(true);
+                result = new RegionResult(regionId, null, TIMEOUT, "Deadline of " + deadlineMs + " ms exceeded", null, elapsedMs(begin));
+            } catch (ExecutionException e) {
+                result = new RegionResult(regionId, null, UNREACHABLE, e.getCause().getMessage(), null, elapsedMs(begin));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = new RegionResult(regionId, null, TIMEOUT, "Interrupted", null, elapsedMs(begin));
+            }
+            if (!result.isOk()) {
+                complete = false;
+                logger.warn("Coordinated query on region{} failed with {}: {}", regionId, result.getStatus(), result.getMsg());
+            }
+            results.add(result);
+        }
+        logger.info("Coordinated query on table '{}' finished in {} ms over {} regions", tableName, elapsedMs(begin), regions.size());
+        return new Result(merge(results), results, complete);
+    }
+
+    /**
+     * 只在Server不可达时换一台重试，Region返回的失败（SQL错误、表决失败）在同Region的其他Server上结果相同
+     */
+    private RegionResult queryRegion(Metadata.RegionMetadata region, String tableName, String sql, long deadline) {
+        long begin = System.nanoTime();
+        String hostName = region.pickHandleSlave();
+        RegionResult result = call(region, hostName, tableName, sql, begin);
+        if (UNREACHABLE.equals(result.getStatus()) && System.nanoTime() < deadline) {
+            String retry = retryTarget(region, hostName);
+            if (retry != null) {
+                logger.info("Server '{}' of region{} is unreachable, retrying on '{}'", hostName, region.getRegionId(), retry);
+                result = call(region, retry, tableName, sql, begin);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 同Region中另一台可处理查询的Server，没有时返回null
+     */
+    private static String retryTarget(Metadata.RegionMetadata region, String failed) {
+        List<String> others = new ArrayList<>(region.getSlaves());
+        others.remove(failed);
+        if (!others.isEmpty()) {
+            return ReplicaStats.getInstance().pick(others);
+        }
+        String master = region.getMaster();
+        return master != null && !master.isEmpty() && !master.equals(failed) ? master : null;
+    }
+
+    private RegionResult call(Metadata.RegionMetadata region, String hostName, String tableName, String sql, long begin) {
+        ReplicaStats stats = ReplicaStats.getInstance();
+        String requestUrl = Configs.REGION_SERVER_HTTPS + "://" + hostName.replaceFirst(":[0-9]+", ":" + Configs.REGION_SERVER_PORT) + "/query";
+        JSONObject body = new JSONObject();
+        body.put("sql", sql);
+        body.put("tableName", tableName);
+        long start = System.nanoTime();
+        boolean reachable = false;
+        stats.begin(hostName);
+        try {
+            JSONObject res = JSON.parseObject(restTemplate.postForObject(requestUrl, body, String.class));
+            if (res == null) {
+                return new RegionResult(region.getRegionId(), hostName, UNREACHABLE, "No response from " + hostName, null, elapsedMs(begin));
+            }
+            reachable = true;
+            return new RegionResult(region.getRegionId(), hostName, res.getString("status"), res.getString("msg"), res, elapsedMs(begin));
+        } catch (Exception e) {
+            return new RegionResult(region.getRegionId(), hostName, UNREACHABLE, e.getMessage(), null, elapsedMs(begin));
+        } finally {
+            stats.end(hostName, System.nanoTime() - start, reachable);
+        }
+    }
+
+    /**
+     * 按Region顺序拼接成功的Region返回的行，列名取第一个返回列名的Region
+     */
+    private static JSONObject merge(List<RegionResult> results) {
+        JSONObject merged = new JSONObject();
+        int n = 0;
+        for (RegionResult result : results) {
+            if (!result.isOk()) {
+                continue;
+            }
+            JSONObject res = result.response;
+            if (!merged.containsKey(COLUMN_NAME) && res.containsKey(COLUMN_NAME)) {
+                merged.put(COLUMN_NAME, res.getString(COLUMN_NAME));
+            }
+            for (int i = 1; i <= result.getRows(); i++) {
+                merged.put(ROW_PREFIX + (++n), res.getString(ROW_PREFIX + i));
+            }
+        }
+        return merged;
+    }
+
+    private static long elapsedMs(long begin) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+    }
+}
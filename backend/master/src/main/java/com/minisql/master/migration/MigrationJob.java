@@ -0,0 +1,62 @@
+package com.minisql.master.migration;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.minisql.master.utils.HashRanges;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * 一次热点迁移：把源Region若干张表按负载拆分出的一部分哈希区间迁移到目标Region，每张表是一个TableTask
+ */
+@Data
+public class MigrationJob {
+    public enum State {
+        PENDING,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    @Data
+    public static class TableTask {
+        private String tableName;
+        private HashRanges ranges; // 迁移到目标Region的哈希区间，可以是多个互不相交的区间
+        private double movedShare; // 规划时估计迁走的负载占比
+        volatile private State state = State.PENDING;
+        volatile private String message;
+        volatile private JSONObject progress; // 源Region /hotsendProgress 中这张表的进度
+
+        public TableTask(String tableName, HashRanges ranges) {
+            this.tableName = tableName;
+            this.ranges = ranges;
+        }
+
+        /**
+         * @return 发送给源Region /hotsend 的表描述
+         */
+        public JSONObject toRequest() {
+            JSONObject json = new JSONObject();
+            json.put("tableName", tableName);
+            json.put("ranges", ranges.toString());
+            return json;
+        }
+    }
+
+    private int id;
+    private int sourceRegionId;
+    private int targetRegionId;
+    private String source; // 源Region master的HostName
+    private String target; // 目标Region master的HostName
+    private boolean online; // 在线迁移时不锁Region
+    private int parallelism;
+    private long rowsPerSec;
+    private long bytesPerSec;
+    private List<TableTask> tables = new Vector<>();
+    volatile private State state = State.PENDING;
+    volatile private long createdAt = System.currentTimeMillis();
+    volatile private long startedAt;
+    volatile private long finishedAt;
+    volatile private JSONObject throttle; // 源Region当前的限速状态
+}
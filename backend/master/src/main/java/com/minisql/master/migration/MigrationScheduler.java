@@ -0,0 +1,252 @@
+package com.minisql.master.migration;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.minisql.master.utils.Configs;
+import com.minisql.master.zookeeper.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 迁移调度器，单例。同一时刻只运行一个迁移任务，任务内按MIGRATION_PARALLELISM并行迁移多张表，
+ * 每张表单独调用源Region的/hotsend并带上全局的行数/字节数预算，由源Region限速并在前台延迟升高时降速。
+ * 运行期间定期拉取源Region的/hotsendProgress，任务状态通过/meta_info查看。
+ * 在线迁移（MIGRATION_ONLINE）时不锁Region，拷贝期间照常读写，源Region只在切换路由时短暂阻塞写操作
+ */
+public class MigrationScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(MigrationScheduler.class);
+
+    private static final int MAX_HISTORY = 20; // 保留最近的任务数
+
+    private static MigrationScheduler scheduler;
+
+    public static MigrationScheduler getInstance() {
+        if (scheduler == null) {
+            scheduler = new MigrationScheduler();
+        }
+        return scheduler;
+    }
+
+    private final List<MigrationJob> jobs = new Vector<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(daemon("migration-job"));
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(daemon("migration-progress"));
+    volatile private MigrationJob current;
+
+    private MigrationScheduler() {
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * @return 是否有正在排队或运行的任务
+     */
+    public Boolean isBusy() {
+        return current != null;
+    }
+
+    public List<MigrationJob> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+    /**
+     * 按源Region的访问和行数直方图规划每张表要迁走的区间，把负载约一半的一个或多个子区间迁移到target，离线迁移期间两个Region加锁
+     *
+     * @return 提交的任务，已有任务在运行或者没有可以拆分的表时返回null
+     */
+    synchronized public MigrationJob submit(Metadata.RegionMetadata source, Metadata.RegionMetadata target, Set<Metadata.RegionMetadata.Table> tables) {
+        if (current != null) {
+            logger.info("Migration job {} is still running, skip", current.getId());
+            return null;
+        }
+        MigrationJob job = new MigrationJob();
+        job.setId(nextId.getAndIncrement());
+        job.setSourceRegionId(source.getRegionId());
+        job.setTargetRegionId(target.getRegionId());
+        job.setSource(source.getMaster().replaceFirst(":[0-9]+", ":" + Configs.REGION_SERVER_PORT));
+        job.setTarget(target.getMaster().replaceFirst(":[0-9]+", ":" + Configs.REGION_SERVER_PORT));
+        job.setOnline(Configs.MIGRATION_ONLINE);
+        job.setParallelism(Math.max(1, Configs.MIGRATION_PARALLELISM));
+        job.setRowsPerSec(Configs.MIGRATION_ROWS_PER_SEC);
+        job.setBytesPerSec(Configs.MIGRATION_BYTES_PER_SEC);
+        for (var table : tables) {
+            List<SplitPlanner.Segment> segments = new ArrayList<>();
+            for (int[] range : table.getRanges().ranges()) {
+                JSONObject histogram = fetchHistogram(job.getSource(), table.getTableName(), range[0], range[1],
+                        SplitPlanner.binsOf(table.getRanges(), range[0], range[1]));
+                segments.add(new SplitPlanner.Segment(range[0], range[1],
+                        histogram == null ? null : toLongs(histogram.getJSONArray("access")),
+                        histogram == null ? null : toLongs(histogram.getJSONArray("rows"))));
+            }
+            MigrationJob.TableTask task = SplitPlanner.plan(table.getTableName(), segments);
+            if (task != null) {
+                job.getTables().add(task);
+                logger.info("Table {} Owned[{}] Target[{}] moves {} of the load", table.getTableName(), table.getRanges(),
+                        task.getRanges(), String.format("%.2f", task.getMovedShare()));
+            } else {
+                logger.warn("No useful split on table {} [{}], no repartition is required", table.getTableName(), table.getRanges());
+            }
+        }
+        if (job.getTables().isEmpty()) {
+            return null;
+        }
+        current = job;
+        jobs.add(job);
+        while (jobs.size() > MAX_HISTORY) {
+            jobs.remove(0);
+        }
+        logger.info("Submit migration job {}: {} tables from region{} to region{}", job.getId(), job.getTables().size(), job.getSourceRegionId(), job.getTargetRegionId());
+        runner.submit(() -> run(job, source, target));
+        return job;
+    }
+
+    private void run(MigrationJob job, Metadata.RegionMetadata source, Metadata.RegionMetadata target) {
+        // 离线迁移的时候对源Region和目标Region加锁，防止其他操作干扰；在线迁移由源Region自己在切换时阻塞写操作
+        if (!job.isOnline()) {
+            source.acquireLock();
+            target.acquireLock();
+        }
+        job.setStartedAt(System.currentTimeMillis());
+        job.setState(MigrationJob.State.RUNNING);
+        ExecutorService tables = Executors.newFixedThreadPool(Math.min(job.getParallelism(), job.getTables().size()), daemon("migration-table"));
+        ScheduledFuture<?> polling = poller.scheduleWithFixedDelay(() -> pollProgress(job),
+                Configs.MIGRATION_PROGRESS_INTERVAL, Configs.MIGRATION_PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (var task : job.getTables()) {
+                futures.add(tables.submit(() -> moveTable(job, task)));
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            logger.error("Migration job {} interrupted: {}", job.getId(), e.getMessage());
+        } finally {
+            polling.cancel(false);
+            tables.shutdownNow();
+            pollProgress(job);
+            boolean ok = job.getTables().stream().allMatch(t -> t.getState() == MigrationJob.State.DONE);
+            job.setState(ok ? MigrationJob.State.DONE : MigrationJob.State.FAILED);
+            job.setFinishedAt(System.currentTimeMillis());
+            if (!job.isOnline()) {
+                target.releaseLock();
+                source.releaseLock();
+            }
+            current = null;
+            logger.info("Migration job {} finished with state {}", job.getId(), job.getState());
+        }
+    }
+
+    private void moveTable(MigrationJob job, MigrationJob.TableTask task) {
+        task.setState(MigrationJob.State.RUNNING);
+        String requestUrl = Configs.REGION_SERVER_HTTPS + "://" + job.getSource()
+                + "/hotsend?targetIP=" + job.getTarget().replaceFirst(":[0-9]+", "")
+                + "&targetRegionID=" + job.getTargetRegionId()
+                + "&rowsPerSec=" + job.getRowsPerSec()
+                + "&bytesPerSec=" + job.getBytesPerSec()
+                + "&online=" + job.isOnline();
+        logger.info("Move table {} request URL: {}", task.getTableName(), requestUrl);
+        try {
+            JSONArray body = new JSONArray();
+            body.add(task.toRequest());
+            String r = restTemplate(Configs.MIGRATION_TABLE_TIMEOUT).postForObject(requestUrl, body, String.class);
+            JSONObject result = JSON.parseObject(r);
+            if (result != null && "200".equals(result.getString("status"))) {
+                task.setState(MigrationJob.State.DONE);
+            } else {
+                task.setState(MigrationJob.State.FAILED);
+                task.setMessage(result == null ? "No response" : result.getString("msg"));
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            task.setState(MigrationJob.State.FAILED);
+            task.setMessage(e.getMessage());
+        }
+        logger.info("Move table {} finished with state {}", task.getTableName(), task.getState());
+    }
+
+    /**
+     * 从源Region拉取每张表的迁移进度和当前限速
+     */
+    private void pollProgress(MigrationJob job) {
+        try {
+            String requestUrl = Configs.REGION_SERVER_HTTPS + "://" + job.getSource() + "/hotsendProgress";
+            JSONObject result = JSON.parseObject(restTemplate(5000).postForObject(requestUrl, "", String.class));
+            if (result == null) {
+                return;
+            }
+            job.setThrottle(result.getJSONObject("throttle"));
+            JSONArray transfers = result.getJSONArray("transfers");
+            if (transfers == null) {
+                return;
+            }
+            for (int i = 0; i < transfers.size(); i++) {
+                JSONObject progress = transfers.getJSONObject(i);
+                for (var task : job.getTables()) {
+                    if (task.getState() != MigrationJob.State.PENDING
+                            && task.getTableName().equalsIgnoreCase(progress.getString("tableName"))
+                            && String.valueOf(job.getTargetRegionId()).equals(progress.getString("target"))) {
+                        task.setProgress(progress);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Can't get migration progress of job {}: {}", job.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 从源Region拉取表在[start, end)内的访问和行数直方图，失败时返回null，没有任何统计时SplitPlanner退化为中点拆分
+     */
+    private JSONObject fetchHistogram(String source, String tableName, int start, int end, int bins) {
+        try {
+            String requestUrl = Configs.REGION_SERVER_HTTPS + "://" + source + "/loadHistogram?tableName=" + tableName
+                    + "&start=" + start + "&end=" + end + "&bins=" + bins;
+            JSONObject result = JSON.parseObject(restTemplate(5000).postForObject(requestUrl, "", String.class));
+            if (result != null && "200".equals(result.getString("status"))) {
+                return result;
+            }
+            logger.warn("Can't get load histogram of table {}: {}", tableName, result == null ? "no response" : result.getString("msg"));
+        } catch (Exception e) {
+            logger.warn("Can't get load histogram of table {}: {}", tableName, e.getMessage());
+        }
+        return null;
+    }
+
+    private static long[] toLongs(JSONArray array) {
+        if (array == null) {
+            return null;
+        }
+        long[] values = new long[array.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.getLongValue(i);
+        }
+        return values;
+    }
+
+    /**
+     * 一张表的迁移可能持续很久，/hotsend使用比普通请求长得多的读超时
+     */
+    private RestTemplate restTemplate(int readTimeout) {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(1000); // 连接超时时间（单位：毫秒）
+        factory.setReadTimeout(readTimeout);
+        return new RestTemplate(factory);
+    }
+}
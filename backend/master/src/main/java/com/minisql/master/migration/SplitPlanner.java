@@ -0,0 +1,172 @@
+package com.minisql.master.migration;
+
+import com.minisql.master.utils.Configs;
+import com.minisql.master.utils.HashRanges;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按源Region上报的直方图规划一张表要迁走的区间。表在源Region上负责的每个区间等分为若干桶，每个桶的负载是
+ * 访问次数占比和行数占比的加权和。每次在未选中的桶中找一段连续的桶，使已选负载加上它最接近一半，
+ * 最多选SPLIT_MAX_RANGES段，所以一次规划可以迁走多个互不相交的子区间
+ */
+public class SplitPlanner {
+    private static final double TOLERANCE = 0.02; // 已选负载与一半的差距小于该值时停止
+
+    /**
+     * 表在源Region上负责的一个区间及其直方图
+     */
+    public static class Segment {
+        private final int start;
+        private final int end;
+        private final long[] access;
+        private final long[] rows;
+
+        /**
+         * @param access 每个桶的访问次数，可以为null
+         * @param rows   每个桶的行数，可以为null
+         */
+        public Segment(int start, int end, long[] access, long[] rows) {
+            this.start = start;
+            this.end = end;
+            this.access = access;
+            this.rows = rows;
+        }
+    }
+
+    private static class Cell {
+        private final int start;
+        private final int end;
+        private final double load;
+        private boolean taken;
+
+        private Cell(int start, int end, double load) {
+            this.start = start;
+            this.end = end;
+            this.load = load;
+        }
+    }
+
+    private SplitPlanner() {
+    }
+
+    /**
+     * @return 每个区间分到的桶数，与区间大小成正比
+     */
+    public static int binsOf(HashRanges owned, int start, int end) {
+        long bins = Configs.SPLIT_HISTOGRAM_BINS * (long) (end - start) / Math.max(1, owned.size());
+        return (int) Math.max(1, Math.min(end - start, bins));
+    }
+
+    /**
+     * @return 迁移任务，负载集中在一个桶内、迁走的负载太少时返回null；没有任何统计时退化为把最大区间的后一半迁走
+     */
+    public static MigrationJob.TableTask plan(String tableName, List<Segment> segments) {
+        long accessTotal = 0, rowsTotal = 0;
+        for (Segment segment : segments) {
+            accessTotal += sum(segment.access);
+            rowsTotal += sum(segment.rows);
+        }
+        if (accessTotal == 0 && rowsTotal == 0) {
+            return halveLargest(tableName, segments);
+        }
+        double accessWeight = accessTotal == 0 ? 0 : rowsTotal == 0 ? 1 : Configs.SPLIT_ACCESS_WEIGHT;
+        List<List<Cell>> cells = new ArrayList<>();
+        for (Segment segment : segments) {
+            cells.add(cells(segment, accessWeight, accessTotal, rowsTotal));
+        }
+        HashRanges moved = new HashRanges();
+        double remaining = 0.5;
+        for (int n = 0; n < Math.max(1, Configs.SPLIT_MAX_RANGES) && remaining > TOLERANCE; n++) {
+            // 在每个区间里找未选中的连续桶[i, j)，使剩余的目标负载减去它的绝对值最小
+            List<Cell> bestCells = null;
+            int bestI = 0, bestJ = 0;
+            double bestLoad = 0, bestDiff = remaining;
+            for (List<Cell> row : cells) {
+                for (int i = 0; i < row.size(); i++) {
+                    double load = 0;
+                    for (int j = i; j < row.size() && !row.get(j).taken; j++) {
+                        load += row.get(j).load;
+                        double diff = Math.abs(remaining - load);
+                        if (diff < bestDiff) {
+                            bestDiff = diff;
+                            bestCells = row;
+                            bestI = i;
+                            bestJ = j + 1;
+                            bestLoad = load;
+                        }
+                    }
+                }
+            }
+            if (bestCells == null) {
+                break;
+            }
+            // 两端没有负载的桶不改变迁走的负载，不随之迁走
+            while (bestJ - bestI > 1 && bestCells.get(bestI).load == 0) {
+                bestI++;
+            }
+            while (bestJ - bestI > 1 && bestCells.get(bestJ - 1).load == 0) {
+                bestJ--;
+            }
+            for (int k = bestI; k < bestJ; k++) {
+                bestCells.get(k).taken = true;
+            }
+            moved.add(bestCells.get(bestI).start, bestCells.get(bestJ - 1).end);
+            remaining -= bestLoad;
+        }
+        double share = 0.5 - remaining;
+        if (moved.isEmpty() || share < Configs.SPLIT_MIN_SHARE) {
+            return null;
+        }
+        MigrationJob.TableTask task = new MigrationJob.TableTask(tableName, moved);
+        task.setMovedShare(share);
+        return task;
+    }
+
+    private static List<Cell> cells(Segment segment, double accessWeight, long accessTotal, long rowsTotal) {
+        int bins = Math.max(segment.access == null ? 0 : segment.access.length, segment.rows == null ? 0 : segment.rows.length);
+        List<Cell> cells = new ArrayList<>();
+        for (int i = 0; i < bins; i++) {
+            double load = 0;
+            if (accessTotal > 0 && segment.access != null && i < segment.access.length) {
+                load += accessWeight * segment.access[i] / accessTotal;
+            }
+            if (rowsTotal > 0 && segment.rows != null && i < segment.rows.length) {
+                load += (1 - accessWeight) * segment.rows[i] / rowsTotal;
+            }
+            int start = (int) (segment.start + (long) (segment.end - segment.start) * i / bins);
+            int end = (int) (segment.start + (long) (segment.end - segment.start) * (i + 1) / bins);
+            if (end > start) {
+                cells.add(new Cell(start, end, load));
+            }
+        }
+        return cells;
+    }
+
+    private static MigrationJob.TableTask halveLargest(String tableName, List<Segment> segments) {
+        Segment largest = null;
+        for (Segment segment : segments) {
+            if (largest == null || segment.end - segment.start > largest.end - largest.start) {
+                largest = segment;
+            }
+        }
+        if (largest == null || largest.end - largest.start <= 1) {
+            return null;
+        }
+        int mid = (largest.start + largest.end) / 2;
+        MigrationJob.TableTask task = new MigrationJob.TableTask(tableName, new HashRanges(mid, largest.end));
+        task.setMovedShare(0.5);
+        return task;
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        if (values != null) {
+            for (long value : values) {
+                total += value;
+            }
+        }
+        return total;
+    }
+}
@@ -13,6 +13,25 @@ public class Configs {
     public static int MAX_HASH = 65536; // Exclusive
     public static int REGION_SERVER_PORT= 9090;
     public static String REGION_SERVER_HTTPS = "http";
+    public static boolean MIGRATION_ONLINE = true; // 在线迁移，不锁Region，只在切换路由时短暂阻塞源Region的写操作
+    public static int MIGRATION_PARALLELISM = 2; // 一次迁移中同时迁移的表数
+    public static long MIGRATION_ROWS_PER_SEC = 20000; // 迁移的全局行数预算，0表示不限速
+    public static long MIGRATION_BYTES_PER_SEC = 16 * 1024 * 1024; // 迁移的全局字节数预算，0表示不限速
+    public static int MIGRATION_TABLE_TIMEOUT = 1800000; // 单张表迁移的超时（毫秒）
+    public static int MIGRATION_PROGRESS_INTERVAL = 2000; // 拉取迁移进度的间隔（毫秒）
+    public static int SPLIT_HISTOGRAM_BINS = 64; // 规划拆分点时把表的区间分成的桶数
+    public static double SPLIT_ACCESS_WEIGHT = 0.7; // 桶负载中访问次数的权重，其余为行数的权重
+    public static double SPLIT_MIN_SHARE = 0.1; // 迁走的负载占比低于该值时不迁移这张表
+    public static int SPLIT_MAX_RANGES = 4; // 一张表一次最多迁走的互不相交的子区间数
+    public static int ROUTE_BATCH_MAX_KEYS = 100000; // 一次批量路由请求最多的主键数
+    public static double REPLICA_EWMA_ALPHA = 0.3; // master观察到的查询延迟的指数移动平均系数
+    public static int REPLICA_EJECT_FAILURES = 3; // 连续失败多少次后暂时不再选择该Server处理查询
+    public static long REPLICA_EJECT_MS = 30000; // 摘除的时长（毫秒）
+    public static long REPLICA_STATS_STALE_MS = 10000; // Region上报的负载超过该时长（毫秒）未更新时不再使用
+    public static int COORDINATOR_PARALLELISM = 16; // 协调查询同时向Region发送的请求数
+    public static long COORDINATOR_DEADLINE_MS = 5000; // 协调查询默认的截止时间（毫秒）
+    public static long COORDINATOR_MAX_DEADLINE_MS = 30000; // 请求可指定的最长截止时间（毫秒）
+    public static boolean COORDINATOR_ALLOW_PARTIAL = false; // 部分Region失败时是否默认返回其余Region的结果
 
     public static String generateRegionPath(int regionId) {
         return String.format("/region%d", regionId);
@@ -0,0 +1,130 @@
+package com.minisql.master.utils;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.*;
+
+/**
+ * 一张表在一个Region上负责的若干个互不相交的哈希区间[start, end)，按起点存放在TreeMap中，判断哈希值归属是O(log n)。
+ * Zookeeper中编码为"s1,e1;s2,e2"，只有一个区间时与原来的"start,end"相同，空串表示不负责任何区间
+ */
+public class HashRanges {
+    private final TreeMap<Integer, Integer> ranges = new TreeMap<>(); // 起点 -> 终点，区间互不相交且不相邻
+
+    public HashRanges() {
+    }
+
+    public HashRanges(int start, int end) {
+        add(start, end);
+    }
+
+    @JsonCreator
+    public static HashRanges parse(String encoded) {
+        HashRanges result = new HashRanges();
+        if (encoded == null || encoded.isBlank()) {
+            return result;
+        }
+        for (String range : encoded.split(";")) {
+            String[] bounds = range.trim().split(",");
+            result.add(Integer.parseInt(bounds[0].trim()), Integer.parseInt(bounds[1].trim()));
+        }
+        return result;
+    }
+
+    public boolean contains(int hash) {
+        Map.Entry<Integer, Integer> entry = ranges.floorEntry(hash);
+        return entry != null && hash < entry.getValue();
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @return 区间内哈希值的总数
+     */
+    public long size() {
+        long size = 0;
+        for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) {
+            size += entry.getValue() - entry.getKey();
+        }
+        return size;
+    }
+
+    /**
+     * @return 按起点排序的区间，每个元素为{start, end}
+     */
+    public List<int[]> ranges() {
+        List<int[]> result = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) {
+            result.add(new int[]{entry.getKey(), entry.getValue()});
+        }
+        return result;
+    }
+
+    /**
+     * 并入[start, end)，与已有区间重叠或相邻时合并
+     */
+    public HashRanges add(int start, int end) {
+        if (end <= start) {
+            return this;
+        }
+        Map.Entry<Integer, Integer> lower = ranges.floorEntry(start);
+        if (lower != null && lower.getValue() >= start) {
+            start = lower.getKey();
+            end = Math.max(end, lower.getValue());
+        }
+        Map.Entry<Integer, Integer> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+        }
+        ranges.put(start, end);
+        return this;
+    }
+
+    /**
+     * 去掉[start, end)，被截断的区间保留两侧剩余的部分
+     */
+    public HashRanges remove(int start, int end) {
+        if (end <= start) {
+            return this;
+        }
+        Map.Entry<Integer, Integer> lower = ranges.lowerEntry(start);
+        if (lower != null && lower.getValue() > start) {
+            ranges.put(lower.getKey(), start);
+            if (lower.getValue() > end) {
+                ranges.put(end, lower.getValue());
+            }
+        }
+        Map.Entry<Integer, Integer> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() < end) {
+            ranges.remove(next.getKey());
+            if (next.getValue() > end) {
+                ranges.put(end, next.getValue());
+            }
+        }
+        return this;
+    }
+
+    @JsonValue
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(";");
+        for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) {
+            joiner.add(entry.getKey() + "," + entry.getValue());
+        }
+        return joiner.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof HashRanges && ranges.equals(((HashRanges) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return ranges.hashCode();
+    }
+}
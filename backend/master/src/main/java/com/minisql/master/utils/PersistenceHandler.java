@@ -40,6 +40,31 @@ public class PersistenceHandler {
             } else {
                 Configs.REGION_SERVER_HTTPS = "http";
             }
+            Configs.MIGRATION_ONLINE = jsonObject.getBooleanValue("MIGRATION_ONLINE", Configs.MIGRATION_ONLINE);
+            Configs.MIGRATION_PARALLELISM = jsonObject.getIntValue("MIGRATION_PARALLELISM", Configs.MIGRATION_PARALLELISM);
+            Configs.MIGRATION_ROWS_PER_SEC = jsonObject.getLongValue("MIGRATION_ROWS_PER_SEC", Configs.MIGRATION_ROWS_PER_SEC);
+            Configs.MIGRATION_BYTES_PER_SEC = jsonObject.getLongValue("MIGRATION_BYTES_PER_SEC", Configs.MIGRATION_BYTES_PER_SEC);
+            Configs.MIGRATION_TABLE_TIMEOUT = jsonObject.getIntValue("MIGRATION_TABLE_TIMEOUT", Configs.MIGRATION_TABLE_TIMEOUT);
+            Configs.MIGRATION_PROGRESS_INTERVAL = jsonObject.getIntValue("MIGRATION_PROGRESS_INTERVAL", Configs.MIGRATION_PROGRESS_INTERVAL);
+            Configs.SPLIT_HISTOGRAM_BINS = jsonObject.getIntValue("SPLIT_HISTOGRAM_BINS", Configs.SPLIT_HISTOGRAM_BINS);
+            Configs.SPLIT_MAX_RANGES = jsonObject.getIntValue("SPLIT_MAX_RANGES", Configs.SPLIT_MAX_RANGES);
+            Configs.ROUTE_BATCH_MAX_KEYS = jsonObject.getIntValue("ROUTE_BATCH_MAX_KEYS", Configs.ROUTE_BATCH_MAX_KEYS);
+            Configs.REPLICA_EJECT_FAILURES = jsonObject.getIntValue("REPLICA_EJECT_FAILURES", Configs.REPLICA_EJECT_FAILURES);
+            Configs.REPLICA_EJECT_MS = jsonObject.getLongValue("REPLICA_EJECT_MS", Configs.REPLICA_EJECT_MS);
+            Configs.REPLICA_STATS_STALE_MS = jsonObject.getLongValue("REPLICA_STATS_STALE_MS", Configs.REPLICA_STATS_STALE_MS);
+            Configs.COORDINATOR_PARALLELISM = jsonObject.getIntValue("COORDINATOR_PARALLELISM", Configs.COORDINATOR_PARALLELISM);
+            Configs.COORDINATOR_DEADLINE_MS = jsonObject.getLongValue("COORDINATOR_DEADLINE_MS", Configs.COORDINATOR_DEADLINE_MS);
+            Configs.COORDINATOR_MAX_DEADLINE_MS = jsonObject.getLongValue("COORDINATOR_MAX_DEADLINE_MS", Configs.COORDINATOR_MAX_DEADLINE_MS);
+            Configs.COORDINATOR_ALLOW_PARTIAL = jsonObject.getBooleanValue("COORDINATOR_ALLOW_PARTIAL", Configs.COORDINATOR_ALLOW_PARTIAL);
+            if (jsonObject.containsKey("SPLIT_ACCESS_WEIGHT")) {
+                Configs.SPLIT_ACCESS_WEIGHT = jsonObject.getDoubleValue("SPLIT_ACCESS_WEIGHT");
+            }
+            if (jsonObject.containsKey("SPLIT_MIN_SHARE")) {
+                Configs.SPLIT_MIN_SHARE = jsonObject.getDoubleValue("SPLIT_MIN_SHARE");
+            }
+            if (jsonObject.containsKey("REPLICA_EWMA_ALPHA")) {
+                Configs.REPLICA_EWMA_ALPHA = jsonObject.getDoubleValue("REPLICA_EWMA_ALPHA");
+            }
             logger.info("Configurations loaded...");
         } catch (IOException e) {
             logger.error(e.getMessage());
@@ -1,10 +1,13 @@
 package com.minisql.master.zookeeper;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.minisql.master.utils.HashRanges;
 import lombok.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.minisql.master.utils.Configs.MAX_HASH;
 
@@ -23,8 +26,7 @@ public class Metadata {
         @AllArgsConstructor
         @NoArgsConstructor
         public static class Table {
-            private Integer start;
-            private Integer end;
+            private HashRanges ranges; // 负责的哈希区间，可以有多个互不相交的区间
             private String tableName;
         }
 
@@ -78,11 +80,8 @@ public class Metadata {
          */
         synchronized public Boolean pkValueBelongThisRegion(String tableName, String pkValue) {
             for (Table table : tables) {
-                if (table.tableName.equals(tableName)) {
-                    Integer hashValue = hash(pkValue);
-                    if (hashValue >= table.start && hashValue < table.end) {
-                        return true;
-                    }
+                if (table.tableName.equals(tableName) && table.ranges.contains(hash(pkValue))) {
+                    return true;
                 }
             }
             return false;
@@ -101,28 +100,27 @@ public class Metadata {
                 logger.warn("Slave '{}' doesn't exist", slave);
             } else {
                 slaves.remove(slave);
+                ReplicaStats.getInstance().forget(slave);
             }
         }
 
-        synchronized public void addTable(String table, int hashStart, int hashEnd) {
+        synchronized public void addTable(String table, HashRanges ranges) {
             if (hasTable(table)) {
                 logger.warn("Table '{}' already exists", table);
             } else {
                 Table t = new Table();
                 t.tableName = table;
-                t.start = hashStart; // Inclusive
-                t.end = hashEnd; // Exclusive
+                t.ranges = ranges;
                 logger.info("{}", t);
                 tables.add(t);
             }
         }
 
-        synchronized public void updateTable(String table, int hashStart, int hashEnd) {
+        synchronized public void updateTable(String table, HashRanges ranges) {
             if (hasTable(table)) {
                 for (Table t : tables) {
                     if (t.tableName.equals(table)) {
-                        t.start = hashStart;
-                        t.end = hashEnd;
+                        t.ranges = ranges;
                         logger.info("Table '{}' updated to {}", table, t);
                     }
                 }
@@ -139,18 +137,27 @@ public class Metadata {
             }
         }
 
-        volatile private int slaveIdx = 0;
+        /**
+         * @return 表的副本，用于生成路由快照
+         */
+        synchronized public List<Table> tablesSnapshot() {
+            List<Table> snapshot = new ArrayList<>(tables.size());
+            for (Table t : tables) {
+                snapshot.add(new Table(t.ranges, t.tableName));
+            }
+            return snapshot;
+        }
 
         /**
-         * 轮询选择Region内下一个被调用的Slave服务器，如果没有slaves返回master的地址
+         * 按延迟和负载选择Region内处理查询的Slave服务器：随机取两个未被摘除的slave，选择负载较低的一个，
+         * 如果没有slaves返回master的地址
          *
          * @return 返回Slave的Hostname
          */
         synchronized public String pickHandleSlave() {
             String hostName;
             if (!slaves.isEmpty()) {
-                slaveIdx = (slaveIdx + 1) % slaves.size();
-                hostName = slaves.get(slaveIdx);
+                hostName = ReplicaStats.getInstance().pick(slaves);
             } else if (!master.isEmpty()) {
                 hostName = master;
             } else {
@@ -166,11 +173,11 @@ public class Metadata {
          *
          * @return 透过查看是否有master判断region是否online，online的region必须可读可写
          */
-        synchronized public Boolean isOnline() {
+        public Boolean isOnline() {
             return !master.isEmpty();
         }
 
-        synchronized public Boolean isWritable() {
+        public Boolean isWritable() {
             return isOnline() && !isLocked();
         }
 
@@ -181,7 +188,7 @@ public class Metadata {
             lock = true;
         }
 
-        synchronized public Boolean isLocked() {
+        public Boolean isLocked() {
             return lock;
         }
 
@@ -207,6 +214,11 @@ public class Metadata {
 
     volatile private List<RegionMetadata> regions;
 
+    private final AtomicReference<RoutingTable> routing = new AtomicReference<>(RoutingTable.empty());
+
+    @Setter(AccessLevel.NONE)
+    volatile private long routingEpoch; // Zookeeper中/epoch节点的版本号
+
     public static final String masterUuid = UUID.randomUUID().toString();
 
     private Metadata() {
@@ -214,16 +226,37 @@ public class Metadata {
     }
 
     /**
-     * 遍历所有Region检查每个Region看是否存在指定Table
+     * @return 当前的路由快照，读取时不加锁
+     */
+    @JsonIgnore
+    public RoutingTable getRouting() {
+        return routing.get();
+    }
+
+    /**
+     * Region或表发生变化后重新生成路由快照并替换，多个监听线程同时刷新时串行执行，保证最后替换的快照包含所有变化
+     */
+    synchronized public void refreshRouting() {
+        routing.set(RoutingTable.build(regions, routingEpoch));
+    }
+
+    /**
+     * 路由纪元变化时刷新快照。纪元可能先于表的变化到达，此时快照的内容稍后由表的监听刷新，
+     * 在此之间拿到旧内容的客户端会在Region拒绝请求时再次刷新
+     */
+    public void updateRoutingEpoch(long epoch) {
+        routingEpoch = epoch;
+        refreshRouting();
+    }
+
+    /**
+     * 在路由快照中检查是否存在指定Table
      *
      * @param tableName Table name
      * @return True if table existing in one of the region, else return false
      */
     public Boolean hasTable(String tableName) {
-        for (var i : regions) {
-            if (i.hasTable(tableName)) return true;
-        }
-        return false;
+        return routing.get().hasTable(tableName);
     }
 
     /**
@@ -253,39 +286,45 @@ public class Metadata {
     }
 
     /**
-     * 遍历所有Region，根据数据库的操作类型，做出对应的判断与检查，选择合适的服务器
+     * 根据数据库的操作类型，在路由快照中找到负责该表的Region，做出对应的判断与检查，选择合适的服务器
      *
      * @param tableName 操作的表
      * @param type      操作类型，可以是QUERY_TABLE, CREATE_TABLE, WRITE_TABLE(SQL的INSERT, UPDATE, DROP...写操作都属于WRITE_TABLE)
      * @return 返回被选择的服务器IP地址
      */
     public List<String> pickServer(String tableName, OperationType type, String pkValue) {
-        List<String> hostName = new Vector<>();
+        List<String> hostName = new ArrayList<>();
+        RoutingTable snapshot = routing.get();
         switch (type) {
             case DELETE_TABLE:
             case DROP_TABLE:
             case UPDATE_TABLE:
-                for (var region : regions) {
-                    if (region.hasTable(tableName) && region.isWritable()) {
-                        hostName.add(region.getMaster()); // 轮询region内的服务器来处理查询
+                for (var route : snapshot.routes(tableName)) {
+                    if (route.getRegion().isWritable()) {
+                        hostName.add(route.getRegion().getMaster()); // 轮询region内的服务器来处理查询
                     }
                 }
                 break;
             case QUERY_TABLE:
-                // 返回存在被查询的表所在的所有Regions' slaves
-                for (var region : regions) {
-                    if (region.isOnline() && region.hasTable(tableName)) {
-                        hostName.add(region.pickHandleSlave()); // 轮询region内的服务器来处理查询
+                // 返回存在被查询的表所在的所有Regions' slaves；迁移的目标在切换路由前不负责任何区间，不参与查询
+                for (var route : snapshot.routes(tableName)) {
+                    if (route.getRegion().isOnline() && !route.getRanges().isEmpty()) {
+                        hostName.add(route.getRegion().pickHandleSlave()); // 按延迟和负载选择region内的服务器来处理查询
                     }
                 }
                 break;
             case CREATE_TABLE:
                 // 选择table最少且无此table的region来创建表
+                Set<Integer> owners = new HashSet<>();
+                for (var route : snapshot.routes(tableName)) {
+                    owners.add(route.getRegion().getRegionId());
+                }
                 int minNTables = Integer.MAX_VALUE;
                 RegionMetadata minRegion = null;
-                for (var region : regions) {
-                    if (!region.hasTable(tableName) && region.isWritable()) {
-                        int nTables = region.getTables().size();
+                for (int i = 0; i < snapshot.getRegions().size(); i++) {
+                    RegionMetadata region = snapshot.getRegions().get(i);
+                    if (!owners.contains(region.getRegionId()) && region.isWritable()) {
+                        int nTables = snapshot.tableCount(i);
                         if (nTables < minNTables) {
                             minNTables = nTables;
                             minRegion = region;
@@ -299,16 +338,13 @@ public class Metadata {
 
             case INSERT_TABLE:
                 // 返回负责处理insert的Region Master
-                for (var region : regions) {
-                    if (region.pkValueBelongThisRegion(tableName, pkValue)) {
-                        if (region.isWritable()) {
-                            hostName.add(region.getMaster());
-                        } else {
-                            logger.warn("Region{} is not writable", region.regionId);
-                        }
-                    } else {
-                        logger.warn("{} in table {} doesn't belong to region with master {}", pkValue, tableName, region.master);
-                    }
+                RegionMetadata owner = snapshot.owner(tableName, RegionMetadata.hash(pkValue));
+                if (owner == null) {
+                    logger.warn("{} in table {} doesn't belong to any region", pkValue, tableName);
+                } else if (owner.isWritable()) {
+                    hostName.add(owner.getMaster());
+                } else {
+                    logger.warn("Region{} is not writable", owner.regionId);
                 }
                 break;
 
@@ -318,4 +354,28 @@ public class Metadata {
 
         return hostName;
     }
+
+    /**
+     * 批量插入时按负责的Region Master对主键分组，所有主键使用同一个路由快照
+     *
+     * @param pkValues 主键的实际值
+     * @param unrouted 没有Region负责或负责的Region不可写的主键
+     * @return Region Master -> 由它处理的主键，按主键第一次出现的顺序排列
+     */
+    public Map<String, List<String>> groupByMaster(String tableName, List<String> pkValues, List<String> unrouted) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        RoutingTable snapshot = routing.get();
+        for (String pkValue : pkValues) {
+            RegionMetadata owner = snapshot.owner(tableName, RegionMetadata.hash(pkValue));
+            if (owner != null && owner.isWritable()) {
+                groups.computeIfAbsent(owner.getMaster(), k -> new ArrayList<>()).add(pkValue);
+            } else {
+                unrouted.add(pkValue);
+            }
+        }
+        if (!unrouted.isEmpty()) {
+            logger.warn("{} keys in table {} have no writable region", unrouted.size(), tableName);
+        }
+        return groups;
+    }
 }
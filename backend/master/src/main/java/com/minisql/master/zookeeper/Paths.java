@@ -6,7 +6,8 @@ import lombok.Getter;
 enum Paths {
     MASTER("/master"),
     SLAVE("/slaves"),
-    TABLE("/tables");
+    TABLE("/tables"),
+    EPOCH("/epoch"); // 路由纪元，Region每次改变表的区间时在同一个事务中更新，节点的版本号即纪元
 
     private final String path;
 
@@ -0,0 +1,142 @@
+package com.minisql.master.zookeeper;
+
+import com.minisql.master.utils.Configs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个Region Server的负载信号：Region上报的查询延迟和正在执行的查询数，以及master自己观察到的延迟、未完成请求数和连续失败次数。
+ * 选择slave时随机取两个未被摘除的候选，选择负载较低的一个（power of two choices）；连续失败达到REPLICA_EJECT_FAILURES次的
+ * Server被摘除REPLICA_EJECT_MS毫秒，之后重新参与选择
+ */
+public class ReplicaStats {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaStats.class);
+
+    private static class Stat {
+        private final AtomicInteger outstanding = new AtomicInteger(); // master发出但还没有返回的请求
+        private volatile double observedMs = -1; // master观察到的延迟的指数移动平均
+        private volatile double reportedMs = -1; // Region上报的延迟的指数移动平均
+        private volatile int reportedInflight;
+        private volatile long reportedAt;
+        private volatile int failures; // 连续失败次数
+        private volatile long ejectedUntil;
+
+        /**
+         * @return 延迟与排队请求数的乘积，没有任何延迟信息的Server优先被尝试
+         */
+        private double score(long now) {
+            double latency = Math.max(observedMs, now - reportedAt <= Configs.REPLICA_STATS_STALE_MS ? reportedMs : -1);
+            int load = outstanding.get() + (now - reportedAt <= Configs.REPLICA_STATS_STALE_MS ? reportedInflight : 0);
+            return (Math.max(0, latency) + 1) * (load + 1);
+        }
+    }
+
+    private static ReplicaStats instance;
+
+    public static synchronized ReplicaStats getInstance() {
+        if (instance == null) {
+            instance = new ReplicaStats();
+        }
+        return instance;
+    }
+
+    private final Map<String, Stat> stats = new ConcurrentHashMap<>();
+
+    private ReplicaStats() {
+    }
+
+    private Stat stat(String hostName) {
+        return stats.computeIfAbsent(hostName, k -> new Stat());
+    }
+
+    /**
+     * 记录Region上报的负载
+     */
+    public void report(String hostName, double latencyMs, int inflight) {
+        Stat stat = stat(hostName);
+        stat.reportedMs = latencyMs;
+        stat.reportedInflight = inflight;
+        stat.reportedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * master向hostName发出请求前调用，与end成对出现
+     */
+    public void begin(String hostName) {
+        stat(hostName).outstanding.incrementAndGet();
+    }
+
+    public void end(String hostName, long nanos, boolean ok) {
+        Stat stat = stat(hostName);
+        stat.outstanding.decrementAndGet();
+        observe(hostName, nanos, ok);
+    }
+
+    /**
+     * 记录master观察到的一次请求结果，latencyNanos小于0时只记录成败
+     */
+    public void observe(String hostName, long latencyNanos, boolean ok) {
+        Stat stat = stat(hostName);
+        synchronized (stat) {
+            if (latencyNanos >= 0) {
+                double ms = latencyNanos / 1e6;
+                stat.observedMs = stat.observedMs < 0 ? ms : stat.observedMs * (1 - Configs.REPLICA_EWMA_ALPHA) + ms * Configs.REPLICA_EWMA_ALPHA;
+            }
+            if (ok) {
+                stat.failures = 0;
+            } else if (++stat.failures >= Configs.REPLICA_EJECT_FAILURES) {
+                stat.ejectedUntil = System.currentTimeMillis() + Configs.REPLICA_EJECT_MS;
+                stat.failures = 0;
+                logger.warn("Server {} failed {} times in a row, ejected for {} ms", hostName, Configs.REPLICA_EJECT_FAILURES, Configs.REPLICA_EJECT_MS);
+            }
+        }
+    }
+
+    public boolean isEjected(String hostName) {
+        Stat stat = stats.get(hostName);
+        return stat != null && stat.ejectedUntil > System.currentTimeMillis();
+    }
+
+    /**
+     * Server离开Region后不再保留它的统计
+     */
+    public void forget(String hostName) {
+        stats.remove(hostName);
+    }
+
+    /**
+     * 在未被摘除的候选中随机取两个，返回负载较低的一个；全部被摘除时在所有候选中选择
+     *
+     * @return 候选为空时返回null
+     */
+    public String pick(List<String> hostNames) {
+        long now = System.currentTimeMillis();
+        List<String> candidates = new ArrayList<>(hostNames.size());
+        for (String hostName : hostNames) {
+            if (!isEjected(hostName)) {
+                candidates.add(hostName);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = hostNames;
+        }
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(candidates.size());
+        int j = random.nextInt(candidates.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+        String a = candidates.get(i), b = candidates.get(j);
+        return stat(a).score(now) <= stat(b).score(now) ? a : b;
+    }
+}
@@ -0,0 +1,143 @@
+package com.minisql.master.zookeeper;
+
+import com.minisql.master.utils.HashRanges;
+
+import java.util.*;
+
+/**
+ * 路由快照：表名 -> 负责该表的Region及其哈希区间，以及每个Region的表数量。快照生成后不再修改，
+ * ZkListener应用表的变化后由Metadata重新生成并整体替换，路由请求读快照时不需要加锁，按表名查找是O(1)。
+ * 每张表另有一个按区间起点排序的索引，主键路由只需计算一次哈希并做一次floor查找。
+ * 快照带有生成时Zookeeper中的路由纪元，客户端按纪元判断缓存的路由是否过期
+ */
+public class RoutingTable {
+
+    /**
+     * 一张表在一个Region上负责的区间
+     */
+    public static class Route {
+        private final Metadata.RegionMetadata region;
+        private final HashRanges ranges;
+
+        Route(Metadata.RegionMetadata region, HashRanges ranges) {
+            this.region = region;
+            this.ranges = ranges;
+        }
+
+        public Metadata.RegionMetadata getRegion() {
+            return region;
+        }
+
+        public HashRanges getRanges() {
+            return ranges;
+        }
+    }
+
+    /**
+     * 区间索引中的一项，区间起点是索引的键
+     */
+    private static class Owner {
+        private final int end;
+        private final Metadata.RegionMetadata region;
+
+        private Owner(int end, Metadata.RegionMetadata region) {
+            this.end = end;
+            this.region = region;
+        }
+    }
+
+    private final Map<String, List<Route>> routes;
+    private final Map<String, NavigableMap<Integer, Owner>> owners; // 表名 -> 区间起点 -> 区间终点和Region
+    private final List<Metadata.RegionMetadata> regions;
+    private final int[] tableCounts; // 与regions一一对应
+    private final long epoch;
+
+    private RoutingTable(Map<String, List<Route>> routes, Map<String, NavigableMap<Integer, Owner>> owners,
+                         List<Metadata.RegionMetadata> regions, int[] tableCounts, long epoch) {
+        this.epoch = epoch;
+        this.routes = routes;
+        this.owners = owners;
+        this.regions = regions;
+        this.tableCounts = tableCounts;
+    }
+
+    public static RoutingTable empty() {
+        return new RoutingTable(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(), new int[0], 0);
+    }
+
+    /**
+     * 逐个Region复制表和区间，只在复制单个Region时持有它的锁
+     */
+    static RoutingTable build(List<Metadata.RegionMetadata> regions, long epoch) {
+        List<Metadata.RegionMetadata> regionList = new ArrayList<>(regions);
+        int[] tableCounts = new int[regionList.size()];
+        Map<String, List<Route>> routes = new HashMap<>();
+        for (int i = 0; i < regionList.size(); i++) {
+            Metadata.RegionMetadata region = regionList.get(i);
+            List<Metadata.RegionMetadata.Table> tables = region.tablesSnapshot();
+            tableCounts[i] = tables.size();
+            for (var table : tables) {
+                routes.computeIfAbsent(table.getTableName(), k -> new ArrayList<>()).add(new Route(region, table.getRanges()));
+            }
+        }
+        Map<String, NavigableMap<Integer, Owner>> owners = new HashMap<>();
+        for (Map.Entry<String, List<Route>> entry : routes.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            // 各Region负责的区间互不相交，切换路由是一个Zookeeper事务，所以同一个起点不会出现两次
+            TreeMap<Integer, Owner> index = new TreeMap<>();
+            for (Route route : entry.getValue()) {
+                for (int[] range : route.ranges.ranges()) {
+                    index.put(range[0], new Owner(range[1], route.region));
+                }
+            }
+            owners.put(entry.getKey(), index);
+        }
+        return new RoutingTable(Collections.unmodifiableMap(routes), Collections.unmodifiableMap(owners),
+                Collections.unmodifiableList(regionList), tableCounts, epoch);
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return 所有表名
+     */
+    public Set<String> tableNames() {
+        return routes.keySet();
+    }
+
+    public boolean hasTable(String tableName) {
+        return routes.containsKey(tableName);
+    }
+
+    /**
+     * @return 负责该表的Region，按Region在元数据中的顺序排列；表不存在时为空列表
+     */
+    public List<Route> routes(String tableName) {
+        return routes.getOrDefault(tableName, Collections.emptyList());
+    }
+
+    /**
+     * @return 负责该哈希值的Region，没有Region负责时返回null
+     */
+    public Metadata.RegionMetadata owner(String tableName, int hash) {
+        NavigableMap<Integer, Owner> index = owners.get(tableName);
+        if (index == null) {
+            return null;
+        }
+        Map.Entry<Integer, Owner> entry = index.floorEntry(hash);
+        return entry != null && hash < entry.getValue().end ? entry.getValue().region : null;
+    }
+
+    public List<Metadata.RegionMetadata> getRegions() {
+        return regions;
+    }
+
+    /**
+     * @param index Region在getRegions()中的下标
+     */
+    public int tableCount(int index) {
+        return tableCounts[index];
+    }
+}
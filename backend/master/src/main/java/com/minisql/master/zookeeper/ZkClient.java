@@ -71,7 +71,10 @@ public class ZkClient {
             zkListener.listenSlaves(); // Listen to slaves ZNode and its child nodes
             metadata.getRegions().add(regionMetadata);
         }
+        // 监听线程可能在Region加入列表之前就收到了表，加入全部Region后重新生成一次路由快照
+        metadata.refreshRouting();
         zkListener.listenMasterMaster();
+        zkListener.listenEpoch();
         try {
             if (zkClient.checkExists().forPath("/master/master") == null) {
                 initMasterMaster();
@@ -1,6 +1,7 @@
 package com.minisql.master.zookeeper;
 
 import com.minisql.master.utils.Configs;
+import com.minisql.master.utils.HashRanges;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
@@ -158,14 +159,10 @@ public class ZkListener {
                         paths = curr.getPath().split("/");
                         if (paths.length == 4) {
                             String tableName = paths[3];
-                            String hashRange;
-                            int hashStart = 0, hashEnd = MAX_HASH;
+                            HashRanges ranges = new HashRanges(0, MAX_HASH);
                             try {
-                                hashRange = new String(curr.getData());
-                                String[] hrList = hashRange.split(",");
-                                hashStart = Integer.parseInt(hrList[0]);
-                                hashEnd = Integer.parseInt(hrList[1]);
-                                logger.info("Hash range is [{},{})", hashStart, hashEnd);
+                                ranges = HashRanges.parse(new String(curr.getData()));
+                                logger.info("Hash ranges are {}", ranges);
                             } catch (Exception e) {
                                 if (e instanceof NullPointerException) {
                                     logger.warn("Table's node data is null, which mean normal creation of table");
@@ -174,10 +171,12 @@ public class ZkListener {
                                 }
                             }
                             if (type == CuratorCacheListener.Type.NODE_CREATED) {
-                                regionMetadata.addTable(tableName, hashStart, hashEnd);
+                                regionMetadata.addTable(tableName, ranges);
+                                Metadata.getInstance().refreshRouting();
                                 logger.info("New table {} at {} is added", tableName, path);
                             } else {
-                                regionMetadata.updateTable(tableName, hashStart, hashEnd);
+                                regionMetadata.updateTable(tableName, ranges);
+                                Metadata.getInstance().refreshRouting();
                                 logger.info("Updated table {} at {}", tableName, path);
                             }
                         }
@@ -187,6 +186,7 @@ public class ZkListener {
                         if (paths.length == 4) {
                             String tableName = paths[3];
                             regionMetadata.removeTable(tableName);
+                            Metadata.getInstance().refreshRouting();
                             logger.info("Table {} at {} is removed", tableName, path);
                         }
                         break;
@@ -200,6 +200,35 @@ public class ZkListener {
         }
     }
 
+    private CuratorCache epochListener;
+
+    /**
+     * 监听路由纪元节点，节点的版本号即纪元，节点不存在时为0
+     */
+    public void listenEpoch() {
+        String path = Paths.EPOCH.getPath();
+        try {
+            epochListener = CuratorCache.builder(curatorFramework, path).build();
+            epochListener.listenable().addListener((type, old, curr) -> {
+                switch (type) {
+                    case NODE_CREATED:
+                    case NODE_CHANGED:
+                        Metadata.getInstance().updateRoutingEpoch(curr.getStat().getVersion());
+                        logger.info("Routing epoch is {}", curr.getStat().getVersion());
+                        break;
+                    case NODE_DELETED:
+                        Metadata.getInstance().updateRoutingEpoch(0);
+                        break;
+                }
+            });
+            epochListener.start();
+            logger.info("Routing epoch is listened at path: {}", path);
+        } catch (Exception e) {
+            logger.error("Error occurs on listen routing epoch at path: {} ", path);
+            logger.error(e.getMessage());
+        }
+    }
+
     /**
      * 关闭所有监听。
      */
@@ -221,6 +250,10 @@ public class ZkListener {
                 logger.info("Close tables listener");
                 tablesListener.close();
             }
+            if (epochListener != null) {
+                logger.info("Close routing epoch listener");
+                epochListener.close();
+            }
         } catch (Exception e) {
             logger.error(e.getMessage());
         }
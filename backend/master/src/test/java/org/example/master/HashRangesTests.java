@@ -0,0 +1,66 @@
+package org.example.master;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.minisql.master.utils.HashRanges;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRangesTests {
+
+    @Test
+    void parseAndToStringRoundTrip() {
+        assertEquals("0,100;200,300", HashRanges.parse("200,300; 0,100").toString());
+        assertEquals("0,65536", HashRanges.parse("0,65536").toString());
+        assertTrue(HashRanges.parse("").isEmpty());
+        assertTrue(HashRanges.parse(null).isEmpty());
+    }
+
+    @Test
+    void containsIsHalfOpen() {
+        HashRanges ranges = HashRanges.parse("10,20;30,40");
+        assertFalse(ranges.contains(9));
+        assertTrue(ranges.contains(10));
+        assertTrue(ranges.contains(19));
+        assertFalse(ranges.contains(20));
+        assertTrue(ranges.contains(30));
+        assertFalse(ranges.contains(40));
+    }
+
+    @Test
+    void addMergesOverlappingAndAdjacentRanges() {
+        HashRanges ranges = new HashRanges(10, 20).add(30, 40);
+        assertEquals(20, ranges.size());
+        assertEquals("10,40", ranges.add(20, 30).toString());
+        assertEquals("0,50", ranges.add(0, 15).add(35, 50).toString());
+        assertEquals("0,50;60,70", ranges.add(60, 70).add(5, 5).toString());
+        assertEquals("0,10;15,55;60,70", HashRanges.parse("0,10;20,30;40,50;60,70").add(15, 55).toString());
+    }
+
+    @Test
+    void removeSplitsAndTrimsRanges() {
+        HashRanges ranges = new HashRanges(0, 100);
+        assertEquals("0,40;60,100", ranges.remove(40, 60).toString());
+        assertEquals("0,30;70,100", ranges.remove(30, 45).remove(55, 70).toString());
+        assertEquals(60, ranges.size());
+        assertEquals("10,20;90,100", ranges.remove(0, 10).remove(20, 90).toString());
+        assertTrue(ranges.remove(0, 65536).isEmpty());
+        assertEquals(0, ranges.size());
+    }
+
+    @Test
+    void equalityIgnoresHowRangesWereBuilt() {
+        HashRanges built = new HashRanges(0, 50).add(50, 100).remove(20, 30);
+        assertEquals(HashRanges.parse("0,20;30,100"), built);
+        assertEquals(HashRanges.parse("0,20;30,100").hashCode(), built.hashCode());
+        assertNotEquals(HashRanges.parse("0,20;31,100"), built);
+    }
+
+    @Test
+    void jacksonUsesEncodedForm() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        HashRanges ranges = HashRanges.parse("0,100;200,300");
+        assertEquals("\"0,100;200,300\"", mapper.writeValueAsString(ranges));
+        assertEquals(ranges, mapper.readValue("\"0,100;200,300\"", HashRanges.class));
+    }
+}
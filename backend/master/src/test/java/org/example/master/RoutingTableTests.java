@@ -0,0 +1,115 @@
+package org.example.master;
+
+import com.minisql.master.utils.Configs;
+import com.minisql.master.utils.HashRanges;
+import com.minisql.master.zookeeper.Metadata;
+import com.minisql.master.zookeeper.RoutingTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutingTableTests {
+
+    private Metadata metadata;
+    private Metadata.RegionMetadata r1, r2, r3;
+
+    private Metadata.RegionMetadata region(int regionId, String table, String ranges) {
+        Metadata.RegionMetadata region = new Metadata.RegionMetadata();
+        region.setRegionId(regionId);
+        region.setMaster("region" + regionId + ":9090");
+        region.addTable(table, HashRanges.parse(ranges));
+        metadata.getRegions().add(region);
+        return region;
+    }
+
+    @BeforeEach
+    void setUp() {
+        Metadata.clear();
+        metadata = Metadata.getInstance();
+        // 250到300没有Region负责
+        r1 = region(1, "T", "0,100;300,400");
+        r2 = region(2, "T", "100,200;400," + Configs.MAX_HASH);
+        r3 = region(3, "T", "200,250");
+        r3.addTable("U", HashRanges.parse("0," + Configs.MAX_HASH));
+        metadata.updateRoutingEpoch(7);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metadata.clear();
+    }
+
+    @Test
+    void ownerAtRangeBoundaries() {
+        RoutingTable routing = metadata.getRouting();
+        assertEquals(7, routing.getEpoch());
+        assertSame(r1, routing.owner("T", 0));
+        assertSame(r1, routing.owner("T", 99));
+        assertSame(r2, routing.owner("T", 100));
+        assertSame(r2, routing.owner("T", 199));
+        assertSame(r3, routing.owner("T", 200));
+        assertSame(r3, routing.owner("T", 249));
+        assertNull(routing.owner("T", 250));
+        assertNull(routing.owner("T", 299));
+        assertSame(r1, routing.owner("T", 300));
+        assertSame(r2, routing.owner("T", 400));
+        assertSame(r2, routing.owner("T", Configs.MAX_HASH - 1));
+        assertNull(routing.owner("T", Configs.MAX_HASH));
+        assertNull(routing.owner("T", -1));
+        assertSame(r3, routing.owner("U", 300));
+        assertNull(routing.owner("V", 0));
+    }
+
+    @Test
+    void ownerAgreesWithScanOverAllRanges() {
+        RoutingTable routing = metadata.getRouting();
+        for (int hash = 0; hash < Configs.MAX_HASH; hash++) {
+            Metadata.RegionMetadata expected = null;
+            for (var route : routing.routes("T")) {
+                if (route.getRanges().contains(hash)) {
+                    assertNull(expected, "ranges overlap at " + hash);
+                    expected = route.getRegion();
+                }
+            }
+            assertSame(expected, routing.owner("T", hash), "hash " + hash);
+        }
+    }
+
+    @Test
+    void routesFollowRegionOrder() {
+        List<Integer> ids = new ArrayList<>();
+        for (var route : metadata.getRouting().routes("T")) {
+            ids.add(route.getRegion().getRegionId());
+        }
+        assertEquals(List.of(1, 2, 3), ids);
+        assertTrue(metadata.getRouting().routes("V").isEmpty());
+    }
+
+    @Test
+    void snapshotIsNotAffectedByLaterChanges() {
+        RoutingTable before = metadata.getRouting();
+        r3.updateTable("T", HashRanges.parse("200,300"));
+        assertNull(before.owner("T", 260));
+        assertNull(metadata.getRouting().owner("T", 260));
+
+        metadata.refreshRouting();
+        assertNull(before.owner("T", 260));
+        assertSame(r3, metadata.getRouting().owner("T", 260));
+    }
+
+    @Test
+    void groupByMasterSkipsLockedAndUnownedKeys() {
+        // "1"的哈希值为49，"d"为100，"ú"为250
+        r2.acquireLock();
+        List<String> unrouted = new ArrayList<>();
+        Map<String, List<String>> groups = metadata.groupByMaster("T", List.of("1", "d", "ú", "1"), unrouted);
+        assertEquals(Map.of("region1:9090", List.of("1", "1")), groups);
+        assertEquals(List.of("d", "ú"), unrouted);
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.master;
+
+import com.minisql.master.migration.MigrationJob;
+import com.minisql.master.migration.SplitPlanner;
+import com.minisql.master.migration.SplitPlanner.Segment;
+import com.minisql.master.utils.Configs;
+import com.minisql.master.utils.HashRanges;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SplitPlannerTests {
+
+    private static long[] bins(int n, int from, int to, long value) {
+        long[] bins = new long[n];
+        for (int i = from; i < to; i++) {
+            bins[i] = value;
+        }
+        return bins;
+    }
+
+    @Test
+    void binsAreProportionalToRangeSize() {
+        HashRanges owned = HashRanges.parse("0,32768;40000,40100");
+        assertEquals(Configs.SPLIT_HISTOGRAM_BINS * 32768 / 32868, SplitPlanner.binsOf(owned, 0, 32768));
+        assertEquals(1, SplitPlanner.binsOf(owned, 40000, 40100));
+        assertEquals(3, SplitPlanner.binsOf(HashRanges.parse("0,3"), 0, 3));
+    }
+
+    @Test
+    void withoutStatisticsHalvesLargestRange() {
+        MigrationJob.TableTask task = SplitPlanner.plan("T", List.of(
+                new Segment(0, 100, null, null),
+                new Segment(200, 1000, new long[4], new long[4])));
+        assertEquals(HashRanges.parse("600,1000"), task.getRanges());
+        assertEquals(0.5, task.getMovedShare());
+    }
+
+    @Test
+    void accessSkewedToFirstQuarterMovesHalfOfTheHotSpot() {
+        // 所有访问集中在前16个桶，按中点拆分会迁走没有负载的后一半
+        MigrationJob.TableTask task = SplitPlanner.plan("T", List.of(
+                new Segment(0, 65536, bins(64, 0, 16, 100), null)));
+        assertEquals(HashRanges.parse("0,8192"), task.getRanges());
+        assertEquals(0.5, task.getMovedShare(), 1e-9);
+    }
+
+    @Test
+    void rowsAloneDriveThePlanWithoutAccessCounts() {
+        MigrationJob.TableTask task = SplitPlanner.plan("T", List.of(
+                new Segment(0, 65536, new long[64], bins(64, 48, 64, 10))));
+        assertEquals(HashRanges.parse("49152,57344"), task.getRanges());
+        assertEquals(0.5, task.getMovedShare(), 1e-9);
+    }
+
+    @Test
+    void loadInOneBinCannotBeSplit() {
+        assertNull(SplitPlanner.plan("T", List.of(new Segment(0, 65536, bins(64, 10, 11, 1000), null))));
+    }
+
+    @Test
+    void movesSeveralDisjointRangesAcrossSegments() {
+        // 没有一段连续的桶接近一半，需要从不同的区间各迁走一部分
+        MigrationJob.TableTask task = SplitPlanner.plan("T", List.of(
+                new Segment(0, 1000, new long[]{30}, null),
+                new Segment(2000, 3000, new long[]{20}, null),
+                new Segment(4000, 5000, new long[]{45}, null),
+                new Segment(6000, 7000, new long[]{5}, null)));
+        assertEquals(HashRanges.parse("4000,5000;6000,7000"), task.getRanges());
+        assertEquals(0.5, task.getMovedShare(), 1e-9);
+    }
+
+    @Test
+    void movedRangesStayInsideOwnedRanges() {
+        HashRanges owned = HashRanges.parse("0,16384;32768,49152");
+        long[] skewed = new long[32];
+        for (int i = 0; i < skewed.length; i++) {
+            skewed[i] = (long) i * i;
+        }
+        MigrationJob.TableTask task = SplitPlanner.plan("T", List.of(
+                new Segment(0, 16384, bins(32, 0, 32, 1), bins(32, 0, 32, 5)),
+                new Segment(32768, 49152, skewed, bins(32, 0, 32, 5))));
+        assertNotNull(task);
+        assertTrue(task.getRanges().size() < owned.size());
+        for (int[] range : task.getRanges().ranges()) {
+            assertTrue(range[0] >= 32768 && range[1] <= 49152, "hot ranges come from the skewed segment");
+        }
+        assertEquals(0.5, task.getMovedShare(), 0.02);
+    }
+}
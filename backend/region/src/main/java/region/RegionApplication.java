@@ -18,19 +18,35 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import utils.*;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @SpringBootApplication
 @RestController
@@ -38,6 +54,11 @@ import java.util.List;
 public class RegionApplication {
 
     public static final Logger logger = LoggerFactory.getLogger(RegionApplication.class);
+    //二进制响应中携带日志序号的响应头
+    private static final String SEQ_HEADER = "X-Replication-Seq";
+    //缓存路由的客户端带上的路由纪元，以及写操作的主键
+    private static final String EPOCH_HEADER = "X-Routing-Epoch";
+    private static final String KEY_HEADER = "X-Routing-Key";
 
     @Value("${region.config}")
     private String configDir;
@@ -54,6 +75,30 @@ public class RegionApplication {
     private int visitCount;
 
     private static Zookeeper zookeeper;
+    private FanoutClient fanoutClient;
+    private FanoutClient.AckPolicy ackPolicy;
+    private ReplicationLog replicationLog;
+    private TableDigest tableDigest;
+    private HashBucketIndex bucketIndex;
+    //在线迁移期间记录被写过的主键
+    private final ChangeCapture changeCapture = new ChangeCapture();
+    //按路由哈希统计的访问次数，master据此规划拆分点
+    private final AccessHistogram accessHistogram = new AccessHistogram();
+    private GroupCommit groupCommit;
+    private QueryCache queryCache;
+    private final VoteStats voteStats = new VoteStats();
+    //本Region上所有迁移共用的限速，前台延迟升高时降速
+    private final MigrationThrottle migrationThrottle = new MigrationThrottle();
+    //查询负载，master据此选择处理查询的slave
+    private final ServerLoad serverLoad = new ServerLoad();
+    //表名->目标Region -> 最近一次迁移的进度
+    private final Map<String, TransferProgress> transfers = new ConcurrentHashMap<>();
+    //正在进行的离线迁移数，大于0时拒绝带路由纪元的写操作
+    private final AtomicInteger offlineTransfers = new AtomicInteger();
+    //slave修复表期间追赶日志时不再检查摘要
+    private boolean repairing = false;
+    //master上保证写操作的执行顺序与复制日志顺序一致，slave上保证日志按顺序执行
+    private final Object writeLock = new Object();
 
     public static void main(String[] args) {
         SpringApplication.run(RegionApplication.class, args);
@@ -72,9 +117,33 @@ public class RegionApplication {
             String url = "jdbc:mysql://"+ ip + ":3306/DISTRIBUTED";
             databaseConnection = new DatabaseConnection(url, username, password);
             databaseConnection.connect();
+            bucketIndex = new HashBucketIndex(databaseConnection);
+            tableDigest = new TableDigest(databaseConnection, bucketIndex, changeCapture, accessHistogram);
+            //初始化转发slave的客户端
+            fanoutClient = new FanoutClient(Configs.replicationThreads, Configs.replicationTimeout, Configs.bulkTransferTimeout);
+            ackPolicy = FanoutClient.AckPolicy.parse(Configs.replicationAck);
+            replicationLog = new ReplicationLog(Configs.dataDir);
+            replicationLog.open();
+            if(Configs.queryCacheBytes > 0)
+                queryCache = new QueryCache(Configs.queryCacheBytes);
+            if(Configs.groupCommitWindow > 0)
+                groupCommit = new GroupCommit(Configs.groupCommitWindow, Configs.groupCommitMaxSize, Configs.groupCommitMaxPending, this::commitGroup);
             //初始化zookeeper
             zookeeper = new Zookeeper(localaddr, zkServerAddr, databaseConnection, maxRegions, maxServers);
             zookeeper.connect();
+            if(!zookeeper.isMaster() && zookeeper.getMasterAddr() != null){
+                if(zookeeper.isRejoining()){
+                    //保留了本地数据的slave按日志或摘要增量同步
+                    rejoin();
+                }
+                else{
+                    //slave已经从master全量拷贝了数据，从master当前的日志位置开始复制
+                    JSONObject state = fanoutClient.getRestTemplate().postForObject(FanoutClient.regionUrl(zookeeper.getMasterAddr(), "replstate"), "", JSONObject.class);
+                    replicationLog.reset(state.getString("logId"), state.getLongValue("lastSeq"));
+                }
+            }
+            //已有的表在后台建立路由哈希列并补齐
+            startBucketBackfill();
             //初始化访问次数为0
             visitCount = 0;
 
@@ -89,6 +158,11 @@ public class RegionApplication {
         try{
             logger.info("Region Server close.");
             zookeeper.close();
+            if(groupCommit != null)
+                groupCommit.close();
+            fanoutClient.close();
+            replicationLog.close();
+            databaseConnection.close();
         } catch (Exception e){
             logger.error("Error: Region Server close failed.");
         }
@@ -111,6 +185,72 @@ public class RegionApplication {
             Configs.maxServers = jsonObject.getInteger("maxServers");
             Configs.DBUsername = jsonObject.getString("DBUsername");
             Configs.DBPassword = jsonObject.getString("DBPassword");
+            if(jsonObject.containsKey("replicationAck"))
+                Configs.replicationAck = jsonObject.getString("replicationAck");
+            if(jsonObject.containsKey("replicationTimeout"))
+                Configs.replicationTimeout = jsonObject.getInteger("replicationTimeout");
+            if(jsonObject.containsKey("replicationRetainEntries"))
+                Configs.replicationRetainEntries = jsonObject.getInteger("replicationRetainEntries");
+            if(jsonObject.containsKey("incrementalRejoin"))
+                Configs.incrementalRejoin = jsonObject.getBoolean("incrementalRejoin");
+            if(jsonObject.containsKey("replicationThreads"))
+                Configs.replicationThreads = jsonObject.getInteger("replicationThreads");
+            if(jsonObject.containsKey("bulkTransferTimeout"))
+                Configs.bulkTransferTimeout = jsonObject.getInteger("bulkTransferTimeout");
+            if(jsonObject.containsKey("dataDir"))
+                Configs.dataDir = jsonObject.getString("dataDir");
+            if(jsonObject.containsKey("poolMinSize"))
+                Configs.poolMinSize = jsonObject.getInteger("poolMinSize");
+            if(jsonObject.containsKey("poolMaxSize"))
+                Configs.poolMaxSize = jsonObject.getInteger("poolMaxSize");
+            if(jsonObject.containsKey("poolBorrowTimeout"))
+                Configs.poolBorrowTimeout = jsonObject.getInteger("poolBorrowTimeout");
+            if(jsonObject.containsKey("poolLeakThreshold"))
+                Configs.poolLeakThreshold = jsonObject.getInteger("poolLeakThreshold");
+            if(jsonObject.containsKey("poolLeakTrace"))
+                Configs.poolLeakTrace = jsonObject.getBoolean("poolLeakTrace");
+            if(jsonObject.containsKey("groupCommitWindow"))
+                Configs.groupCommitWindow = jsonObject.getInteger("groupCommitWindow");
+            if(jsonObject.containsKey("groupCommitMaxSize"))
+                Configs.groupCommitMaxSize = jsonObject.getInteger("groupCommitMaxSize");
+            if(jsonObject.containsKey("groupCommitMaxPending"))
+                Configs.groupCommitMaxPending = jsonObject.getInteger("groupCommitMaxPending");
+            if(jsonObject.containsKey("voteTimeout"))
+                Configs.voteTimeout = jsonObject.getInteger("voteTimeout");
+            if(jsonObject.containsKey("queryFetchSize"))
+                Configs.queryFetchSize = jsonObject.getInteger("queryFetchSize");
+            if(jsonObject.containsKey("queryStreamTimeout"))
+                Configs.queryStreamTimeout = jsonObject.getInteger("queryStreamTimeout");
+            if(jsonObject.containsKey("queryCacheBytes"))
+                Configs.queryCacheBytes = jsonObject.getLong("queryCacheBytes");
+            if(jsonObject.containsKey("migrationBatchRows"))
+                Configs.migrationBatchRows = jsonObject.getInteger("migrationBatchRows");
+            if(jsonObject.containsKey("migrationBatchBytes"))
+                Configs.migrationBatchBytes = jsonObject.getInteger("migrationBatchBytes");
+            if(jsonObject.containsKey("migrationQueueBatches"))
+                Configs.migrationQueueBatches = jsonObject.getInteger("migrationQueueBatches");
+            if(jsonObject.containsKey("migrationCatchUpRounds"))
+                Configs.migrationCatchUpRounds = jsonObject.getInteger("migrationCatchUpRounds");
+            if(jsonObject.containsKey("migrationCutoverKeys"))
+                Configs.migrationCutoverKeys = jsonObject.getInteger("migrationCutoverKeys");
+            if(jsonObject.containsKey("migrationSliceHashes"))
+                Configs.migrationSliceHashes = jsonObject.getInteger("migrationSliceHashes");
+            if(jsonObject.containsKey("histogramMaxQueryRows"))
+                Configs.histogramMaxQueryRows = jsonObject.getInteger("histogramMaxQueryRows");
+            if(jsonObject.containsKey("transferCompression"))
+                Configs.transferCompression = jsonObject.getBoolean("transferCompression");
+            if(jsonObject.containsKey("transferCompressMinBytes"))
+                Configs.transferCompressMinBytes = jsonObject.getInteger("transferCompressMinBytes");
+            if(jsonObject.containsKey("bootstrapThreads"))
+                Configs.bootstrapThreads = jsonObject.getInteger("bootstrapThreads");
+            if(jsonObject.containsKey("bootstrapChunkRows"))
+                Configs.bootstrapChunkRows = jsonObject.getInteger("bootstrapChunkRows");
+            if(jsonObject.containsKey("bootstrapBatchRows"))
+                Configs.bootstrapBatchRows = jsonObject.getInteger("bootstrapBatchRows");
+            if(jsonObject.containsKey("bootstrapBatchBytes"))
+                Configs.bootstrapBatchBytes = jsonObject.getInteger("bootstrapBatchBytes");
+            if(jsonObject.containsKey("migrationLatencyFactor"))
+                Configs.migrationLatencyFactor = jsonObject.getDoubleValue("migrationLatencyFactor");
 
             //兼容
             this.zkServerAddr = Configs.zkServer;
@@ -127,6 +267,7 @@ public class RegionApplication {
             logger.info("maxServers: " + this.maxServers);
             logger.info("username: " + this.username);
             logger.info("password: " + this.password);
+            logger.info("replicationAck: " + Configs.replicationAck);
 
 
             logger.info("Configurations loaded...");
@@ -144,8 +285,11 @@ public class RegionApplication {
 
 
 
+    /**
+     * @param emptyRanges 迁移时在目标Region上建表，表在zk中登记为不负责任何区间，避免在切换前被路由到
+     */
     @RequestMapping("/create")
-    public JSONObject createTable(@RequestBody SQLParams params){
+    public JSONObject createTable(@RequestBody SQLParams params, @RequestParam(defaultValue = "false") boolean emptyRanges){
         visitCount++;
         logger.info("SQL: " + params.getSql());
         JSONObject res = new JSONObject();
@@ -157,38 +301,33 @@ public class RegionApplication {
             return res;
         }
         else{
+            ReplicationLog.Entry entry;
             try{
-                executeSQLUpdated(params.getSql());
-                if(!zookeeper.isMaster()){
-                    CheckSum checkSum = new CheckSum(databaseConnection);
-                    long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-                    long masterCRCResult = Long.valueOf(params.getCrcResult());
-                    if(myCRCResult != masterCRCResult){
-                        String masterAddr = zookeeper.getMasterAddr();
-                        zookeeper.CopyFromRemoteTable(masterAddr, params.getTableName());
-                    }
-                }
+                entry = executeWrite("create", params.getTableName(), List.of(params.getSql()));
             }catch (Exception e){
                 logger.error("Error: Region Server create table failed.");
                 res.put("status", "500");
                 res.put("msg", "Create table failed");
                 return res;
             }
-            //2. master转发sql语句到该Region下的所有slave
-            if(zookeeper.isMaster()){
-                while(!zookeeper.isReady());
-                CheckSum checkSum = new CheckSum(databaseConnection);
-                long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-                forward(params.getSql(), "create", params.getTableName(), myCRCResult);
+            //2. master按日志序号转发到该Region下的所有slave
+            if(entry != null){
+                zookeeper.awaitReady();
+                //没有达到确认策略时仍然登记到zk
+                boolean acked = replicate(entry);
                 //3. 更新zk下的table信息
                 try{
-                    zookeeper.addTable(params.getTableName());
+                    if(emptyRanges)
+                        zookeeper.addTable(params.getTableName(), "");
+                    else
+                        zookeeper.addTable(params.getTableName());
                 }catch (Exception e){
                     logger.error("Error: Region Server update table info failed.");
                     res.put("status", "500");
                     res.put("msg", "Update table info failed");
                     return res;
                 }
+                return writeSucceeded(res, "Create table successfully", acked);
             }
         }
 
@@ -213,17 +352,9 @@ public class RegionApplication {
         }
         else{
             //1. 执行SQL语句
+            ReplicationLog.Entry entry;
             try{
-                executeSQLUpdated(params.getSql());
-                if(!zookeeper.isMaster()){
-                    CheckSum checkSum = new CheckSum(databaseConnection);
-                    long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-                    long masterCRCResult = Long.valueOf(params.getCrcResult());
-                    if(myCRCResult != masterCRCResult){
-                        String masterAddr = zookeeper.getMasterAddr();
-                        zookeeper.CopyFromRemoteTable(masterAddr, params.getTableName());
-                    }
-                }
+                entry = executeWrite("drop", params.getTableName(), List.of(params.getSql()));
             }catch (Exception e){
                 logger.error("Error: Region Server drop table failed.");
                 res.put("status", "500");
@@ -231,12 +362,11 @@ public class RegionApplication {
                 return res;
             }
 
-            //2. master转发sql语句到该Region下的所有slave
-            if(zookeeper.isMaster()){
-                while(!zookeeper.isReady());
-                CheckSum checkSum = new CheckSum(databaseConnection);
-                long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-                forward(params.getSql(), "drop", params.getTableName(), myCRCResult);
+            //2. master按日志序号转发到该Region下的所有slave
+            if(entry != null){
+                zookeeper.awaitReady();
+                //与建表相同，没有达到确认策略时仍然更新zk
+                boolean acked = replicate(entry);
                 //3. 更新zk下的table信息
                 try{
                     zookeeper.removeTable(params.getTableName());
@@ -246,6 +376,7 @@ public class RegionApplication {
                     res.put("msg", "Update table info failed");
                     return res;
                 }
+                return writeSucceeded(res, "Drop table successfully", acked);
             }
         }
         res.put("status", "200");
@@ -254,7 +385,51 @@ public class RegionApplication {
     }
 
     @RequestMapping("/query")
-    public JSONObject queryTable(@RequestBody SQLParams params) {
+    public JSONObject queryTable(@RequestBody SQLParams params, @RequestParam(defaultValue = "true") boolean cache,
+                                 @RequestHeader(value = EPOCH_HEADER, required = false) Long epoch) {
+        JSONObject stale = staleRouting(params.getTableName(), epoch, null);
+        if(stale != null)
+            return stale;
+        long begin = System.nanoTime();
+        boolean ok = false;
+        serverLoad.begin();
+        try{
+            JSONObject res = query(params, cache);
+            ok = "200".equals(res.getString("status"));
+            return res;
+        }finally {
+            long elapsed = System.nanoTime() - begin;
+            serverLoad.end(elapsed, ok);
+            migrationThrottle.recordForeground(elapsed);
+        }
+    }
+
+    /**
+     * 带路由纪元的请求来自缓存路由的客户端：客户端的纪元早于当前纪元，或者表不在本Region、主键不在本Region负责的区间内，
+     * 说明客户端的路由已经过期，返回409和当前的纪元，客户端重新获取路由后重试。
+     * 只检查归属不够：区间迁走后旧Region上仍有这张表，持有旧路由的客户端查询时会漏掉新Region上的行
+     *
+     * @param routingKey 百分号编码的主键，只有插入时带上
+     * @return 路由有效或请求没有带纪元时返回null
+     */
+    private JSONObject staleRouting(String tableName, Long epoch, String routingKey){
+        if(epoch == null)
+            return null;
+        long current = zookeeper.getRoutingEpoch();
+        if(epoch >= current){
+            String ranges = zookeeper.getTables().get(tableName);
+            if(ranges != null && (routingKey == null
+                    || HashRanges.parse(ranges).contains(Configs.hash(URLDecoder.decode(routingKey, StandardCharsets.UTF_8)))))
+                return null;
+        }
+        JSONObject res = new JSONObject();
+        res.put("status", "409");
+        res.put("msg", "Stale routing for table " + tableName);
+        res.put("epoch", current);
+        return res;
+    }
+
+    private JSONObject query(SQLParams params, boolean cache) {
         visitCount++;
         logger.info("SQL: " + params.getSql());
 
@@ -266,19 +441,35 @@ public class RegionApplication {
             return res;
         }
         else{
+            //0. 涉及的表都没有被写过时直接返回缓存的结果，不再查询和表决
+            String cacheKey = null;
+            Map<String, Long> versions = null;
+            if(cache && queryCache != null){
+                cacheKey = QueryCache.normalize(params.getSql());
+                JSONObject cached = queryCache.get(cacheKey);
+                if(cached != null)
+                    return cached;
+                versions = queryCache.versionsOf(QueryCache.tablesOf(params.getTableName(), params.getSql()));
+            }
             //1. 在本slave执行SQL语句
             try{
-                ResultSet rs = executeSQLQuery(params.getSql());
-                ResultSetMetaData meta = rs.getMetaData();
-
-                List<Object[]> datalist = new ArrayList<>();
-                while(rs.next()){
-                    Object[] rowData = new Object[rs.getMetaData().getColumnCount()];
-                    for(int i = 0; i < rs.getMetaData().getColumnCount(); i++){
-                        rowData[i] = rs.getObject(i+1);
+                List<String> columnNames = new ArrayList<>();
+                List<Object[]> datalist = executeSQLQuery(params.getSql(), rs -> {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    for(int i = 1; i <= meta.getColumnCount(); i++)
+                        columnNames.add(meta.getColumnName(i));
+                    List<Object[]> rows = new ArrayList<>();
+                    while(rs.next()){
+                        Object[] rowData = new Object[meta.getColumnCount()];
+                        for(int i = 0; i < meta.getColumnCount(); i++){
+                            rowData[i] = rs.getObject(i+1);
+                        }
+                        rows.add(rowData);
                     }
-                    datalist.add(rowData);
-                }
+                    return rows;
+                });
+
+                recordAccess(params.getTableName(), columnNames, datalist);
 
                 CheckSum checkSum = new CheckSum(databaseConnection);
                 long myCRCResult = checkSum.getCRC4Result(datalist);
@@ -288,15 +479,7 @@ public class RegionApplication {
                     res.put("status", "200");
                     res.put("msg", "Query table successfully");
                     //3. 返回查询结果
-                    int columns = meta.getColumnCount();
-                    StringBuilder first_row = new StringBuilder();
-                    for(int i = 1; i <= columns; i++){
-                        if(i == columns)
-                            first_row.append(meta.getColumnName(i));
-                        else
-                            first_row.append(meta.getColumnName(i)).append(" ");
-                    }
-                    res.put("Column Name", first_row.toString());
+                    res.put("Column Name", String.join(" ", columnNames));
                     for(int i = 0; i < datalist.size(); i++){
                         StringBuilder row = new StringBuilder();
                         for(int j = 0; j < datalist.get(0).length; j++){
@@ -307,6 +490,8 @@ public class RegionApplication {
                         }
                         res.put("Row "+ String.valueOf(i+1), row.toString());
                     }
+                    if(cacheKey != null)
+                        queryCache.put(cacheKey, res, versions);
                 }
                 else
                     throw new Exception();
@@ -321,8 +506,124 @@ public class RegionApplication {
         return res;
     }
 
+    /**
+     * 流式查询：按NDJSON逐行返回，第一行是列名，之后每行是一条记录的值数组，最后一行是表决结果。
+     * 行直接从JDBC游标写出，校验和在写出的同时计算，slave的表决与本机查询同时进行；
+     * 最后一行status不为200时调用者应丢弃已收到的行
+     */
+    @RequestMapping(value = "/queryStream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> queryStream(@RequestBody SQLParams params) {
+        visitCount++;
+        logger.info("SQL: " + params.getSql());
+
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            JSONObject trailer = new JSONObject();
+            trailer.put("type", "trailer");
+            if(!zookeeper.isTableExist(params.getTableName())){
+                logger.info("Table " + params.getTableName() + " doesn't exist.");
+                trailer.put("status", "500");
+                trailer.put("msg", "Table " + params.getTableName() + " doesn't exist.");
+                writer.write(trailer.toJSONString());
+                writer.write("\n");
+                writer.flush();
+                return;
+            }
+            //1. slave的表决与本机查询同时进行
+            CompletableFuture<Long> myCRCResult = new CompletableFuture<>();
+            CompletableFuture<Boolean> voted = voteAsync(params.getSql(), params.getTableName(), myCRCResult, Configs.queryStreamTimeout);
+            long[] rows = new long[1];
+            try{
+                //2. 逐行写出查询结果并计算校验和
+                CheckSum checkSum = new CheckSum(databaseConnection);
+                long crc = databaseConnection.stream(params.getSql(), Configs.queryFetchSize, rs -> {
+                    try{
+                        ResultSetMetaData meta = rs.getMetaData();
+                        int columns = meta.getColumnCount();
+                        JSONObject header = new JSONObject();
+                        header.put("type", "header");
+                        JSONArray columnNames = new JSONArray();
+                        for(int i = 1; i <= columns; i++)
+                            columnNames.add(meta.getColumnName(i));
+                        header.put("columns", columnNames);
+                        writer.write(header.toJSONString());
+                        writer.write("\n");
+                        writer.flush();
+                        long sum = 0;
+                        while(rs.next()){
+                            JSONArray row = new JSONArray(columns);
+                            for(int i = 1; i <= columns; i++){
+                                String value = rs.getString(i);
+                                Object object = rs.getObject(i);
+                                row.add(object instanceof Number || object instanceof Boolean ? object : value);
+                                sum += checkSum.getCRC32(value);
+                            }
+                            writer.write(row.toJSONString());
+                            writer.write("\n");
+                            if(++rows[0] % Configs.queryFlushRows == 0)
+                                writer.flush();
+                        }
+                        return sum;
+                    }catch (IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                myCRCResult.complete(crc);
+                logger.info("CRCResult: " + crc);
+                //3. 等待表决结果，写在最后一行
+                if(voted.get()){
+                    trailer.put("status", "200");
+                    trailer.put("msg", "Query table successfully");
+                }else{
+                    trailer.put("status", "500");
+                    trailer.put("msg", "Query table failed: vote can't exceed half of the slaves.");
+                }
+                trailer.put("rows", rows[0]);
+                trailer.put("CRCResult", crc);
+            }catch (UncheckedIOException e){
+                //调用者已断开
+                myCRCResult.completeExceptionally(e);
+                logger.warn("Warning: Query stream closed by client after " + rows[0] + " rows.");
+                return;
+            }catch (Exception e){
+                myCRCResult.completeExceptionally(e);
+                e.printStackTrace();
+                logger.error("Error: Region Server query table failed.");
+                trailer.put("status", "500");
+                trailer.put("msg", "Query table failed.");
+                trailer.put("rows", rows[0]);
+            }
+            writer.write(trailer.toJSONString());
+            writer.write("\n");
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
     @RequestMapping("/update")
-    public JSONObject updateTable(@RequestBody SQLParams params){
+    public JSONObject updateTable(@RequestBody SQLParams params, @RequestHeader(value = EPOCH_HEADER, required = false) Long epoch,
+                                  @RequestHeader(value = KEY_HEADER, required = false) String routingKey){
+        JSONObject stale = staleRouting(params.getTableName(), epoch, routingKey);
+        if(stale != null)
+            return stale;
+        //离线迁移期间master把Region标记为不可写，直接访问的客户端绕过了master，由Region自己拒绝，
+        //否则拷贝快照之后写入的行会在切换路由后留在source上
+        if(epoch != null && offlineTransfers.get() > 0){
+            JSONObject res = new JSONObject();
+            res.put("status", "423");
+            res.put("msg", "Region is migrating, writes are refused until the transfer finishes");
+            res.put("epoch", zookeeper.getRoutingEpoch());
+            return res;
+        }
+        long begin = System.nanoTime();
+        try{
+            return update(params);
+        }finally {
+            migrationThrottle.recordForeground(System.nanoTime() - begin);
+        }
+    }
+
+    private JSONObject update(SQLParams params){
         visitCount++;
         logger.info("SQL: " + params.getSql());
 
@@ -333,19 +634,22 @@ public class RegionApplication {
             res.put("msg", "Table " + params.getTableName() + " doesn't exist.");
             return res;
         }
+        else if(groupCommit != null && zookeeper.isMaster() && WriteStatement.parse(params.getSql()).isDml()){
+            //master上的行级写操作交给组提交，与同一窗口内的其他写操作一起执行和转发
+            try{
+                return groupCommit.submit(params.getTableName(), params.getSql()).get();
+            }catch (Exception e){
+                logger.error("Error: Region Server update table failed.");
+                res.put("status", "500");
+                res.put("msg", "Update table failed");
+                return res;
+            }
+        }
         else{
             //1. 执行SQL语句
+            ReplicationLog.Entry entry;
             try{
-                executeSQLUpdated(params.getSql());
-                if(!zookeeper.isMaster()){
-                    CheckSum checkSum = new CheckSum(databaseConnection);
-                    long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-                    long masterCRCResult = Long.valueOf(params.getCrcResult());
-                    if(myCRCResult != masterCRCResult){
-                        String masterAddr = zookeeper.getMasterAddr();
-                        zookeeper.CopyFromRemoteTable(masterAddr, params.getTableName());
-                    }
-                }
+                entry = executeWrite("update", params.getTableName(), List.of(params.getSql()));
             }catch (Exception e){
                 logger.error("Error: Region Server update table failed.");
                 res.put("status", "500");
@@ -353,12 +657,10 @@ public class RegionApplication {
                 return res;
             }
 
-            //2. master转发sql语句到该Region下的所有slave
-            if(zookeeper.isMaster()){
-                while(!zookeeper.isReady());
-                CheckSum checkSum = new CheckSum(databaseConnection);
-                long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-                forward(params.getSql(), "update", params.getTableName(), myCRCResult);
+            //2. master按日志序号转发到该Region下的所有slave
+            if(entry != null){
+                zookeeper.awaitReady();
+                return writeSucceeded(res, "Update table successfully", replicate(entry));
             }
             res.put("status", "200");
             res.put("msg", "Update table successfully");
@@ -366,95 +668,414 @@ public class RegionApplication {
         return res;
     }
 
+    /**
+     * master上的写操作已经提交并追加到复制日志，落后的slave之后按日志追赶。没有达到确认策略时仍然返回成功，
+     * 只在结果中标记复制降级，返回失败会使客户端重试而重复执行非幂等的写操作
+     */
+    private JSONObject writeSucceeded(JSONObject res, String msg, boolean acked){
+        res.put("status", "200");
+        if(acked){
+            res.put("msg", msg);
+        }
+        else{
+            res.put("msg", msg + ", but replication to slaves is degraded");
+            res.put("replicationDegraded", true);
+        }
+        return res;
+    }
+
     public void executeSQLUpdated(String sql) throws SQLException {
-            Connection conn = databaseConnection.getConnection();
-            logger.info("SQL Executed: " + sql);
-            //SQL注入风险，不管了。。
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.executeUpdate();
+        logger.info("SQL Executed: " + sql);
+        //SQL注入风险，不管了。。
+        databaseConnection.update(sql);
     }
 
-    public ResultSet executeSQLQuery(String sql) throws SQLException{
-        Connection conn = databaseConnection.getConnection();
+    /**
+     * 从连接池借出连接执行查询，结果集在连接归还前交给handler处理
+     */
+    public <T> T executeSQLQuery(String sql, DatabaseConnection.ResultSetHandler<T> handler) throws SQLException{
         logger.info("SQL Executed: " + sql);
         //SQL注入风险，不管了。。
-        PreparedStatement ps = conn.prepareStatement(sql);
-        ResultSet rs = ps.executeQuery();
-        return rs;
+        return databaseConnection.query(sql, handler);
     }
 
-    public void forward(String sql,  String type, String tableName, long myCRCResult){
-        List<String> slavesAddrs = zookeeper.getSlaves();
-        for(String slaveAddr: slavesAddrs) {
-            String slaveurl = "http://" + slaveAddr.substring(0, slaveAddr.indexOf(":")) + ":9090/" + type;
-            RestTemplate restTemplate = new RestTemplate();
-            //设置参数
-            JSONObject params = new JSONObject();
-            params.put("sql", sql);
-            params.put("tableName", tableName);
-            params.put("CRCResult", String.valueOf(myCRCResult));
-            //设置请求头和请求体
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<JSONObject> requestEntity = new HttpEntity<>(params, headers);
-            //发送请求并获取响应
-            ResponseEntity<String> responseEntity = restTemplate.exchange(slaveurl, HttpMethod.POST, requestEntity, String.class);
-            int statusCode = responseEntity.getStatusCode().value();
-            if (statusCode == 200) {
-                logger.info("Forward to " + slaveAddr + " successfully.");
-            } else {
-                logger.info("Forward to " + slaveAddr + " failed.");
+    /**
+     * 执行写操作并增量维护表摘要。master上执行与追加复制日志在同一把锁内完成，保证日志序号与执行顺序一致
+     *
+     * @return master上返回追加的日志，slave上返回null
+     */
+    public ReplicationLog.Entry executeWrite(String type, String tableName, List<String> sqlList) throws SQLException, IOException {
+        synchronized (writeLock){
+            logger.info("SQL Executed: " + sqlList.size() + " statements on " + tableName);
+            try{
+                tableDigest.execute(tableName, sqlList);
+            }finally {
+                tableWritten(tableName);
             }
+            if(!zookeeper.isMaster())
+                return null;
+            return replicationLog.append(type, tableName, sqlList, combinedDigest(tableName));
         }
     }
 
-    public void forward(List<String>sqlList,  String type, String tableName, long myCRCResult){
-        List<String> slavesAddrs = zookeeper.getSlaves();
-//        slavesAddrs.add(zookeeper.getMasterAddr());
-        for(String slaveAddr: slavesAddrs) {
-            String slaveurl = "http://" + slaveAddr.substring(0, slaveAddr.indexOf(":")) + ":9090/" + type;
-            RestTemplate restTemplate = new RestTemplate();
-            //设置参数
-            JSONObject params = new JSONObject();
-            JSONArray sqls = new JSONArray();
-            sqls.addAll(sqlList);
-            params.put("sqlList", sqls);
-            params.put("tableName", tableName);
-            params.put("CRCResult", String.valueOf(myCRCResult));
-            //设置请求头和请求体
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<JSONObject> requestEntity = new HttpEntity<>(params, headers);
-            //发送请求并获取响应
-            ResponseEntity<String> responseEntity = restTemplate.exchange(slaveurl, HttpMethod.POST, requestEntity, String.class);
-            int statusCode = responseEntity.getStatusCode().value();
-            if (statusCode == 200) {
-                logger.info("Forward to " + slaveAddr + " successfully.");
-            } else {
-                logger.info("Forward to " + slaveAddr + " failed.");
+    /**
+     * 组提交：一组写操作在一个事务中执行，每条语句前设置保存点，失败的语句单独回滚；
+     * 提交后每张表追加一条日志，返回把整组日志一次转发给slave的步骤。多组的日志可能同时在转发，
+     * slave收到序号不连续的日志时先从master追赶，所以到达顺序不影响执行顺序
+     */
+    private Runnable commitGroup(List<GroupCommit.Request> group) throws SQLException, IOException {
+        Map<String, List<String>> applied = new LinkedHashMap<>();
+        List<GroupCommit.Request> succeeded = new ArrayList<>();
+        List<ReplicationLog.Entry> entries = new ArrayList<>();
+        synchronized (writeLock){
+            try(Connection conn = databaseConnection.getConnection()){
+                conn.setAutoCommit(false);
+                try{
+                    for(GroupCommit.Request request : group){
+                        Savepoint savepoint = conn.setSavepoint();
+                        try{
+                            tableDigest.execute(conn, request.getTableName(), List.of(request.getSql()));
+                            applied.computeIfAbsent(request.getTableName(), k -> new ArrayList<>()).add(request.getSql());
+                            succeeded.add(request);
+                        }catch (SQLException e){
+                            logger.error("Error: Update failed in group commit: " + e.getMessage());
+                            conn.rollback(savepoint);
+                            request.complete("500", "Update table failed");
+                        }
+                    }
+                    conn.commit();
+                }catch (SQLException e){
+                    //整个事务回滚，已经更新的摘要失效
+                    conn.rollback();
+                    applied.keySet().forEach(tableDigest::invalidate);
+                    throw e;
+                }finally {
+                    conn.setAutoCommit(true);
+                    applied.keySet().forEach(this::tableWritten);
+                }
             }
+            logger.info("Group committed " + succeeded.size() + "/" + group.size() + " writes on " + applied.keySet());
+            for(Map.Entry<String, List<String>> table : applied.entrySet())
+                entries.add(replicationLog.append("update", table.getKey(), table.getValue(), combinedDigest(table.getKey())));
         }
+        if(entries.isEmpty())
+            return null;
+        return () -> {
+            zookeeper.awaitReady();
+            boolean replicated = replicate(entries);
+            for(GroupCommit.Request request : succeeded)
+                request.complete(writeSucceeded(new JSONObject(), "Update table successfully", replicated));
+        };
     }
 
-    public void forwardToTarget(List<String>sqlList, String type, String tableName, String targetIP){
-        RestTemplate restTemplate = new RestTemplate();
-        String slaveurl = "http://" + targetIP + ":9090/" +  type;
+    /**
+     * 表被写过之后使查询缓存中涉及该表的结果失效
+     */
+    private void tableWritten(String tableName){
+        if(queryCache != null && tableName != null)
+            queryCache.bump(tableName);
+    }
+
+    private Long combinedDigest(String tableName){
+        try{
+            return tableDigest.getCombined(tableName);
+        }catch (SQLException e){
+            logger.warn("Warning: Can't get digest of " + tableName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 并发把日志转发给该Region下的所有slave，满足确认策略后立即返回，未完成的请求在后台继续
+     *
+     * @param entry 复制日志
+     * @return 是否满足确认策略
+     */
+    public boolean replicate(ReplicationLog.Entry entry){
+        return entry == null || replicate(List.of(entry));
+    }
+
+    /**
+     * 把若干条连续的日志一次转发给所有slave
+     */
+    public boolean replicate(List<ReplicationLog.Entry> entries){
+        List<String> slavesAddrs = zookeeper.getSlaves();
+        if(slavesAddrs == null || slavesAddrs.isEmpty())
+            return true;
+        long lastSeq = entries.get(entries.size() - 1).getSeq();
         //设置参数
         JSONObject params = new JSONObject();
-        JSONArray sqls = new JSONArray();
-        sqls.addAll(sqlList);
-        params.put("sqlList", sqls);
-        params.put("tableName", tableName);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<JSONObject> requestEntity = new HttpEntity<>(params, headers);
-        ResponseEntity<String> responseEntity = restTemplate.exchange(slaveurl, HttpMethod.POST, requestEntity, String.class);
-        int statusCode = responseEntity.getStatusCode().value();
-        if (statusCode == 200) {
-            logger.info("Forward to " + targetIP + " successfully.");
-        } else {
-            logger.info("Forward to " + targetIP + " failed.");
+        JSONArray entryArray = new JSONArray();
+        for(ReplicationLog.Entry entry : entries)
+            entryArray.add(entry.toJSON());
+        params.put("entries", entryArray);
+        params.put("logId", replicationLog.getLogId());
+        params.put("baseSeq", replicationLog.getBaseSeq());
+        List<CompletableFuture<Boolean>> acks = new ArrayList<>();
+        for(String slaveAddr: slavesAddrs) {
+            String slaveurl = FanoutClient.regionUrl(slaveAddr, "replicate");
+            acks.add(fanoutClient.post(slaveurl, params).handle((body, e) -> {
+                if (e == null && body != null && "200".equals(body.getString("status"))) {
+                    replicationLog.ack(slaveAddr, body.getLongValue("ackSeq"));
+                    logger.info("Forward seq " + lastSeq + " to " + slaveAddr + " successfully.");
+                    return body.getLongValue("ackSeq") >= lastSeq;
+                }
+                logger.info("Forward seq " + lastSeq + " to " + slaveAddr + " failed." + (e == null ? "" : " " + e.getMessage()));
+                return false;
+            }));
+        }
+        int required = ackPolicy.required(slavesAddrs.size());
+        boolean acked = fanoutClient.awaitAcks(acks, required);
+        if(!acked)
+            logger.error("Error: Forward seq " + lastSeq + " can't get " + required + " acks (" + ackPolicy + ") from " + slavesAddrs.size() + " slaves.");
+        replicationLog.truncateAcked(slavesAddrs);
+        return acked;
+    }
+
+    /**
+     * slave按序号顺序执行master转发的日志，返回已执行的最大序号
+     */
+    @RequestMapping("/replicate")
+    public JSONObject applyReplicated(@RequestBody JSONObject params){
+        JSONObject res = new JSONObject();
+        List<ReplicationLog.Entry> entries = new ArrayList<>();
+        for(Object entry : params.getJSONArray("entries"))
+            entries.add(ReplicationLog.Entry.fromJSON((JSONObject) JSON.toJSON(entry)));
+        try{
+            synchronized (writeLock){
+                if(!params.getString("logId").equals(replicationLog.getLogId())){
+                    logger.warn("Replication log " + params.getString("logId") + " doesn't match local log " + replicationLog.getLogId());
+                    resyncFromMaster();
+                }
+                for(ReplicationLog.Entry entry : entries){
+                    //中间缺失的日志从master拉取
+                    if(entry.getSeq() > replicationLog.getLastSeq() + 1)
+                        catchUp(entry.getSeq() - 1);
+                    if(entry.getSeq() == replicationLog.getLastSeq() + 1)
+                        applyEntry(entry);
+                }
+                replicationLog.truncate(params.getLongValue("baseSeq"));
+            }
+        }catch (Exception e){
+            e.printStackTrace();
+            logger.error("Error: Apply replication log up to " + replicationLog.getLastSeq() + " failed.");
+            res.put("status", "500");
+            res.put("ackSeq", replicationLog.getLastSeq());
+            return res;
+        }
+        res.put("status", "200");
+        res.put("ackSeq", replicationLog.getLastSeq());
+        return res;
+    }
+
+    private void applyEntry(ReplicationLog.Entry entry) throws Exception {
+        try{
+            tableDigest.execute(entry.getTableName(), entry.getSqlList());
+        }catch (SQLException e){
+            //master上已经执行过，这里失败通常是重复执行，记录后继续
+            logger.warn("Warning: Replication log " + entry.getSeq() + " failed on slave: " + e.getMessage());
+        }finally {
+            tableWritten(entry.getTableName());
+        }
+        replicationLog.appendReplicated(entry);
+        //与master执行完同一条日志后的表摘要比较，不一致时修复不同的桶
+        if(!repairing && entry.getDigest() != null && !entry.getDigest().equals(combinedDigest(entry.getTableName())))
+            repairTable(entry.getTableName());
+    }
+
+    /**
+     * 比较与master的桶摘要，只从master拷贝不一致的桶内的行
+     */
+    private void repairTable(String tableName) throws Exception {
+        logger.warn("Table " + tableName + " differs from master, repairing...");
+        repairing = true;
+        try{
+            String masterAddr = zookeeper.getMasterAddr();
+            //1. master当前序号下的桶摘要，追到同一个序号后再比较
+            JSONObject digest = fanoutClient.getBulkRestTemplate().postForObject(FanoutClient.regionUrl(masterAddr, "digest") + "?tableName=" + tableName, "", JSONObject.class);
+            if(digest == null || !"200".equals(digest.getString("status")))
+                throw new Exception("Can't get digest of " + tableName + " from master");
+            if(digest.getLongValue("seq") > replicationLog.getLastSeq())
+                catchUp(digest.getLongValue("seq"));
+            long[] masterBuckets = digest.getJSONArray("buckets").toJavaList(Long.class).stream().mapToLong(Long::longValue).toArray();
+            Set<Integer> buckets = TableDigest.diff(tableDigest.getBuckets(tableName), masterBuckets);
+            if(buckets.isEmpty())
+                return;
+            logger.info("Buckets " + buckets + " of " + tableName + " differ from master");
+            //2. 拷贝这些桶内master的行，追到拷贝时的序号后替换本地的行
+            String bucketList = buckets.stream().map(String::valueOf).collect(Collectors.joining(","));
+            ResponseEntity<byte[]> rows = fanoutClient.getBulkRestTemplate().postForEntity(FanoutClient.regionUrl(masterAddr, "bucketBlock") + "?tableName=" + tableName + "&buckets=" + bucketList, "", byte[].class);
+            if(!rows.getStatusCode().is2xxSuccessful() || rows.getBody() == null || rows.getHeaders().getFirst(SEQ_HEADER) == null)
+                throw new Exception("Can't get rows of " + tableName + " from master");
+            long seq = Long.parseLong(rows.getHeaders().getFirst(SEQ_HEADER));
+            if(seq > replicationLog.getLastSeq())
+                catchUp(seq);
+            List<String[]> rowList = new ArrayList<>();
+            for(List<Object> row : RowBlockCodec.decode(rows.getBody()).getRows())
+                rowList.add(row.toArray(new String[0]));
+            tableDigest.replaceBuckets(tableName, buckets, rowList);
+            tableWritten(tableName);
+        }finally {
+            repairing = false;
+        }
+    }
+
+    /**
+     * @return 当前日志序号下表的各个桶摘要
+     */
+    @RequestMapping("/digest")
+    public JSONObject digest(@RequestParam String tableName){
+        JSONObject res = new JSONObject();
+        try{
+            synchronized (writeLock){
+                res.put("buckets", tableDigest.getBuckets(tableName));
+                res.put("seq", replicationLog.getLastSeq());
+            }
+        }catch (Exception e){
+            logger.error("Error: Get digest of " + tableName + " failed.");
+            res.put("status", "500");
+            return res;
+        }
+        res.put("status", "200");
+        return res;
+    }
+
+    /**
+     * @return 当前日志序号下表的若干个桶内的所有行，编码为RowBlockCodec块，日志序号在响应头中
+     */
+    @RequestMapping("/bucketBlock")
+    public ResponseEntity<byte[]> bucketBlock(@RequestParam String tableName, @RequestParam List<Integer> buckets){
+        RowBlockCodec.Builder rows;
+        long seq;
+        try{
+            synchronized (writeLock){
+                rows = tableDigest.selectBuckets(tableName, new HashSet<>(buckets));
+                seq = replicationLog.getLastSeq();
+            }
+        }catch (Exception e){
+            logger.error("Error: Get bucket rows of " + tableName + " failed.");
+            return ResponseEntity.internalServerError().build();
+        }
+        return ResponseEntity.ok()
+                .header(SEQ_HEADER, String.valueOf(seq))
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(rows.encode());
+    }
+
+    /**
+     * 从master拉取并执行(lastSeq, to]之间的日志，master已截断时全量同步
+     */
+    private void catchUp(long to) throws Exception {
+        long from = replicationLog.getLastSeq() + 1;
+        logger.info("Catching up replication log [" + from + ", " + to + "] from master.");
+        String url = FanoutClient.regionUrl(zookeeper.getMasterAddr(), "replog") + "?from=" + from + "&to=" + to;
+        JSONObject body = fanoutClient.getBulkRestTemplate().postForObject(url, "", JSONObject.class);
+        if(body == null || !"200".equals(body.getString("status"))){
+            resyncFromMaster();
+            return;
+        }
+        for(Object item : body.getJSONArray("entries")){
+            applyEntry(ReplicationLog.Entry.fromJSON((JSONObject) JSON.toJSON(item)));
+        }
+    }
+
+    /**
+     * 保留本地数据重新加入：本地日志与master是同一条日志且master仍保留缺失的部分时只追赶日志，否则按摘要同步
+     */
+    private void rejoin() throws Exception {
+        synchronized (writeLock){
+            JSONObject state = fanoutClient.getRestTemplate().postForObject(FanoutClient.regionUrl(zookeeper.getMasterAddr(), "replstate"), "", JSONObject.class);
+            long lastSeq = replicationLog.getLastSeq();
+            if(state.getString("logId").equals(replicationLog.getLogId()) && lastSeq <= state.getLongValue("lastSeq")){
+                logger.info("Rejoin at seq " + lastSeq + ", catching up to " + state.getLongValue("lastSeq"));
+                //master已截断缺失的日志时catchUp转为按摘要同步
+                if(lastSeq < state.getLongValue("lastSeq"))
+                    catchUp(state.getLongValue("lastSeq"));
+            }
+            else{
+                resyncFromMaster();
+            }
+        }
+    }
+
+    /**
+     * 保留本地数据与master同步：从master当前的日志位置开始复制，对齐表的集合，
+     * 两边都有的表比较桶摘要，只从master拷贝不一致的桶；复制的日志在修复过程中照常追赶
+     */
+    private void resyncFromMaster() throws Exception {
+        String masterAddr = zookeeper.getMasterAddr();
+        JSONObject state = fanoutClient.getRestTemplate().postForObject(FanoutClient.regionUrl(masterAddr, "replstate"), "", JSONObject.class);
+        logger.info("Resync from master " + masterAddr + " at seq " + state.getLongValue("lastSeq"));
+        replicationLog.reset(state.getString("logId"), state.getLongValue("lastSeq"));
+        List<String> tables = zookeeper.AlignTablesWithRemoteDB(masterAddr);
+        tableDigest.invalidateAll();
+        if(queryCache != null)
+            queryCache.invalidateAll();
+        bucketIndex.reset();
+        for(String table : tables)
+            repairTable(table);
+        logger.info("Resync from master finished at seq " + replicationLog.getLastSeq());
+        startBucketBackfill();
+    }
+
+    private void startBucketBackfill(){
+        Thread backfill = new Thread(bucketIndex::ensureAll, "hash-bucket-backfill");
+        backfill.setDaemon(true);
+        backfill.start();
+    }
+
+    @RequestMapping("/replog")
+    public JSONObject replicationEntries(@RequestParam long from, @RequestParam long to){
+        JSONObject res = new JSONObject();
+        List<ReplicationLog.Entry> entries = replicationLog.entriesBetween(from, to);
+        if(entries == null){
+            res.put("status", "500");
+            res.put("msg", "Replication log before " + from + " has been truncated");
+            return res;
         }
+        JSONArray array = new JSONArray();
+        for(ReplicationLog.Entry entry : entries)
+            array.add(entry.toJSON());
+        res.put("status", "200");
+        res.put("logId", replicationLog.getLogId());
+        res.put("entries", array);
+        return res;
+    }
+
+    @RequestMapping("/replstate")
+    public JSONObject replicationState(){
+        JSONObject res = new JSONObject();
+        res.put("status", "200");
+        res.put("logId", replicationLog.getLogId());
+        res.put("baseSeq", replicationLog.getBaseSeq());
+        res.put("lastSeq", replicationLog.getLastSeq());
+        return res;
+    }
+
+    @RequestMapping("/queryCacheStats")
+    public JSONObject queryCacheStats(){
+        JSONObject res = queryCache == null ? new JSONObject() : queryCache.getStats();
+        res.put("enabled", queryCache != null);
+        res.put("status", "200");
+        return res;
+    }
+
+    @RequestMapping("/groupCommitStats")
+    public JSONObject groupCommitStats(){
+        JSONObject res = groupCommit == null ? new JSONObject() : groupCommit.getStats();
+        res.put("enabled", groupCommit != null);
+        res.put("status", "200");
+        return res;
+    }
+
+    /**
+     * @return 本地MySQL连接池的状态与借出等待统计
+     */
+    @RequestMapping("/poolStats")
+    public JSONObject poolStats(){
+        JSONObject res = databaseConnection.getStats();
+        res.put("status", "200");
+        return res;
     }
 
     public void forwardToTarget(String sql, String type, String tableName, String targetIP){
@@ -476,47 +1097,103 @@ public class RegionApplication {
         }
     }
 
-    public boolean vote(String sql, String tableName, long myCRCResult) throws SQLException {
+    /**
+     * 并发向所有slave发起表决，本机算一票。达到多数时立即通过，多数已不可能时立即失败，
+     * 两种情况下都会取消尚未返回的请求
+     */
+    public boolean vote(String sql, String tableName, long myCRCResult) {
+        try{
+            return voteAsync(sql, tableName, CompletableFuture.completedFuture(myCRCResult), Configs.voteTimeout).get();
+        }catch (Exception e){
+            return false;
+        }
+    }
+
+    /**
+     * 异步表决：slave的请求立即发出，本机的校验和可以稍后给出（例如流式查询结束时）。
+     * 本机校验和确定后最多再等待voteTimeout
+     *
+     * @param myCRCResult      本机查询结果的校验和
+     * @param requestTimeoutMs 单个slave请求的截止时间
+     */
+    public CompletableFuture<Boolean> voteAsync(String sql, String tableName, CompletableFuture<Long> myCRCResult, int requestTimeoutMs) {
         List<String> slavesAddrs = zookeeper.getSlaves();
-//        for(String slaveAddr: slavesAddrs) {
-//            logger.info("Slave: " + slaveAddr);
-//        }
-        int supports_num = 1;
-        //转发请求并获取结果
-        for(String slaveAddr: slavesAddrs) {
-            String slaveurl = "http://" + slaveAddr.substring(0, slaveAddr.indexOf(":")) + ":9090/" + "votequery";
-            RestTemplate restTemplate = new RestTemplate();
-            //设置参数
-            JSONObject params = new JSONObject();
-            params.put("sql", sql);
-            params.put("tableName", tableName);
-            //设置请求头和请求体
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<JSONObject> requestEntity = new HttpEntity<>(params, headers);
-            //发送请求并获取响应
-            String CRCResult = restTemplate.postForEntity(slaveurl, requestEntity, JSONObject.class).getBody().get("CRCResult").toString();
-            if(CRCResult.equals(String.valueOf(myCRCResult))) {
-                supports_num++;
-            }
+        if(slavesAddrs == null)
+            slavesAddrs = new ArrayList<>();
+        int required = slavesAddrs.size() / 2 + 1;
+        int total = slavesAddrs.size() + 1;
+        AtomicInteger supports = new AtomicInteger(1);
+        AtomicInteger against = new AtomicInteger();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        //本机查询失败则表决失败，否则从本机结果确定时开始计算截止时间
+        myCRCResult.whenComplete((crc, e) -> {
+            if(e != null)
+                result.complete(false);
+            else if(supports.get() >= required)
+                result.complete(true);
             else
-                logger.error("ERROR CRCResult: " + CRCResult);
-        }
-        if(supports_num >= slavesAddrs.size() / 2  + 1 ) {
-            return true;
+                result.completeOnTimeout(false, Configs.voteTimeout, TimeUnit.MILLISECONDS);
+        });
+        //设置参数
+        JSONObject params = new JSONObject();
+        params.put("sql", sql);
+        params.put("tableName", tableName);
+        Map<String, CompletableFuture<JSONObject>> requests = new LinkedHashMap<>();
+        long begin = System.currentTimeMillis();
+        for(String slaveAddr: slavesAddrs) {
+            if(result.isDone())
+                break;
+            String slaveurl = FanoutClient.regionUrl(slaveAddr, "votequery");
+            CompletableFuture<JSONObject> request = fanoutClient.postCancellable(slaveurl, params, requestTimeoutMs);
+            requests.put(slaveAddr, request);
+            request.whenComplete((body, e) -> {
+                if(e instanceof CancellationException)
+                    return;
+                long latency = System.currentTimeMillis() - begin;
+                myCRCResult.thenAccept(crc -> {
+                    if(e == null && body != null && String.valueOf(crc).equals(body.getString("CRCResult"))){
+                        voteStats.agreed(slaveAddr, latency);
+                        if(supports.incrementAndGet() >= required)
+                            result.complete(true);
+                        return;
+                    }
+                    if(e == null && body != null && "200".equals(body.getString("status"))){
+                        voteStats.disagreed(slaveAddr, latency);
+                        logger.error("ERROR CRCResult from " + slaveAddr + ": " + body.getString("CRCResult"));
+                    }else{
+                        voteStats.error(slaveAddr);
+                        logger.error("Error: Vote from " + slaveAddr + " failed." + (e == null ? "" : " " + e.getMessage()));
+                    }
+                    if(total - against.incrementAndGet() < required)
+                        result.complete(false);
+                });
+            });
         }
+        return result.whenComplete((passed, e) -> {
+            //结果已经确定，取消仍在进行的表决
+            requests.forEach((slaveAddr, request) -> {
+                if(request.cancel(true))
+                    voteStats.cancelled(slaveAddr);
+            });
+            voteStats.voteFinished(passed);
+            if(!passed)
+                logger.error("Error: Vote can't exceed half of the slaves.");
+        });
+    }
 
-        logger.error("Error: Vote can't exceed half of the slaves.");
-        return false;
+    @RequestMapping("/voteStats")
+    public JSONObject voteStats(){
+        JSONObject res = voteStats.toJSON();
+        res.put("status", "200");
+        return res;
     }
 
     @RequestMapping("/votequery")
     public JSONObject  votequery(@RequestBody SQLParams params){
         JSONObject res = new JSONObject();
         try{
-            ResultSet rs = executeSQLQuery(params.getSql());
             CheckSum checkSum = new CheckSum(databaseConnection);
-            res.put("CRCResult", checkSum.getCRC4ResultSet(rs));
+            res.put("CRCResult", databaseConnection.stream(params.getSql(), Configs.queryFetchSize, checkSum::getCRC4ResultSet));
         }catch(Exception e){
             res.put("status",  "500");
             logger.error("Error: Get CRC4Result failed.");
@@ -527,30 +1204,47 @@ public class RegionApplication {
     }
 
     @RequestMapping("/hotsend")
-    public JSONObject hotSend(@RequestBody List<TransfrerMeta> tables,  @RequestParam String targetIP, @RequestParam String targetRegionID)  {
+    public JSONObject hotSend(@RequestBody List<TransfrerMeta> tables,  @RequestParam String targetIP, @RequestParam String targetRegionID,
+                              @RequestParam(defaultValue = "0") double rowsPerSec, @RequestParam(defaultValue = "0") double bytesPerSec,
+                              @RequestParam(defaultValue = "false") boolean online)  {
         logger.info("Hot is sending to " + targetIP  + " ...");
+        //master给出的全局预算，0表示不限速
+        migrationThrottle.setBudget(rowsPerSec, bytesPerSec);
+        if(!online)
+            offlineTransfers.incrementAndGet();
+        try{
+            return hotSend(tables, targetIP, targetRegionID, online);
+        }finally {
+            if(!online)
+                offlineTransfers.decrementAndGet();
+        }
+    }
+
+    private JSONObject hotSend(List<TransfrerMeta> tables, String targetIP, String targetRegionID, boolean online){
         JSONObject res = new JSONObject();
-        DatabaseConnection target_databaseConnection = new DatabaseConnection("jdbc:mysql://"+ targetIP + ":3306/DISTRIBUTED", username, password);
+        DatabaseConnection target_databaseConnection = new DatabaseConnection("jdbc:mysql://"+ targetIP + ":3306/DISTRIBUTED", username, password, 1, 2);
 
         try{
             target_databaseConnection.connect();
-            Connection target_conn = target_databaseConnection.getConnection();
+        }catch(SQLException e){
+            e.printStackTrace();
+            res.put("status", "500");
+            res.put("msg", "Transfer Failed");
+            return res;
+        }
+        try(Connection target_conn = target_databaseConnection.getConnection();
+            Connection source_conn = databaseConnection.getConnection()){
             //获取source的databaseMetadata
-            DatabaseMetaData source_metaData = databaseConnection.getConnection().getMetaData();
+            DatabaseMetaData source_metaData = source_conn.getMetaData();
             for(TransfrerMeta table : tables){
                 //构造tableCopy类
                 TableCopy tableCopy = new TableCopy(databaseConnection, target_databaseConnection,  table.getTableName(), table.getTableName());
                 //获取主键
                 ResultSet primaryKeys = source_metaData.getPrimaryKeys(null, null,  table.getTableName());
-                String primaryName = "";
-                if(primaryKeys.next()){
-                    primaryName = primaryKeys.getString("COLUMN_NAME");
-                }
-                //遍历主键并判断是否在哈希区间内, 如果在就在target上插入，在source上删除
+                String primaryName = primaryKeys.next() ? primaryKeys.getString("COLUMN_NAME") : "";
                 String tableName = table.getTableName();
-                int start = table.getStart();
-                int end = table.getEnd();
-                //判断目标数据库是否存在对应表, 不存在则创建
+                HashRanges moved = HashRanges.parse(table.getRanges());
+                //判断目标数据库是否存在对应表, 不存在则创建；新建的表在目标上先不负责任何区间，切换时再并入迁移的区间
                 PreparedStatement target_ps = target_conn.prepareStatement("show tables");
                 ResultSet target_table_rs = target_ps.executeQuery();
                 boolean isExist = false;
@@ -561,59 +1255,52 @@ public class RegionApplication {
                     }
                 }
                 if(!isExist){
-                    String createSQL = tableCopy.generateCreateStatment(databaseConnection.getConnection(), tableName);
-                    forwardToTarget(createSQL, "create", tableName, targetIP);
+                    String createSQL = tableCopy.generateCreateStatment(source_conn, tableName);
+                    forwardToTarget(createSQL, "create?emptyRanges=true", tableName, targetIP);
                 }
-                PreparedStatement ps = databaseConnection.getConnection().prepareStatement("SELECT "+ primaryName +" FROM " + tableName);
-                ResultSet primary_rs = ps.executeQuery();
-                PreparedStatement column_ps = databaseConnection.getConnection().prepareStatement("SELECT * FROM " + tableName);
-                ResultSetMetaData column_metaData = column_ps.executeQuery().getMetaData();
-                PreparedStatement target_ps_insert = target_conn.prepareStatement(tableCopy.generateInsertStatment(column_metaData));
-                StringBuilder deleteSQL =  new StringBuilder("DELETE FROM " + tableName + " WHERE " + primaryName + " IN (");
-                boolean deleteFlag = false;
-                ArrayList<String> insertSQLs = new ArrayList<String>();
-                //遍历主键
-                while(primary_rs.next()){
-                    String primaryValue = primary_rs.getString(1);
-                    int hash = primaryValue.hashCode() % MAX_HASH;
-                    if(hash >= start && hash < end){
-                        deleteFlag = true;
-                        deleteSQL.append("'" + primaryValue + "',");
-                        //在target上插入, 需要调用相应的接口
-                        PreparedStatement source_row_sql = databaseConnection.getConnection().prepareStatement("SELECT * FROM " + tableName + " WHERE " + primaryName + " = " + primaryValue);
-                        ResultSet source_rs = source_row_sql.executeQuery();
-                        ResultSetMetaData source_rs_metadata= source_rs.getMetaData();
-                        if(source_rs.next()) {
-                            int columns = source_rs_metadata.getColumnCount();
-                            for(int i = 1; i <= columns; i++){
-                                target_ps_insert.setObject(i, source_rs.getObject(i));
-                            }
-                            target_ps_insert.addBatch();
-                            insertSQLs.add(getSQLString(target_ps_insert));
+                logger.info("targetID:" + targetRegionID + "  moved ranges:" + moved);
+                //每个区间单独迁移：区间内的行分批写到target，切换路由后在source上按批删除
+                for(int[] range : moved.ranges()){
+                    int start = range[0];
+                    int end = range[1];
+                    HashRanges part = new HashRanges(start, end);
+                    TransferProgress progress = new TransferProgress(tableName, targetRegionID, start, end);
+                    transfers.put(tableName + "->" + targetRegionID, progress);
+                    List<String> keys;
+                    try{
+                        if(online){
+                            //在线迁移：拷贝和追赶期间source照常写，只在切换路由时阻塞写操作；切换后区间内的行都属于target。
+                            //source上的行在切换路由的同一把写锁内删除，查询不会在source和target上同时读到迁走的行，
+                            //删除的日志在释放写锁后再转发给slave
+                            List<String> moving = new ArrayList<>();
+                            List<ReplicationLog.Entry> deletions = new ArrayList<>();
+                            new OnlineMigration(databaseConnection, bucketIndex, migrationThrottle, changeCapture, new RestTemplate(), tableName, primaryName,
+                                    start, end, targetIP + ":9090", progress).run(writeLock, () -> {
+                                zookeeper.moveRanges(tableName, String.valueOf(zookeeper.getRegionID()), targetRegionID, part);
+                                moving.addAll(bucketIndex.keysInRange(tableName, primaryName, start, end));
+                                deletions.addAll(deleteMoved(tableName, primaryName, moving));
+                            });
+                            keys = moving;
+                            replicateDeleted(tableName, deletions, keys.size(), progress);
                         }
+                        else{
+                            //按切片记录检查点，上一次迁移同一区间中断时只补发没有完整写到target的切片；
+                            //开始删除source上的行之前删除检查点，之后source不再是完整的数据，重试时必须整片重发
+                            CopyCheckpoint checkpoint = CopyCheckpoint.open("transfer-" + tableName + "-" + targetRegionID + "-" + start + "-" + end,
+                                    String.valueOf(zookeeper.getRegionID()));
+                            keys = new RangeTransfer(databaseConnection, bucketIndex, migrationThrottle, new RestTemplate(), tableName, primaryName, start, end,
+                                    "http://" + targetIP + ":9090/insertBlock", progress).resumable(checkpoint, targetIP + ":9090").run();
+                            checkpoint.delete();
+                            deleteTransferred(tableName, primaryName, keys, progress);
+                            zookeeper.moveRanges(tableName, String.valueOf(zookeeper.getRegionID()), targetRegionID, part);
+                        }
+                    }catch(Exception e){
+                        progress.failed(e.getMessage());
+                        throw e;
                     }
+                    progress.done();
+                    logger.info("Transfer " + keys.size() + " rows of [" + start + "," + end + ") to " + targetIP);
                 }
-
-                forwardToTarget(insertSQLs, "updateBatch", tableName, targetIP);
-                //在source上删除
-                if(deleteFlag){
-                    deleteSQL.deleteCharAt(deleteSQL.length()-1);
-                    deleteSQL.append(")");
-                    PreparedStatement source_ps_delete = databaseConnection.getConnection().prepareStatement(deleteSQL.toString());
-                    source_ps_delete.executeUpdate();
-                    CheckSum checkSum = new CheckSum(databaseConnection);
-                    long myCRCResult = checkSum.getCRC4Table(tableName);
-                    forward(deleteSQL.toString(), "update", tableName, myCRCResult);
-                }
-                System.out.println("Transfer " + insertSQLs.size() + " rows to " + targetIP);
-//                System.out.println("DeleteSQL: " + deleteSQL.toString());
-
-                String target_hash_range = start+","+end;
-                String original_hash_range = table.getOriginalStart() + "," + table.getOriginalEnd();
-                logger.info("targetID:" + targetRegionID + "  target range:" + target_hash_range);
-                logger.info("sourceID:" + zookeeper.getRegionID() + "  source range:" +  original_hash_range);
-                zookeeper.updateTable(tableName, String.valueOf(zookeeper.getRegionID()), original_hash_range);
-                zookeeper.updateTable(tableName, targetRegionID, target_hash_range);
             }
             res.put("status", "200");
             res.put("msg", "Transfer Successfully");
@@ -621,12 +1308,233 @@ public class RegionApplication {
             e.printStackTrace();
             res.put("status", "500");
             res.put("msg", "Transfer Failed");
+        }finally {
+            try{
+                target_databaseConnection.close();
+            }catch(SQLException e){
+                logger.warn("Warning: Close connection to " + targetIP + " failed.");
+            }
         }
 
         return res;
     }
 
 
+    /**
+     * 按批删除已经迁移到target的行，每批作为一条日志复制到slave
+     */
+    private void deleteTransferred(String tableName, String primaryName, List<String> keys, TransferProgress progress) throws Exception {
+        for(int i = 0; i < keys.size(); i += Configs.migrationBatchRows){
+            List<String> batch = keys.subList(i, Math.min(keys.size(), i + Configs.migrationBatchRows));
+            //删除已经提交并写入复制日志，没有达到确认策略时slave之后按日志追赶，不中断迁移
+            if(!replicate(executeWrite("update", tableName, List.of(deleteKeysSql(tableName, primaryName, batch)))))
+                logger.warn("Delete transferred rows of " + tableName + " is not acked by slaves, replication is degraded");
+            progress.deleted(batch.size());
+        }
+    }
+
+    /**
+     * 在source上删除已经切换到target的行，只执行并写入复制日志，调用者释放写锁后用replicateDeleted转发给slave
+     */
+    private List<ReplicationLog.Entry> deleteMoved(String tableName, String primaryName, List<String> keys) throws Exception {
+        List<ReplicationLog.Entry> entries = new ArrayList<>();
+        for(int i = 0; i < keys.size(); i += Configs.migrationBatchRows){
+            ReplicationLog.Entry entry = executeWrite("update", tableName,
+                    List.of(deleteKeysSql(tableName, primaryName, keys.subList(i, Math.min(keys.size(), i + Configs.migrationBatchRows)))));
+            if(entry != null)
+                entries.add(entry);
+        }
+        return entries;
+    }
+
+    private void replicateDeleted(String tableName, List<ReplicationLog.Entry> entries, int rows, TransferProgress progress){
+        for(ReplicationLog.Entry entry : entries){
+            //没有达到确认策略时slave之后按日志追赶，不中断迁移
+            if(!replicate(entry))
+                logger.warn("Delete transferred rows of " + tableName + " is not acked by slaves, replication is degraded");
+        }
+        progress.deleted(rows);
+    }
+
+    private static String deleteKeysSql(String tableName, String primaryName, List<String> keys){
+        return "DELETE FROM " + tableName + " WHERE " + primaryName + " IN ("
+                + keys.stream().map(WriteStatement::toLiteral).collect(Collectors.joining(",")) + ")";
+    }
+
+    /**
+     * 在线迁移追赶时删除源上已经不存在的行：{tableName, primaryName, keys}，执行并复制到slave
+     */
+    @RequestMapping("/deleteRows")
+    public JSONObject deleteRows(@RequestBody JSONObject params){
+        JSONObject res = new JSONObject();
+        String tableName = params.getString("tableName");
+        List<String> keys = params.getJSONArray("keys").toJavaList(String.class);
+        if(keys.isEmpty()){
+            res.put("status", "200");
+            return res;
+        }
+        ReplicationLog.Entry entry;
+        try{
+            entry = executeWrite("deleteRows", tableName, List.of(deleteKeysSql(tableName, params.getString("primaryName"), keys)));
+        }catch (Exception e){
+            logger.warn("Warning: Delete " + keys.size() + " rows from " + tableName + " failed: " + e.getMessage());
+            res.put("status", "500");
+            res.put("msg", "Delete rows failed");
+            return res;
+        }
+        if(entry != null){
+            zookeeper.awaitReady();
+            return writeSucceeded(res, "Delete " + keys.size() + " rows successfully", replicate(entry));
+        }
+        res.put("status", "200");
+        res.put("msg", "Delete " + keys.size() + " rows successfully");
+        return res;
+    }
+
+    /**
+     * @return 本地表中主键哈希在[start, end)内的行数和行摘要之和：{tableName, primaryName, start, end}
+     */
+    @RequestMapping("/rangeChecksum")
+    public JSONObject rangeChecksum(@RequestBody JSONObject params){
+        JSONObject res = new JSONObject();
+        try{
+            long[] checksum = bucketIndex.rangeChecksum(params.getString("tableName"), params.getString("primaryName"),
+                    params.getIntValue("start"), params.getIntValue("end"));
+            res.put("rows", checksum[0]);
+            res.put("sum", checksum[1]);
+            res.put("status", "200");
+        }catch (SQLException e){
+            logger.warn("Warning: Checksum range of " + params.getString("tableName") + " failed: " + e.getMessage());
+            res.put("status", "500");
+            res.put("msg", "Checksum range failed");
+        }
+        return res;
+    }
+
+    /**
+     * @return 本地表中主键哈希在[start, end)内的所有主键：{tableName, primaryName, start, end}
+     */
+    @RequestMapping("/rangeKeys")
+    public JSONObject rangeKeys(@RequestBody JSONObject params){
+        JSONObject res = new JSONObject();
+        try{
+            res.put("keys", bucketIndex.keysInRange(params.getString("tableName"), params.getString("primaryName"),
+                    params.getIntValue("start"), params.getIntValue("end")));
+            res.put("status", "200");
+        }catch (SQLException e){
+            logger.warn("Warning: Read range keys failed: " + e.getMessage());
+            res.put("status", "500");
+            res.put("msg", "Read range keys failed");
+        }
+        return res;
+    }
+
+    /**
+     * 表在[start, end)内按bins等分的访问次数和行数，master据此选择拆分点
+     */
+    @RequestMapping("/loadHistogram")
+    public JSONObject loadHistogram(@RequestParam("tableName") String tableName, @RequestParam("start") int start,
+                                    @RequestParam("end") int end, @RequestParam(value = "bins", defaultValue = "64") int bins){
+        JSONObject res = new JSONObject();
+        bins = Math.max(1, Math.min(bins, end - start));
+        try{
+            res.put("access", accessHistogram.histogram(tableName, start, end, bins));
+            res.put("rows", bucketIndex.rowHistogram(tableName, start, end, bins));
+            res.put("status", "200");
+        }catch (SQLException e){
+            logger.warn("Warning: Read load histogram failed: " + e.getMessage());
+            res.put("status", "500");
+            res.put("msg", "Read load histogram failed");
+        }
+        return res;
+    }
+
+    /**
+     * 只统计结果较小的查询返回的主键，全表扫描不代表某个区间的热度
+     */
+    private void recordAccess(String tableName, List<String> columnNames, List<Object[]> rows){
+        if(rows.isEmpty() || rows.size() > Configs.histogramMaxQueryRows)
+            return;
+        String primaryName = bucketIndex.primaryNameOf(tableName);
+        int index = -1;
+        for(int i = 0; primaryName != null && i < columnNames.size(); i++)
+            if(columnNames.get(i).equalsIgnoreCase(primaryName))
+                index = i;
+        if(index < 0)
+            return;
+        for(Object[] row : rows)
+            accessHistogram.record(tableName, String.valueOf(row[index]));
+    }
+
+    /**
+     * 接收迁移过来的一个RowBlockCodec块，生成一条多行REPLACE语句执行并复制到slave
+     */
+    @RequestMapping(value = "/insertBlock", consumes = RowBlockCodec.CONTENT_TYPE)
+    public JSONObject insertBlock(@RequestParam String tableName, @RequestBody byte[] body){
+        RowBlockCodec.Block block;
+        try{
+            block = RowBlockCodec.decode(body);
+        }catch (IOException e){
+            logger.warn("Warning: Bad row block for " + tableName + ": " + e.getMessage());
+            JSONObject res = new JSONObject();
+            res.put("status", "400");
+            res.put("msg", "Bad row block: " + e.getMessage());
+            return res;
+        }
+        return replaceRows(tableName.toUpperCase(), block.getColumns(), block.getRows());
+    }
+
+    private JSONObject replaceRows(String tableName, List<String> columns, List<? extends List<?>> rows){
+        JSONObject res = new JSONObject();
+        if(rows.isEmpty()){
+            res.put("status", "200");
+            return res;
+        }
+        ReplicationLog.Entry entry;
+        try{
+            entry = executeWrite("insertRows", tableName, List.of(WriteStatement.insertSql("REPLACE", tableName, columns, rows)));
+        }catch (Exception e){
+            logger.warn("Warning: Insert " + rows.size() + " rows into " + tableName + " failed: " + e.getMessage());
+            res.put("status", "500");
+            res.put("msg", "Insert rows failed");
+            return res;
+        }
+        if(entry != null){
+            zookeeper.awaitReady();
+            return writeSucceeded(res, "Insert " + rows.size() + " rows successfully", replicate(entry));
+        }
+        res.put("status", "200");
+        res.put("msg", "Insert " + rows.size() + " rows successfully");
+        return res;
+    }
+
+    /**
+     * @return 本slave最近一次从master全量拷贝的进度
+     */
+    @RequestMapping("/bootstrapProgress")
+    public JSONObject bootstrapProgress(){
+        JSONObject res = new JSONObject();
+        CopyProgress progress = zookeeper.getCopyProgress();
+        if(progress != null)
+            res.put("progress", progress.toJSON());
+        res.put("status", "200");
+        return res;
+    }
+
+    /**
+     * @return 本Region发出的表迁移的进度
+     */
+    @RequestMapping("/hotsendProgress")
+    public JSONObject hotSendProgress(){
+        JSONObject res = new JSONObject();
+        JSONArray list = new JSONArray();
+        transfers.values().forEach(progress -> list.add(progress.toJSON()));
+        res.put("transfers", list);
+        res.put("throttle", migrationThrottle.toJSON());
+        res.put("status", "200");
+        return res;
+    }
+
     //一些奇怪的问题，无法解决，master上执行的SQL语句结果不存在
     @RequestMapping("/updateBatch")
     public JSONObject updateBatchTable(@RequestBody ListSQLParams params){
@@ -636,32 +1544,9 @@ public class RegionApplication {
         logger.info("Updating "+ sqlParamsList.size()+" rows...");
         JSONObject res = new JSONObject();
         //1. 执行SQL语句
+        ReplicationLog.Entry entry;
         try{
-            Connection conn = databaseConnection.getConnection();
-            Statement stmt = conn.createStatement();
-            for(String sql : sqlParamsList)
-                stmt.addBatch(sql);
-            int[] updateCounts =  stmt.executeBatch();
-            int successCount = 0, errorCount = 0;
-            for (int i = 0; i < updateCounts.length; i++) {
-                if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
-                    successCount++;
-                } else if (updateCounts[i] >= 0) {
-                    successCount++;
-                } else if (updateCounts[i] == Statement.EXECUTE_FAILED) {
-                    errorCount++;
-                }
-            }
-            logger.info("Success: " + successCount + " rows, Error: " + errorCount + " rows.");
-//            if(!zookeeper.isMaster()){
-//                CheckSum checkSum = new CheckSum(databaseConnection);
-//                long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-//                long masterCRCResult = Long.valueOf(params.getCrcResult());
-//                if(myCRCResult != masterCRCResult){
-//                    String masterAddr = zookeeper.getMasterAddr();
-//                    zookeeper.CopyFromRemoteTable(masterAddr, params.getTableName());
-//                }
-//            }
+            entry = executeWrite("updateBatch", params.getTableName(), sqlParamsList);
         }catch (Exception e){
             logger.warn("Warning: Region Server update table failed.");
             res.put("status", "500");
@@ -669,23 +1554,28 @@ public class RegionApplication {
             return res;
         }
 
-        //2. master转发sql语句到该Region下的所有slave
-        if(zookeeper.isMaster()){
-            while(!zookeeper.isReady());
-            CheckSum checkSum = new CheckSum(databaseConnection);
-            long myCRCResult = checkSum.getCRC4Table(params.getTableName());
-            forward(sqlParamsList, "updateBatch", params.getTableName(), myCRCResult);
+        //2. master按日志序号转发到该Region下的所有slave
+        if(entry != null){
+            zookeeper.awaitReady();
+            writeSucceeded(res, "Update table successfully", replicate(entry));
+        }
+        else{
+            res.put("status", "200");
+            res.put("msg", "Update table successfully");
         }
-        res.put("status", "200");
-        res.put("msg", "Update table successfully");
         logger.info("UpdateBatch is ended...");
 
         return res;
     }
 
-    public String getSQLString(PreparedStatement ps){
-        String toString = ps.toString();
-        return toString.substring(toString.lastIndexOf(":")+1).trim();
+    /**
+     * @return 本Server的查询负载：正在执行的查询数、延迟的指数移动平均和失败次数
+     */
+    @RequestMapping("/serverStats")
+    public JSONObject serverStats(){
+        JSONObject res = serverLoad.toJSON();
+        res.put("status", "200");
+        return res;
     }
 
     @RequestMapping("/visiting")
@@ -700,6 +1590,7 @@ public class RegionApplication {
     public JSONObject visitingClear(){
         JSONObject res = new JSONObject();
         visitCount = 0;
+        accessHistogram.decay();
         res.put("status", "200");
         res.put("msg", "Visit Count Clear Successfully");
         return res;
@@ -709,24 +1600,16 @@ public class RegionApplication {
 
 class TransfrerMeta{
     private String  tableName;
-    private Integer targetStart;
-    private Integer targetEnd;
-    private Integer originalStart;
-    private Integer originalEnd;
+    //迁移到target的哈希区间，编码同Zookeeper中的"s1,e1;s2,e2"
+    private String ranges;
 
-    TransfrerMeta(String tableName, int targetStart, int targetEnd, int originalStart, int originalEnd){
+    TransfrerMeta(String tableName, String ranges){
         this.tableName = tableName.toUpperCase();
-        this.targetStart = targetStart;
-        this.targetEnd = targetEnd;
-        this.originalStart = originalStart;
-        this.originalEnd = originalEnd;
+        this.ranges = ranges;
     }
 
     public String getTableName(){return tableName;}
-    public int getStart(){return targetStart;}
-    public int getEnd(){return targetEnd;}
-    public int getOriginalStart(){return originalStart;}
-    public int getOriginalEnd(){return originalEnd;}
+    public String getRanges(){return ranges;}
 
 }
 
@@ -0,0 +1,90 @@
+package utils;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: AccessHistogram
+ * @description: 每张表按路由哈希统计的访问次数。哈希空间[-MAX_HASH, MAX_HASH)等分为BINS个细桶，
+ *               写操作按受影响的主键、小结果集的查询按返回行的主键计数；master的热点检测周期结束时计数减半，
+ *               master按任意区间和分桶数读取后规划拆分点
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class AccessHistogram {
+    public static final int BINS = 1024;
+
+    private final Map<String, AtomicLongArray> tables = new ConcurrentHashMap<>();
+
+    public void record(String table, Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        AtomicLongArray counts = counts(table);
+        for (String key : keys) {
+            counts.incrementAndGet(binOf(Configs.hash(key)));
+        }
+    }
+
+    public void record(String table, String key) {
+        counts(table).incrementAndGet(binOf(Configs.hash(key)));
+    }
+
+    /**
+     * 所有计数减半，使旧的热点逐渐冷却
+     */
+    public void decay() {
+        for (AtomicLongArray counts : tables.values()) {
+            for (int i = 0; i < counts.length(); i++) {
+                long value;
+                do {
+                    value = counts.get(i);
+                } while (!counts.compareAndSet(i, value, value / 2));
+            }
+        }
+    }
+
+    /**
+     * 把[start, end)等分为bins个桶，细桶按中点落在哪个桶计入
+     */
+    public long[] histogram(String table, int start, int end, int bins) {
+        long[] result = new long[bins];
+        AtomicLongArray counts = tables.get(table.toUpperCase(Locale.ROOT));
+        if (counts == null || end <= start) {
+            return result;
+        }
+        for (int i = 0; i < BINS; i++) {
+            long value = counts.get(i);
+            if (value == 0) {
+                continue;
+            }
+            long mid = lowerOf(i) + width() / 2;
+            if (mid >= start && mid < end) {
+                result[(int) ((mid - start) * bins / (end - start))] += value;
+            }
+        }
+        return result;
+    }
+
+    private AtomicLongArray counts(String table) {
+        return tables.computeIfAbsent(table.toUpperCase(Locale.ROOT), k -> new AtomicLongArray(BINS));
+    }
+
+    private static long width() {
+        return 2L * Configs.MAX_HASH / BINS;
+    }
+
+    private static long lowerOf(int bin) {
+        return -Configs.MAX_HASH + bin * width();
+    }
+
+    private static int binOf(int hash) {
+        return (int) Math.min(BINS - 1, Math.max(0, (hash + (long) Configs.MAX_HASH) / width()));
+    }
+}
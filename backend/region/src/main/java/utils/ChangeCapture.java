@@ -0,0 +1,105 @@
+package utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: ChangeCapture
+ * @description: 在线迁移期间记录迁移区间内被写过的主键。写路径在执行写操作后报告受影响的主键，
+ *               无法确定影响范围的写操作（没有WHERE、修改主键、DDL）把该表标记为溢出，迁移需要重新同步整个区间
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class ChangeCapture {
+
+    private final Map<String, Capture> captures = new ConcurrentHashMap<>();
+
+    /**
+     * 开始记录表在[start, end)内的写操作，调用者需持有写锁，保证没有正在执行的写操作被漏掉
+     */
+    public void start(String table, int start, int end) {
+        captures.put(table.toUpperCase(Locale.ROOT), new Capture(start, end));
+    }
+
+    public void stop(String table) {
+        captures.remove(table.toUpperCase(Locale.ROOT));
+    }
+
+    public boolean isCapturing(String table) {
+        return !captures.isEmpty() && captures.containsKey(table.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param keys 受影响的主键，null表示无法确定
+     */
+    public void record(String table, Collection<String> keys) {
+        if (captures.isEmpty()) {
+            return;
+        }
+        Capture capture = captures.get(table.toUpperCase(Locale.ROOT));
+        if (capture != null) {
+            capture.record(keys);
+        }
+    }
+
+    /**
+     * 取出并清空目前记录的主键
+     */
+    public Changes drain(String table) {
+        Capture capture = captures.get(table.toUpperCase(Locale.ROOT));
+        return capture == null ? new Changes(Collections.emptySet(), false) : capture.drain();
+    }
+
+    public static class Changes {
+        private final Set<String> keys;
+        private final boolean overflow;
+
+        Changes(Set<String> keys, boolean overflow) {
+            this.keys = keys;
+            this.overflow = overflow;
+        }
+
+        public Set<String> getKeys() {
+            return keys;
+        }
+
+        public boolean isOverflow() {
+            return overflow;
+        }
+    }
+
+    private static class Capture {
+        private final int start;
+        private final int end;
+        private Set<String> keys = new HashSet<>();
+        private boolean overflow;
+
+        Capture(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        synchronized void record(Collection<String> changed) {
+            if (changed == null) {
+                overflow = true;
+                return;
+            }
+            for (String key : changed) {
+                int hash = Configs.hash(key);
+                if (hash >= start && hash < end) {
+                    keys.add(key);
+                }
+            }
+        }
+
+        synchronized Changes drain() {
+            Changes changes = new Changes(keys, overflow);
+            keys = new HashSet<>();
+            overflow = false;
+            return changes;
+        }
+    }
+}
@@ -23,19 +23,13 @@ public class CheckSum extends CRC32 {
     private static final Logger logger = LoggerFactory.getLogger(CheckSum.class);
 
     DatabaseConnection databaseConnection;
-    Connection conn;
 
     public CheckSum(DatabaseConnection databaseConnection) {
         this.databaseConnection = databaseConnection;
-        try{
-            this.conn = databaseConnection.getConnection();
-        } catch(Exception e){
-            logger.error("Failed to connect to database in CheckSum");
-        }
     }
 
     public long getCRC4Table(String tableName){
-        try{
+        try(Connection conn = databaseConnection.getConnection()){
             DatabaseMetaData metaData = conn.getMetaData();
             ResultSet tablers = metaData.getTables(null, null, tableName, null);
             if(tablers.next()){
@@ -80,6 +74,9 @@ public class CheckSum extends CRC32 {
         return crc;
     }
     public long getCRC32(String str){
+        if(str == null){
+            str = "NULL";
+        }
         CRC32 crc = new CRC32();
         crc.update(str.getBytes());
         return crc.getValue();
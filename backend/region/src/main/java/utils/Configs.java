@@ -12,6 +12,76 @@ public class Configs {
     public static int maxServers = 3;
     public static String DBUsername = "huang";
     public static String DBPassword = "123456"; // Exclusive
+    //写操作转发给slave的确认策略：all / majority / first-N
+    public static String replicationAck = "all";
+    public static int replicationTimeout = 3000;
+    public static int replicationThreads = 16;
+    //修复、追赶日志时从master拉取数据的读超时（毫秒）
+    public static int bulkTransferTimeout = 600000;
+    //复制日志等本地持久化文件的目录
+    public static String dataDir = "data";
+    //master在所有slave都确认之后仍至少保留的日志条数，供短暂离线的slave追赶
+    public static int replicationRetainEntries = 20000;
+    //slave重新加入时保留本地数据，按日志或表摘要增量同步
+    public static boolean incrementalRejoin = true;
+    //本地MySQL连接池
+    public static int poolMinSize = 2;
+    public static int poolMaxSize = 16;
+    public static int poolBorrowTimeout = 5000;
+    //借出超过该时间未归还的连接记录为泄漏
+    public static int poolLeakThreshold = 60000;
+    //借出连接时记录调用栈，泄漏时打印借出的位置；每次借出都要生成调用栈，只在排查泄漏时打开
+    public static boolean poolLeakTrace = false;
+    //空闲超过该时间的连接借出前检查是否可用
+    public static int poolValidationInterval = 30000;
+    public static int poolValidationTimeout = 2; // seconds
+    //master上/update的组提交窗口，0表示不做组提交
+    public static int groupCommitWindow = 2;
+    public static int groupCommitMaxSize = 64;
+    //同时等待slave确认的组数上限，达到上限时组提交线程才等待
+    public static int groupCommitMaxPending = 4;
+    //读操作表决中单个slave的截止时间
+    public static int voteTimeout = 2000;
+    //流式查询的JDBC fetch size，<=0时使用MySQL的逐行流式读取（Integer.MIN_VALUE）
+    public static int queryFetchSize = 0;
+    public static int queryFlushRows = 256;
+    //流式查询时slave表决请求的截止时间，slave需要执行完整的查询
+    public static int queryStreamTimeout = 600000;
+    //查询结果缓存的大小上限（字节），0表示不缓存
+    public static long queryCacheBytes = 64L * 1024 * 1024;
+    //迁移时每批的行数和字节数上限，以及扫描与发送之间最多缓冲的批数
+    public static int migrationBatchRows = 1000;
+    public static int migrationBatchBytes = 1024 * 1024;
+    public static int migrationQueueBatches = 4;
+    //在线迁移最多追赶的轮数，以及剩余改动少于多少个主键时进入切换
+    public static int migrationCatchUpRounds = 10;
+    public static int migrationCutoverKeys = 1000;
+    //离线迁移按哈希切片记录检查点，每片的哈希宽度
+    public static int migrationSliceHashes = 1024;
+    //前台延迟超过基线的倍数时迁移降速
+    public static double migrationLatencyFactor = 2.0;
+    //结果行数不超过该值的查询才按返回的主键计入访问直方图
+    public static int histogramMaxQueryRows = 100;
+    //Region之间传输的行块是否压缩，以及压缩的最小字节数
+    public static boolean transferCompression = true;
+    public static int transferCompressMinBytes = 512;
+    //slave全量拷贝的并行线程数、每个主键分块的行数，以及每条多行INSERT的行数和字节数上限
+    public static int bootstrapThreads = 4;
+    public static int bootstrapChunkRows = 50000;
+    public static int bootstrapBatchRows = 500;
+    public static int bootstrapBatchBytes = 1024 * 1024;
+    public static int MAX_HASH = 65536; // Exclusive
+
+    /**
+     * 与master的路由哈希保持一致
+     *
+     * @param value 被哈希的值（主键）
+     * @return 哈希值
+     */
+    public static int hash(String value) {
+        return value.hashCode() % MAX_HASH;
+    }
+
     public static String generateRegionPath(int regionId) {
         return String.format("/region%d", regionId);
     }
@@ -0,0 +1,225 @@
+package utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: CopyCheckpoint
+ * @description: 表拷贝的持久化检查点，保存在dataDir下。每张表分为若干个分块，每个分块记录已经写入目标的最后一个主键、
+ *               行数和行摘要之和，每写完一批就原子地替换文件。拷贝中断后从同一个源重新拷贝时，已完成的分块校验通过即跳过，
+ *               未完成的分块从最后一个主键继续
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class CopyCheckpoint {
+    private static final Logger logger = LoggerFactory.getLogger(CopyCheckpoint.class);
+
+    /**
+     * 一个分块，区间为[lower, upper)，null表示不限
+     */
+    public static class Chunk {
+        private final String lower;
+        private final String upper;
+        private String lastKey;
+        private long rows;
+        private long sum;
+        private boolean done;
+
+        public Chunk(String lower, String upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public String getLower() {
+            return lower;
+        }
+
+        public String getUpper() {
+            return upper;
+        }
+
+        public String getLastKey() {
+            return lastKey;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * 清空进度，重新拷贝整个分块
+         */
+        public void reset() {
+            lastKey = null;
+            rows = 0;
+            sum = 0;
+            done = false;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("lower", lower);
+            json.put("upper", upper);
+            json.put("lastKey", lastKey);
+            json.put("rows", rows);
+            json.put("sum", sum);
+            json.put("done", done);
+            return json;
+        }
+
+        static Chunk fromJSON(JSONObject json) {
+            Chunk chunk = new Chunk(json.getString("lower"), json.getString("upper"));
+            chunk.lastKey = json.getString("lastKey");
+            chunk.rows = json.getLongValue("rows");
+            chunk.sum = json.getLongValue("sum");
+            chunk.done = json.getBooleanValue("done");
+            return chunk;
+        }
+    }
+
+    private final Path file;
+    private final String source;
+    private final Map<String, List<Chunk>> tables = new LinkedHashMap<>();
+    private boolean resumed;
+
+    private CopyCheckpoint(Path file, String source) {
+        this.file = file;
+        this.source = source;
+    }
+
+    /**
+     * 读出名为name的检查点，源不同或文件损坏时从头开始
+     *
+     * @param source 源的标识，只有从同一个源拷贝时才续传
+     */
+    public static CopyCheckpoint open(String name, String source) {
+        CopyCheckpoint checkpoint = new CopyCheckpoint(Paths.get(Configs.dataDir, "copy-" + name + ".json"), source);
+        if (!Files.exists(checkpoint.file)) {
+            return checkpoint;
+        }
+        try {
+            JSONObject json = JSON.parseObject(new String(Files.readAllBytes(checkpoint.file), StandardCharsets.UTF_8));
+            if (!source.equals(json.getString("source"))) {
+                logger.info("Checkpoint " + checkpoint.file + " is for another source, start over");
+                return checkpoint;
+            }
+            JSONObject tables = json.getJSONObject("tables");
+            for (String table : tables.keySet()) {
+                List<Chunk> chunks = new ArrayList<>();
+                for (Object chunk : tables.getJSONArray(table)) {
+                    chunks.add(Chunk.fromJSON((JSONObject) JSON.toJSON(chunk)));
+                }
+                checkpoint.tables.put(table, chunks);
+            }
+            checkpoint.resumed = !checkpoint.tables.isEmpty();
+        } catch (Exception e) {
+            logger.warn("Can't read checkpoint " + checkpoint.file + ", start over: " + e.getMessage());
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return 是否读到了之前中断的拷贝
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public synchronized Set<String> tables() {
+        return new HashSet<>(tables.keySet());
+    }
+
+    /**
+     * @return 表的分块，没有记录时返回null
+     */
+    public synchronized List<Chunk> get(String table) {
+        return tables.get(table);
+    }
+
+    public synchronized void put(String table, List<Chunk> chunks) {
+        tables.put(table, chunks);
+        save();
+    }
+
+    /**
+     * 记录一批已经写入目标的行
+     */
+    public synchronized void advance(Chunk chunk, String lastKey, long rows, long sum) {
+        chunk.lastKey = lastKey;
+        chunk.rows += rows;
+        chunk.sum += sum;
+        save();
+    }
+
+    public synchronized void done(Chunk chunk) {
+        chunk.done = true;
+        save();
+    }
+
+    public synchronized void reset(Chunk chunk) {
+        chunk.reset();
+        save();
+    }
+
+    /**
+     * 拷贝全部完成后删除检查点
+     */
+    public synchronized void delete() {
+        tables.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Can't delete checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换，中途崩溃时保留上一次的检查点；写失败只影响续传，不影响拷贝本身
+     */
+    private void save() {
+        JSONObject json = new JSONObject();
+        json.put("source", source);
+        JSONObject tableJson = new JSONObject(true);
+        for (Map.Entry<String, List<Chunk>> entry : tables.entrySet()) {
+            JSONArray chunks = new JSONArray();
+            for (Chunk chunk : entry.getValue()) {
+                chunks.add(chunk.toJSON());
+            }
+            tableJson.put(entry.getKey(), chunks);
+        }
+        json.put("tables", tableJson);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Paths.get(file.toString() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(json.toJSONString());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Can't save checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: CopyProgress
+ * @description: 全量拷贝数据库的进度：表和分块的完成数、续传时跳过的分块数、拷贝的行数和字节数以及速率
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class CopyProgress {
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt;
+
+    private final AtomicLong tables = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong chunksDone = new AtomicLong();
+    private final AtomicLong chunksFailed = new AtomicLong();
+    private final AtomicLong chunksResumed = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public void table(int chunkCount) {
+        tables.incrementAndGet();
+        chunks.addAndGet(chunkCount);
+    }
+
+    public void copied(int rowCount, long byteCount) {
+        rows.addAndGet(rowCount);
+        bytes.addAndGet(byteCount);
+    }
+
+    public void chunkDone(boolean ok) {
+        (ok ? chunksDone : chunksFailed).incrementAndGet();
+    }
+
+    /**
+     * 续传时核对通过、不需要重新拷贝的分块
+     */
+    public void resumed(int chunkCount) {
+        chunksResumed.addAndGet(chunkCount);
+        chunksDone.addAndGet(chunkCount);
+    }
+
+    public void finish() {
+        finishedAt = System.currentTimeMillis();
+    }
+
+    public boolean isFailed() {
+        return chunksFailed.get() > 0;
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        long elapsed = Math.max(1, (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt);
+        json.put("finished", finishedAt != 0);
+        json.put("tables", tables.get());
+        json.put("chunks", chunks.get());
+        json.put("chunksDone", chunksDone.get());
+        json.put("chunksFailed", chunksFailed.get());
+        json.put("chunksResumed", chunksResumed.get());
+        json.put("rows", rows.get());
+        json.put("bytes", bytes.get());
+        json.put("elapsedMs", elapsed);
+        json.put("rowsPerSec", rows.get() * 1000.0 / elapsed);
+        json.put("bytesPerSec", bytes.get() * 1000.0 / elapsed);
+        return json;
+    }
+}
@@ -1,35 +1,73 @@
 package utils;
 
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @projectName: region
  * @package: utils
  * @className: DatabaseConnection
  * @author: Huang Jinjun
- * @description: TODO
+ * @description: 数据库连接池。getConnection()借出一个连接，调用close()归还到池中，
+ *               请求线程之间不再共享同一个连接
  * @date: 2024/5/8 16:34
  * @version: 1.0
  */
 
 @Component
 public class DatabaseConnection {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseConnection.class);
+
     private final String url;
     private final String username;
     private final String password;
-    private Connection connection;
+    private final int minSize;
+    private final int maxSize;
+
+    //空闲的物理连接，后归还的先借出
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    //借出的连接 -> 借出信息，用于泄漏检测
+    private final Map<PooledConnection, Borrow> borrowed = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private ScheduledExecutorService leakDetector;
+    private volatile boolean closed = false;
+
+    //统计信息
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
 
     @Autowired
     public DatabaseConnection(String url, String username, String password) {
+        this(url, username, password, Configs.poolMinSize, Configs.poolMaxSize);
+    }
+
+    public DatabaseConnection(String url, String username, String password, int minSize, int maxSize) {
         this.url = url;
         this.username = username;
         this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
     }
 
     public String getUsername() {
@@ -42,17 +80,315 @@ public class DatabaseConnection {
 
 
 
+    /**
+     * 建立minSize个连接并启动泄漏检测
+     */
     public void connect() throws SQLException {
-        connection = DriverManager.getConnection(url, username, password);
+        for (int i = 0; i < minSize; i++) {
+            total.incrementAndGet();
+            try {
+                idle.offerFirst(create());
+            } catch (SQLException e) {
+                total.decrementAndGet();
+                throw e;
+            }
+        }
+        leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-leak-detector");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Configs.poolLeakThreshold / 2);
+        leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        logger.info("Connection pool to " + url + " started, size " + minSize + "-" + maxSize);
+    }
+
+    /**
+     * 从池中借出一个连接，使用完后必须调用close()归还，建议使用try-with-resources。
+     * 没有空闲连接且已达到maxSize时最多等待poolBorrowTimeout毫秒
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool to " + url + " is closed");
+        }
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(Configs.poolBorrowTimeout);
+        boolean waited = false;
+        while (true) {
+            PooledConnection pc = idle.pollFirst();
+            if (pc == null && total.incrementAndGet() <= maxSize) {
+                try {
+                    pc = create();
+                } catch (SQLException e) {
+                    total.decrementAndGet();
+                    throw e;
+                }
+            } else if (pc == null) {
+                total.decrementAndGet();
+                waited = true;
+                try {
+                    pc = idle.pollFirst(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection", e);
+                }
+                if (pc == null) {
+                    timeouts.incrementAndGet();
+                    throw new SQLTimeoutException("Timed out after " + Configs.poolBorrowTimeout + "ms waiting for a connection to " + url
+                            + " (" + borrowed.size() + " borrowed)");
+                }
+            }
+            if (!validate(pc)) {
+                discard(pc);
+                continue;
+            }
+            long wait = System.nanoTime() - begin;
+            borrows.incrementAndGet();
+            if (waited) {
+                waits.incrementAndGet();
+                waitNanos.addAndGet(wait);
+                maxWaitNanos.accumulateAndGet(wait, Math::max);
+            }
+            pc.reset();
+            borrowed.put(pc, new Borrow(Thread.currentThread().getName(), Configs.poolLeakTrace ? new Exception("Connection borrowed here") : null));
+            return pc.proxy;
+        }
+    }
+
+    /**
+     * 借出一个连接执行查询，在连接归还前处理结果集
+     */
+    public <T> T query(String sql, ResultSetHandler<T> handler) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            return handler.handle(rs);
+        }
+    }
+
+    /**
+     * 借出一个连接以只进游标执行查询，结果逐批从数据库读取，内存占用与结果大小无关
+     *
+     * @param fetchSize 每批读取的行数，<=0时使用MySQL驱动的逐行流式读取
+     */
+    public <T> T stream(String sql, int fetchSize, ResultSetHandler<T> handler) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize <= 0 ? Integer.MIN_VALUE : fetchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                return handler.handle(rs);
+            }
+        }
+    }
+
+    /**
+     * 借出一个连接执行写操作
+     */
+    public int update(String sql) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            return ps.executeUpdate();
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, username, password));
+        created.incrementAndGet();
+        return pc;
+    }
+
+    /**
+     * 空闲超过一段时间的连接借出前检查是否仍然可用（MySQL会关闭长时间空闲的连接）
+     */
+    private boolean validate(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < Configs.poolValidationInterval) {
+            return true;
+        }
+        try {
+            return pc.physical.isValid(Configs.poolValidationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        total.decrementAndGet();
+        discarded.incrementAndGet();
+        try {
+            pc.physical.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close pooled connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 归还连接：关闭借出期间未关闭的Statement，回滚未提交的事务
+     */
+    private void release(PooledConnection pc) {
+        if (borrowed.remove(pc) == null) {
+            return;
+        }
+        boolean broken = false;
+        try {
+            pc.closeStatements();
+            if (!pc.physical.getAutoCommit()) {
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+            broken = pc.physical.isClosed();
+        } catch (SQLException e) {
+            logger.warn("Discard pooled connection on release: " + e.getMessage());
+            broken = true;
+        }
+        if (broken || closed) {
+            discard(pc);
+            return;
+        }
+        pc.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(pc);
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<PooledConnection, Borrow> entry : borrowed.entrySet()) {
+            Borrow borrow = entry.getValue();
+            if (!borrow.reported && now - borrow.time > Configs.poolLeakThreshold) {
+                borrow.reported = true;
+                leaks.incrementAndGet();
+                if (borrow.stack != null) {
+                    logger.warn("Connection borrowed by " + borrow.thread + " not returned after " + (now - borrow.time) + "ms", borrow.stack);
+                } else {
+                    logger.warn("Connection borrowed by " + borrow.thread + " not returned after " + (now - borrow.time) + "ms, enable poolLeakTrace to log where it was borrowed");
+                }
+            }
+        }
     }
 
-    public Connection getConnection() {
-        return connection;
+    /**
+     * @return 连接池状态与借出等待的统计
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        long borrowCount = borrows.get();
+        long waitCount = waits.get();
+        stats.put("url", url);
+        stats.put("minSize", minSize);
+        stats.put("maxSize", maxSize);
+        stats.put("total", total.get());
+        stats.put("idle", idle.size());
+        stats.put("borrowed", borrowed.size());
+        stats.put("borrows", borrowCount);
+        stats.put("waits", waitCount);
+        stats.put("waitRatio", borrowCount == 0 ? 0 : (double) waitCount / borrowCount);
+        stats.put("avgWaitMs", waitCount == 0 ? 0 : waitNanos.get() / waitCount / 1e6);
+        stats.put("maxWaitMs", maxWaitNanos.get() / 1e6);
+        stats.put("timeouts", timeouts.get());
+        stats.put("created", created.get());
+        stats.put("discarded", discarded.get());
+        stats.put("leaks", leaks.get());
+        return stats;
     }
 
     public void close() throws SQLException {
-        if (connection != null) {
-            connection.close();
+        closed = true;
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            discard(pc);
+        }
+        if (!borrowed.isEmpty()) {
+            logger.warn(borrowed.size() + " connections to " + url + " still borrowed on close, they are closed when returned");
+        }
+    }
+
+    public interface ResultSetHandler<T> {
+        T handle(ResultSet rs) throws SQLException;
+    }
+
+    private static class Borrow {
+        private final String thread;
+        private final Exception stack; // 没有打开poolLeakTrace时为null
+        private final long time = System.currentTimeMillis();
+        private volatile boolean reported = false;
+
+        Borrow(String thread, Exception stack) {
+            this.thread = thread;
+            this.stack = stack;
+        }
+    }
+
+    /**
+     * 池中的物理连接。借出的是它的代理，代理的close()归还连接而不是关闭物理连接
+     */
+    private class PooledConnection {
+        private final Connection physical;
+        private final Connection proxy;
+        private final List<Statement> statements = new ArrayList<>();
+        private volatile boolean returned = true;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (p, method, args) -> invoke(method, args));
+        }
+
+        void reset() {
+            returned = false;
+        }
+
+        private Object invoke(Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "unwrap":
+                    return physical.unwrap((Class<?>) args[0]);
+                case "isWrapperFor":
+                    return physical.isWrapperFor((Class<?>) args[0]);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            try {
+                Object result = method.invoke(physical, args);
+                if (result instanceof Statement) {
+                    synchronized (statements) {
+                        statements.add((Statement) result);
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        void closeStatements() {
+            synchronized (statements) {
+                for (Statement statement : statements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                        logger.warn("Failed to close statement: " + e.getMessage());
+                    }
+                }
+                statements.clear();
+            }
         }
     }
 }
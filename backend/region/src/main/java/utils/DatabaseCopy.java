@@ -5,6 +5,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @projectName: region
@@ -21,29 +27,114 @@ public class DatabaseCopy{
     
     private DatabaseConnection sourceDataSource;
     private DatabaseConnection targetDataSource;
+    private final CopyProgress progress = new CopyProgress();
 
     public DatabaseCopy(DatabaseConnection sourceDataSource, DatabaseConnection targetDataSource){
         this.sourceDataSource = sourceDataSource;
         this.targetDataSource = targetDataSource;
     }
 
+    /**
+     * 逐表创建表结构并划分主键分块，所有表的分块由bootstrapThreads个线程并行拷贝
+     */
     public void copy(){
+        List<String> tables;
         try{
-            Connection sourceConnection = sourceDataSource.getConnection();
-            DatabaseMetaData sourceMetaData = sourceConnection.getMetaData();
-            PreparedStatement ps = sourceConnection.prepareStatement("show tables");
-            ResultSet sourceTables = ps.executeQuery();
-
-            while(sourceTables.next()){
-                String sourceTable = sourceTables.getString(1);
-                logger.info("Copying table " + sourceTable + "...");
-                copyTable(sourceTable, sourceTable);
-            }
+            tables = listTables(sourceDataSource);
         }catch (Exception e){
             e.printStackTrace();
             logger.error("Failed to copy data from source database to target database");
+            return;
+        }
+        copyTables(tables);
+    }
+
+    public static List<String> listTables(DatabaseConnection dataSource) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try(Connection conn = dataSource.getConnection();
+            PreparedStatement ps = conn.prepareStatement("show tables");
+            ResultSet rs = ps.executeQuery()){
+            while(rs.next()){
+                tables.add(rs.getString(1));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * 只拷贝指定的表
+     */
+    public void copyTables(List<String> tables){
+        copyTables(tables, null);
+    }
+
+    /**
+     * 只拷贝指定的表，有检查点时续传：检查点里有记录且目标上已有的表核对后只拷贝未完成的分块，全部完成后删除检查点
+     *
+     * @param checkpoint 可以为null
+     */
+    public void copyTables(List<String> tables, CopyCheckpoint checkpoint){
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Configs.bootstrapThreads));
+        List<Future<?>> futures = new ArrayList<>();
+        try{
+            for(String sourceTable : tables){
+                TableCopy tableCopy = new TableCopy(sourceDataSource, targetDataSource, sourceTable, sourceTable);
+                try{
+                    List<CopyCheckpoint.Chunk> chunks = checkpoint == null ? null : checkpoint.get(sourceTable);
+                    List<CopyCheckpoint.Chunk> pending = new ArrayList<>();
+                    if(chunks != null && !tableCopy.createTable()){
+                        logger.info("Resuming table " + sourceTable + "...");
+                        for(CopyCheckpoint.Chunk chunk : chunks){
+                            if(!tableCopy.prepareResume(chunk, checkpoint))
+                                pending.add(chunk);
+                        }
+                        progress.table(chunks.size());
+                        progress.resumed(chunks.size() - pending.size());
+                    }
+                    else{
+                        if(chunks == null && !tableCopy.createTable())
+                            continue;
+                        logger.info("Copying table " + sourceTable + "...");
+                        chunks = tableCopy.chunks();
+                        if(checkpoint != null)
+                            checkpoint.put(sourceTable, chunks);
+                        pending.addAll(chunks);
+                        progress.table(chunks.size());
+                    }
+                    for(CopyCheckpoint.Chunk chunk : pending){
+                        futures.add(executor.submit(() -> {
+                            tableCopy.copyChunk(chunk, progress, checkpoint);
+                            return null;
+                        }));
+                    }
+                }catch (SQLException e){
+                    e.printStackTrace();
+                    logger.info("Failed to copy data from " + sourceTable);
+                    progress.chunkDone(false);
+                }
+            }
+            for(Future<?> future : futures){
+                try{
+                    future.get();
+                }catch (ExecutionException e){
+                    logger.error("Failed to copy chunk: " + e.getCause().getMessage());
+                }
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }finally {
+            executor.shutdownNow();
+            progress.finish();
         }
+        if(checkpoint != null && !progress.isFailed() && !Thread.currentThread().isInterrupted())
+            checkpoint.delete();
+        logger.info("Copied " + progress.getRows() + " rows of " + tables.size() + " tables" + (progress.isFailed() ? " with failed chunks" : ""));
+    }
+
+    public CopyProgress getProgress(){
+        return progress;
     }
+
     public void copyTable(String sourceTable, String targetTable){
         TableCopy tableCopy = new TableCopy(sourceDataSource, targetDataSource, sourceTable, targetTable);
         tableCopy.copy();
@@ -0,0 +1,224 @@
+package utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: FanoutClient
+ * @description: Region内并发转发请求的客户端，所有slave共享同一个带连接池的HTTP客户端
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class FanoutClient {
+    private static final Logger logger = LoggerFactory.getLogger(FanoutClient.class);
+
+    private final ExecutorService executor;
+    private final ExecutorService bodyExecutor;
+    private final HttpClient httpClient;
+    private final RestTemplate restTemplate;
+    private final RestTemplate bulkRestTemplate;
+    private final int timeoutMs;
+
+    /**
+     * @param threads       HttpClient处理异步响应的线程数
+     * @param timeoutMs     转发、表决等普通请求的超时
+     * @param bulkTimeoutMs 修复、追赶日志等批量传输的读超时
+     */
+    public FanoutClient(int threads, int timeoutMs, int bulkTimeoutMs) {
+        this.timeoutMs = timeoutMs;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "fanout-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        //RestTemplate写请求体时会阻塞到HttpClient读走数据，不能与HttpClient共用有界线程池
+        AtomicInteger bodyThreadCount = new AtomicInteger();
+        this.bodyExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "fanout-body-" + bodyThreadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        //JDK HttpClient内部维护keep-alive连接池，同一个slave的连接会被复用
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .executor(executor)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient, bodyExecutor);
+        factory.setReadTimeout(timeoutMs);
+        this.restTemplate = new RestTemplate(factory);
+        JdkClientHttpRequestFactory bulkFactory = new JdkClientHttpRequestFactory(httpClient, bodyExecutor);
+        bulkFactory.setReadTimeout(bulkTimeoutMs);
+        this.bulkRestTemplate = new RestTemplate(bulkFactory);
+    }
+
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * @return 读超时较长的RestTemplate，用于/digest、/bucketBlock、/replog等可能很大的响应
+     */
+    public RestTemplate getBulkRestTemplate() {
+        return bulkRestTemplate;
+    }
+
+    public static String regionUrl(String addr, String type) {
+        return "http://" + addr.substring(0, addr.indexOf(":")) + ":9090/" + type;
+    }
+
+    /**
+     * 异步发送POST请求，超过timeoutMs未返回的请求视为失败。请求直接交给HttpClient，不占用阻塞等待的线程
+     *
+     * @param url    请求地址
+     * @param params 请求体
+     * @return 响应体
+     */
+    public CompletableFuture<JSONObject> post(String url, JSONObject params) {
+        return postCancellable(url, params, timeoutMs);
+    }
+
+    /**
+     * 直接用HttpClient异步发送POST请求。返回的future被cancel(true)时会中止对应的HTTP请求
+     *
+     * @param url       请求地址
+     * @param params    请求体
+     * @param timeoutMs 本次请求的截止时间
+     * @return 响应体
+     */
+    public CompletableFuture<JSONObject> postCancellable(String url, JSONObject params, int timeoutMs) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofString(params.toJSONString()))
+                .build();
+        CompletableFuture<HttpResponse<String>> response = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<JSONObject> body = response.thenApply(r -> {
+            if (r.statusCode() != 200) {
+                throw new CompletionException(new IOException("HTTP " + r.statusCode() + " from " + url));
+            }
+            return JSON.parseObject(r.body());
+        });
+        //取消不会自动传递到上游，需要显式取消HTTP请求
+        body.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                response.cancel(true);
+            }
+        });
+        return body;
+    }
+
+    /**
+     * 等待足够多的请求成功。达到required个成功时立即返回true，剩余的请求在后台继续完成；
+     * 失败数量使得required无法达到或者超时，返回false
+     *
+     * @param acks     每个slave的确认结果
+     * @param required 需要的确认数
+     * @return 是否满足确认策略
+     */
+    public boolean awaitAcks(List<CompletableFuture<Boolean>> acks, int required) {
+        if (required <= 0) {
+            return true;
+        }
+        if (required > acks.size()) {
+            return false;
+        }
+        CompletableFuture<Boolean> quorum = new CompletableFuture<>();
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<Boolean> ack : acks) {
+            ack.whenComplete((ok, e) -> {
+                if (e == null && Boolean.TRUE.equals(ok)) {
+                    if (successes.incrementAndGet() >= required) {
+                        quorum.complete(true);
+                    }
+                } else if (acks.size() - failures.incrementAndGet() < required) {
+                    quorum.complete(false);
+                }
+            });
+        }
+        try {
+            return quorum.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Waiting for " + required + " acks timed out, got " + successes.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Waiting for acks failed: " + e.getMessage());
+        }
+        return false;
+    }
+
+    public void close() {
+        executor.shutdown();
+        bodyExecutor.shutdown();
+    }
+
+    /**
+     * 写操作的确认策略：all / majority / first-N
+     */
+    public static class AckPolicy {
+        private final String name;
+        private final int n;
+
+        private AckPolicy(String name, int n) {
+            this.name = name;
+            this.n = n;
+        }
+
+        public static AckPolicy parse(String policy) {
+            if (policy == null || policy.equalsIgnoreCase("all")) {
+                return new AckPolicy("all", 0);
+            }
+            if (policy.equalsIgnoreCase("majority")) {
+                return new AckPolicy("majority", 0);
+            }
+            String number = policy.toLowerCase().startsWith("first-") ? policy.substring("first-".length()) : policy;
+            try {
+                return new AckPolicy("first-" + number, Integer.parseInt(number));
+            } catch (NumberFormatException e) {
+                logger.warn("Unknown ack policy " + policy + ", fall back to all");
+                return new AckPolicy("all", 0);
+            }
+        }
+
+        /**
+         * @param slaves 当前slave数量
+         * @return 写操作返回前需要的slave确认数
+         */
+        public int required(int slaves) {
+            switch (name) {
+                case "all":
+                    return slaves;
+                case "majority":
+                    //master自身算一票，需要slave确认数使总数过半
+                    return (slaves + 1) / 2;
+                default:
+                    return Math.min(n, slaves);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: GroupCommit
+ * @description: master上的组提交。收集一个时间窗口内（或达到数量上限）到达的写请求，交给committer作为一组
+ *               在一个事务中执行并一次性转发给slave，每个请求仍然得到各自的结果。转发和等待确认在复制线程上进行，
+ *               组提交线程不等待就开始收集下一组，最多maxPending组同时等待确认
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class GroupCommit {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommit.class);
+
+    private final BlockingQueue<Request> queue;
+    private final long windowNanos;
+    private final int maxSize;
+    private final Committer committer;
+    private final Thread worker;
+    private final ExecutorService replicator;
+    //已经提交、还在等待slave确认的组
+    private final Semaphore pending;
+    private final int maxPending;
+    private volatile boolean running = true;
+
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong maxGroupSize = new AtomicLong();
+
+    /**
+     * @param windowMs  第一个请求到达后最多再等待的时间
+     * @param maxSize    一组的最大请求数
+     * @param maxPending 同时等待slave确认的最大组数
+     * @param committer  执行一组请求，返回的转发步骤完成每个请求的result
+     */
+    public GroupCommit(int windowMs, int maxSize, int maxPending, Committer committer) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.maxSize = Math.max(1, maxSize);
+        this.maxPending = Math.max(1, maxPending);
+        this.committer = committer;
+        this.pending = new Semaphore(this.maxPending);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.replicator = Executors.newFixedThreadPool(this.maxPending, r -> {
+            Thread t = new Thread(r, "group-replicate-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        //队列满时提交者阻塞，避免写请求无限堆积
+        this.queue = new LinkedBlockingQueue<>(this.maxSize * 16);
+        this.worker = new Thread(this::run, "group-commit");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public CompletableFuture<JSONObject> submit(String tableName, String sql) throws InterruptedException {
+        Request request = new Request(tableName, sql);
+        queue.put(request);
+        return request.result;
+    }
+
+    private void run() {
+        while (running) {
+            List<Request> group = new ArrayList<>();
+            try {
+                group.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (group.size() < maxSize) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                fail(group, "Region Server is closing");
+                break;
+            }
+            groups.incrementAndGet();
+            requests.addAndGet(group.size());
+            maxGroupSize.accumulateAndGet(group.size(), Math::max);
+            //等待确认的组达到上限时才阻塞，避免已提交未确认的写操作无限堆积
+            try {
+                pending.acquire();
+            } catch (InterruptedException e) {
+                fail(group, "Region Server is closing");
+                break;
+            }
+            Runnable replication = null;
+            try {
+                replication = committer.commit(group);
+            } catch (Throwable e) {
+                logger.error("Group commit of " + group.size() + " writes failed: " + e.getMessage());
+            }
+            if (replication == null) {
+                finish(group);
+                continue;
+            }
+            Runnable step = replication;
+            try {
+                replicator.execute(() -> {
+                    try {
+                        step.run();
+                    } catch (Throwable e) {
+                        logger.error("Replicating group of " + group.size() + " writes failed: " + e.getMessage());
+                    } finally {
+                        finish(group);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                finish(group);
+            }
+        }
+    }
+
+    /**
+     * committer没有给出结果的请求视为失败
+     */
+    private void finish(List<Request> group) {
+        fail(group, "Update table failed");
+        pending.release();
+    }
+
+    private void fail(List<Request> group, String msg) {
+        for (Request request : group) {
+            request.complete("500", msg);
+        }
+    }
+
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        long groupCount = groups.get();
+        stats.put("groups", groupCount);
+        stats.put("requests", requests.get());
+        stats.put("avgGroupSize", groupCount == 0 ? 0 : (double) requests.get() / groupCount);
+        stats.put("maxGroupSize", maxGroupSize.get());
+        stats.put("queued", queue.size());
+        stats.put("replicating", maxPending - pending.availablePermits());
+        return stats;
+    }
+
+    public void close() {
+        running = false;
+        worker.interrupt();
+        replicator.shutdown();
+        List<Request> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        fail(rest, "Region Server is closing");
+    }
+
+    public interface Committer {
+        /**
+         * 在组提交线程上执行并提交一组请求
+         *
+         * @return 转发给slave并给出每个请求结果的步骤，在复制线程上执行；没有需要转发的日志时返回null
+         */
+        Runnable commit(List<Request> group) throws Exception;
+    }
+
+    public static class Request {
+        private final String tableName;
+        private final String sql;
+        private final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+
+        Request(String tableName, String sql) {
+            this.tableName = tableName;
+            this.sql = sql;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public boolean isDone() {
+            return result.isDone();
+        }
+
+        public void complete(String status, String msg) {
+            JSONObject res = new JSONObject();
+            res.put("status", status);
+            res.put("msg", msg);
+            complete(res);
+        }
+
+        public void complete(JSONObject res) {
+            result.complete(res);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: HashBucketIndex
+ * @description: 在每张有主键的表上维护一个带索引的不可见列_HASH_BUCKET，保存主键的路由哈希，
+ *               按哈希区间选取行时可以走索引范围扫描而不必读出所有主键在JVM中计算哈希。
+ *               哈希只能在Java中计算，新写入的行先为NULL，写操作之后由本类补齐；
+ *               MySQL不支持不可见列（8.0.23之前）时放弃建立，调用者退回到全表扫描
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class HashBucketIndex {
+    private static final Logger logger = LoggerFactory.getLogger(HashBucketIndex.class);
+
+    public static final String COLUMN = "_HASH_BUCKET";
+    private static final String INDEX = "IDX_HASH_BUCKET";
+    private static final int BACKFILL_BATCH = 1000;
+
+    private final DatabaseConnection databaseConnection;
+    //已经建立桶列的表 -> 主键名
+    private final Map<String, String> indexed = new ConcurrentHashMap<>();
+    //无法建立桶列的表（没有主键或者MySQL不支持）
+    private final Set<String> unsupported = ConcurrentHashMap.newKeySet();
+
+    public HashBucketIndex(DatabaseConnection databaseConnection) {
+        this.databaseConnection = databaseConnection;
+    }
+
+    /**
+     * 为本地所有表建立桶列并补齐
+     */
+    public void ensureAll() {
+        List<String> tables = new ArrayList<>();
+        try (Connection conn = databaseConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement("show tables");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            logger.warn("Can't list tables for hash bucket index: " + e.getMessage());
+            return;
+        }
+        for (String table : tables) {
+            try {
+                ensure(table);
+            } catch (SQLException e) {
+                logger.warn("Can't build hash bucket index of " + table + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean ensure(String table) throws SQLException {
+        try (Connection conn = databaseConnection.getConnection()) {
+            return ensure(conn, table);
+        }
+    }
+
+    /**
+     * 确保表有桶列且所有行都已补齐
+     *
+     * @return 是否可以按桶列选取行
+     */
+    public boolean ensure(Connection conn, String table) throws SQLException {
+        if (unsupported.contains(table)) {
+            return false;
+        }
+        String primaryName = indexed.get(table);
+        if (primaryName == null) {
+            primaryName = primaryName(conn, table);
+            if (primaryName == null) {
+                unsupported.add(table);
+                return false;
+            }
+            if (!hasColumn(conn, table)) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + COLUMN + " INT NULL INVISIBLE, ADD INDEX " + INDEX + " (" + COLUMN + ")");
+                    logger.info("Added hash bucket index to " + table);
+                } catch (SQLException e) {
+                    logger.warn("Can't add hash bucket column to " + table + ", fall back to full scans: " + e.getMessage());
+                    unsupported.add(table);
+                    return false;
+                }
+            }
+            indexed.put(table, primaryName);
+        }
+        backfill(conn, table, primaryName);
+        return true;
+    }
+
+    public boolean isIndexed(String table) {
+        return indexed.containsKey(table);
+    }
+
+    /**
+     * @return 已建立桶列的表的主键名，未建立时返回null
+     */
+    public String primaryNameOf(String table) {
+        return indexed.get(table);
+    }
+
+    /**
+     * 修改主键的UPDATE执行前，先把将被修改的行的桶列置空，执行后重新补齐
+     */
+    public void beforeWrite(Connection conn, String table, WriteStatement ws) throws SQLException {
+        String primaryName = indexed.get(table);
+        if (primaryName == null || ws.getKind() != WriteStatement.Kind.UPDATE || !ws.setsColumn(primaryName)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE " + table + " SET " + COLUMN + " = NULL"
+                    + (ws.getWhereClause() == null ? "" : " WHERE " + ws.getWhereClause()));
+        }
+    }
+
+    /**
+     * 写操作之后补齐新行的桶列；新建的表建立桶列，删除的表清除状态
+     */
+    public void afterWrite(Connection conn, String table, WriteStatement ws) throws SQLException {
+        switch (ws.getKind()) {
+            case CREATE:
+                unsupported.remove(table);
+                indexed.remove(table);
+                ensure(conn, table);
+                return;
+            case DROP:
+                unsupported.remove(table);
+                indexed.remove(table);
+                return;
+            case DELETE:
+                return;
+            default:
+                String primaryName = indexed.get(table);
+                if (primaryName != null) {
+                    backfill(conn, table, primaryName);
+                }
+        }
+    }
+
+    /**
+     * 表结构可能被外部改变（例如从master全量拷贝之后），清除状态后重新建立
+     */
+    public void reset() {
+        indexed.clear();
+        unsupported.clear();
+    }
+
+    /**
+     * @return 主键哈希落在[start, end)内的所有主键，有桶列时走索引范围扫描
+     */
+    public List<String> keysInRange(String table, String primaryName, int start, int end) throws SQLException {
+        List<String> keys = new ArrayList<>();
+        try (Connection conn = databaseConnection.getConnection()) {
+            String sql = "SELECT " + primaryName + " FROM " + table;
+            if (ensure(conn, table)) {
+                sql += " WHERE " + rangeCondition(start, end);
+            }
+            try (PreparedStatement ps = conn.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String key = rs.getString(1);
+                    int hash = Configs.hash(String.valueOf(key));
+                    if (hash >= start && hash < end) {
+                        keys.add(key);
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 迁移续传时比较源和目标的同一个哈希区间
+     *
+     * @return 主键哈希落在[start, end)内的行数和行摘要之和
+     */
+    public long[] rangeChecksum(String table, String primaryName, int start, int end) throws SQLException {
+        long[] result = new long[2];
+        try (Connection conn = databaseConnection.getConnection()) {
+            String sql = "SELECT * FROM " + table;
+            if (ensure(conn, table)) {
+                sql += " WHERE " + rangeCondition(start, end);
+            }
+            try (PreparedStatement ps = conn.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                int primaryIndex = RangeTransfer.primaryIndex(rs.getMetaData(), primaryName);
+                int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    int hash = Configs.hash(String.valueOf(rs.getString(primaryIndex)));
+                    if (hash >= start && hash < end) {
+                        result[0]++;
+                        result[1] += TableDigest.rowHash(rs, columns);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把[start, end)等分为bins个桶，统计每个桶内的行数；有桶列时在索引上分组计数
+     */
+    public long[] rowHistogram(String table, int start, int end, int bins) throws SQLException {
+        long[] result = new long[bins];
+        if (end <= start) {
+            return result;
+        }
+        String primaryName;
+        try (Connection conn = databaseConnection.getConnection()) {
+            if (ensure(conn, table)) {
+                try (PreparedStatement ps = conn.prepareStatement("SELECT FLOOR((" + COLUMN + " - " + start + ") * " + bins + " / " + ((long) end - start) + ") AS b, COUNT(*) FROM "
+                        + table + " WHERE " + rangeCondition(start, end) + " GROUP BY b");
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        int bin = rs.getInt(1);
+                        if (bin >= 0 && bin < bins) {
+                            result[bin] += rs.getLong(2);
+                        }
+                    }
+                }
+                return result;
+            }
+            primaryName = primaryName(conn, table);
+        }
+        if (primaryName == null) {
+            return result;
+        }
+        for (String key : keysInRange(table, primaryName, start, end)) {
+            result[(int) (((long) Configs.hash(key) - start) * bins / ((long) end - start))]++;
+        }
+        return result;
+    }
+
+    /**
+     * @return 路由哈希在[start, end)内的条件
+     */
+    public static String rangeCondition(int start, int end) {
+        return COLUMN + " >= " + start + " AND " + COLUMN + " < " + end;
+    }
+
+    /**
+     * TableDigest的桶按floorMod(hash)划分，负的哈希落在对应区间减去MAX_HASH的位置
+     *
+     * @return 路由哈希落在若干个摘要桶内的条件
+     */
+    public static String bucketsCondition(Set<Integer> buckets) {
+        List<String> ranges = new ArrayList<>();
+        List<Integer> sorted = new ArrayList<>(new TreeSet<>(buckets));
+        for (int i = 0; i < sorted.size(); ) {
+            int j = i;
+            while (j + 1 < sorted.size() && sorted.get(j + 1) == sorted.get(j) + 1) {
+                j++;
+            }
+            int start = TableDigest.bucketRange(sorted.get(i))[0];
+            int end = TableDigest.bucketRange(sorted.get(j))[1];
+            ranges.add("(" + rangeCondition(start, end) + ")");
+            ranges.add("(" + rangeCondition(start - Configs.MAX_HASH, end - Configs.MAX_HASH) + ")");
+            i = j + 1;
+        }
+        return ranges.isEmpty() ? "FALSE" : String.join(" OR ", ranges);
+    }
+
+    /**
+     * 分批计算桶列为NULL的行的哈希
+     */
+    private void backfill(Connection conn, String table, String primaryName) throws SQLException {
+        int filled = 0;
+        while (true) {
+            List<String> keys = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT " + primaryName + " FROM " + table
+                    + " WHERE " + COLUMN + " IS NULL LIMIT " + BACKFILL_BATCH);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    keys.add(rs.getString(1));
+                }
+            }
+            if (keys.isEmpty()) {
+                break;
+            }
+            try (PreparedStatement ps = conn.prepareStatement("UPDATE " + table + " SET " + COLUMN + " = ? WHERE " + primaryName + " = ?")) {
+                for (String key : keys) {
+                    ps.setInt(1, Configs.hash(key));
+                    ps.setString(2, key);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            filled += keys.size();
+            if (keys.size() < BACKFILL_BATCH) {
+                break;
+            }
+        }
+        if (filled > BACKFILL_BATCH) {
+            logger.info("Backfilled hash bucket of " + filled + " rows in " + table);
+        }
+    }
+
+    private String primaryName(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getPrimaryKeys(null, null, table)) {
+            return rs.next() ? rs.getString("COLUMN_NAME") : null;
+        }
+    }
+
+    private boolean hasColumn(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(null, null, table, COLUMN)) {
+            return rs.next();
+        }
+    }
+}
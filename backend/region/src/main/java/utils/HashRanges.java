@@ -0,0 +1,128 @@
+package utils;
+
+import java.util.*;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: HashRanges
+ * @description: 一张表在一个Region上负责的若干个互不相交的哈希区间[start, end)，按起点存放在TreeMap中，
+ *               查找某个哈希值是否属于这些区间是O(log n)。Zookeeper中编码为"s1,e1;s2,e2"，只有一个区间时与原来的"start,end"相同
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class HashRanges {
+    //起点 -> 终点，区间互不相交且不相邻
+    private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+
+    public HashRanges() {
+    }
+
+    public HashRanges(int start, int end) {
+        add(start, end);
+    }
+
+    /**
+     * @param encoded "s1,e1;s2,e2"，空串表示没有区间
+     */
+    public static HashRanges parse(String encoded) {
+        HashRanges result = new HashRanges();
+        if (encoded == null || encoded.isBlank()) {
+            return result;
+        }
+        for (String range : encoded.split(";")) {
+            String[] bounds = range.trim().split(",");
+            result.add(Integer.parseInt(bounds[0].trim()), Integer.parseInt(bounds[1].trim()));
+        }
+        return result;
+    }
+
+    public boolean contains(int hash) {
+        Map.Entry<Integer, Integer> entry = ranges.floorEntry(hash);
+        return entry != null && hash < entry.getValue();
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @return 按起点排序的区间，每个元素为{start, end}
+     */
+    public List<int[]> ranges() {
+        List<int[]> result = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) {
+            result.add(new int[]{entry.getKey(), entry.getValue()});
+        }
+        return result;
+    }
+
+    /**
+     * 并入[start, end)，与已有区间重叠或相邻时合并
+     */
+    public HashRanges add(int start, int end) {
+        if (end <= start) {
+            return this;
+        }
+        Map.Entry<Integer, Integer> lower = ranges.floorEntry(start);
+        if (lower != null && lower.getValue() >= start) {
+            start = lower.getKey();
+            end = Math.max(end, lower.getValue());
+        }
+        Map.Entry<Integer, Integer> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+        }
+        ranges.put(start, end);
+        return this;
+    }
+
+    public HashRanges add(HashRanges other) {
+        for (int[] range : other.ranges()) {
+            add(range[0], range[1]);
+        }
+        return this;
+    }
+
+    /**
+     * 去掉[start, end)，被截断的区间保留两侧剩余的部分
+     */
+    public HashRanges remove(int start, int end) {
+        if (end <= start) {
+            return this;
+        }
+        Map.Entry<Integer, Integer> lower = ranges.lowerEntry(start);
+        if (lower != null && lower.getValue() > start) {
+            ranges.put(lower.getKey(), start);
+            if (lower.getValue() > end) {
+                ranges.put(end, lower.getValue());
+            }
+        }
+        Map.Entry<Integer, Integer> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() < end) {
+            ranges.remove(next.getKey());
+            if (next.getValue() > end) {
+                ranges.put(end, next.getValue());
+            }
+        }
+        return this;
+    }
+
+    public HashRanges remove(HashRanges other) {
+        for (int[] range : other.ranges()) {
+            remove(range[0], range[1]);
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(";");
+        for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) {
+            joiner.add(entry.getKey() + "," + entry.getValue());
+        }
+        return joiner.toString();
+    }
+}
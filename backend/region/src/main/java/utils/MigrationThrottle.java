@@ -0,0 +1,124 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: MigrationThrottle
+ * @description: 本Region上所有迁移共用的令牌桶，按master给出的行数/秒和字节数/秒预算限速。
+ *               同时统计前台查询和写操作的延迟，延迟超过基线的migrationLatencyFactor倍时把速率减半，
+ *               恢复后逐步加回到预算
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class MigrationThrottle {
+    //速率最低降到预算的1/16
+    private static final double MIN_FRACTION = 1.0 / 16;
+    private static final double STEP = 0.1;
+    private static final long ADJUST_INTERVAL = 1000;
+
+    //预算，<=0表示不限速
+    private double rowsPerSec;
+    private double bytesPerSec;
+    //当前允许使用的预算比例
+    private double fraction = 1;
+    private double rowTokens;
+    private double byteTokens;
+    private long lastRefill = System.nanoTime();
+    private long lastAdjust = System.currentTimeMillis();
+
+    //前台延迟的指数移动平均和缓慢上浮的基线（毫秒）
+    private double latency = -1;
+    private double baseline = -1;
+
+    private long throttledMs;
+    private long slowdowns;
+
+    public synchronized void setBudget(double rowsPerSec, double bytesPerSec) {
+        this.rowsPerSec = rowsPerSec;
+        this.bytesPerSec = bytesPerSec;
+        rowTokens = Math.min(rowTokens, rowsPerSec);
+        byteTokens = Math.min(byteTokens, bytesPerSec);
+    }
+
+    /**
+     * 记录一次前台请求的耗时
+     */
+    public synchronized void recordForeground(long nanos) {
+        double ms = nanos / 1e6;
+        latency = latency < 0 ? ms : latency * 0.8 + ms * 0.2;
+        if (baseline < 0 || latency < baseline) {
+            baseline = latency;
+        } else {
+            baseline += (latency - baseline) * 0.001;
+        }
+    }
+
+    /**
+     * 发送一批之前调用，令牌不足时阻塞。令牌允许透支，一批超过桶容量时也能发送，之后的批次等待补足
+     */
+    public void acquire(int rows, long bytes) throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (this) {
+                refill();
+                adjust();
+                if ((rowsPerSec <= 0 || rowTokens >= 0) && (bytesPerSec <= 0 || byteTokens >= 0)) {
+                    if (rowsPerSec > 0) {
+                        rowTokens -= rows;
+                    }
+                    if (bytesPerSec > 0) {
+                        byteTokens -= bytes;
+                    }
+                    return;
+                }
+                double rowWait = rowsPerSec > 0 && rowTokens < 0 ? -rowTokens / (rowsPerSec * fraction) : 0;
+                double byteWait = bytesPerSec > 0 && byteTokens < 0 ? -byteTokens / (bytesPerSec * fraction) : 0;
+                wait = Math.max(1, Math.min(100, (long) (Math.max(rowWait, byteWait) * 1000)));
+                throttledMs += wait;
+            }
+            Thread.sleep(wait);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        lastRefill = now;
+        //桶容量为一秒的预算
+        if (rowsPerSec > 0) {
+            rowTokens = Math.min(rowsPerSec, rowTokens + seconds * rowsPerSec * fraction);
+        }
+        if (bytesPerSec > 0) {
+            byteTokens = Math.min(bytesPerSec, byteTokens + seconds * bytesPerSec * fraction);
+        }
+    }
+
+    private void adjust() {
+        long now = System.currentTimeMillis();
+        if (now - lastAdjust < ADJUST_INTERVAL) {
+            return;
+        }
+        lastAdjust = now;
+        if (latency >= 0 && latency > baseline * Configs.migrationLatencyFactor) {
+            fraction = Math.max(MIN_FRACTION, fraction / 2);
+            slowdowns++;
+        } else {
+            fraction = Math.min(1, fraction + STEP);
+        }
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("rowsPerSec", rowsPerSec);
+        json.put("bytesPerSec", bytesPerSec);
+        json.put("fraction", fraction);
+        json.put("foregroundLatencyMs", Math.max(0, latency));
+        json.put("baselineLatencyMs", Math.max(0, baseline));
+        json.put("throttledMs", throttledMs);
+        json.put("slowdowns", slowdowns);
+        return json;
+    }
+}
@@ -0,0 +1,214 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: OnlineMigration
+ * @description: 不停写的区间迁移。先记录区间内的写操作并全量拷贝，再多轮把拷贝期间被写过的主键按源上的当前状态
+ *               重放到目标（存在则REPLACE，不存在则删除），剩余的改动足够少时持有写锁做最后一轮重放并切换路由，
+ *               写操作只在切换期间被阻塞
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class OnlineMigration {
+    private static final Logger logger = LoggerFactory.getLogger(OnlineMigration.class);
+
+    /**
+     * 持有写锁时执行的路由切换
+     */
+    public interface Cutover {
+        void run() throws Exception;
+    }
+
+    private final DatabaseConnection databaseConnection;
+    private final HashBucketIndex bucketIndex;
+    private final MigrationThrottle throttle;
+    private final ChangeCapture changeCapture;
+    private final RestTemplate restTemplate;
+    private final String tableName;
+    private final String primaryName;
+    private final int start;
+    private final int end;
+    private final String targetAddr;
+    private final TransferProgress progress;
+
+    public OnlineMigration(DatabaseConnection databaseConnection, HashBucketIndex bucketIndex, MigrationThrottle throttle,
+                           ChangeCapture changeCapture, RestTemplate restTemplate, String tableName, String primaryName,
+                           int start, int end, String targetAddr, TransferProgress progress) {
+        this.databaseConnection = databaseConnection;
+        this.bucketIndex = bucketIndex;
+        this.throttle = throttle;
+        this.changeCapture = changeCapture;
+        this.restTemplate = restTemplate;
+        this.tableName = tableName;
+        this.primaryName = primaryName;
+        this.start = start;
+        this.end = end;
+        this.targetAddr = targetAddr;
+        this.progress = progress;
+    }
+
+    /**
+     * @param writeLock 源Region的写锁，持有期间没有正在执行的写操作
+     * @param cutover   最后一轮重放之后在写锁内切换路由
+     */
+    public void run(Object writeLock, Cutover cutover) throws Exception {
+        //1. 在写锁内开始记录，保证之后提交的写操作都被记录
+        synchronized (writeLock) {
+            changeCapture.start(tableName, start, end);
+        }
+        try {
+            new RangeTransfer(databaseConnection, bucketIndex, throttle, restTemplate, tableName, primaryName, start, end,
+                    FanoutClient.regionUrl(targetAddr, "insertBlock"), progress).run();
+            //2. 追赶拷贝期间的写操作，直到剩余的改动足够少
+            progress.phase("CATCH_UP");
+            for (int round = 0; round < Configs.migrationCatchUpRounds; round++) {
+                int replayed = replay();
+                logger.info("Catch-up round " + round + " of " + tableName + " replayed " + replayed + " keys");
+                if (replayed <= Configs.migrationCutoverKeys) {
+                    break;
+                }
+            }
+            //3. 阻塞写操作，重放最后的改动并切换路由。写锁内不做全量同步：最后一轮记录溢出时释放写锁，
+            //   在锁外重新同步后再尝试切换，多次都溢出则放弃迁移
+            progress.phase("CUTOVER");
+            long begin = 0;
+            for (int attempt = 0; ; attempt++) {
+                synchronized (writeLock) {
+                    ChangeCapture.Changes changes = changeCapture.drain(tableName);
+                    if (!changes.isOverflow()) {
+                        begin = System.currentTimeMillis();
+                        replay(changes);
+                        changeCapture.stop(tableName);
+                        cutover.run();
+                        break;
+                    }
+                }
+                if (attempt + 1 >= Configs.migrationCatchUpRounds) {
+                    throw new Exception("Untracked writes on " + tableName + " kept overflowing the change capture, abort migration of ["
+                            + start + "," + end + ")");
+                }
+                logger.info("Cut-over of " + tableName + " overflowed, resync outside the write lock and retry");
+                resync();
+            }
+            progress.cutover(System.currentTimeMillis() - begin);
+            logger.info("Cut over " + tableName + " [" + start + "," + end + ") to " + targetAddr + " in " + (System.currentTimeMillis() - begin) + "ms");
+        } finally {
+            changeCapture.stop(tableName);
+        }
+    }
+
+    /**
+     * 把记录的主键按源上的当前状态写到目标；无法确定影响范围时重新同步整个区间
+     *
+     * @return 重放的主键数
+     */
+    private int replay() throws Exception {
+        ChangeCapture.Changes changes = changeCapture.drain(tableName);
+        if (changes.isOverflow()) {
+            return resync();
+        }
+        return replay(changes);
+    }
+
+    /**
+     * 只重放记录到的主键，不处理溢出
+     */
+    private int replay(ChangeCapture.Changes changes) throws Exception {
+        List<String> keys = new ArrayList<>(changes.getKeys());
+        for (int i = 0; i < keys.size(); i += Configs.migrationBatchRows) {
+            List<String> batch = keys.subList(i, Math.min(keys.size(), i + Configs.migrationBatchRows));
+            Set<String> present = new HashSet<>();
+            RowBlockCodec.Builder rows = selectRows(batch, present);
+            if (rows != null && !rows.isEmpty()) {
+                byte[] block = rows.encode();
+                throttle.acquire(rows.size(), block.length);
+                RangeTransfer.sendBlock(restTemplate, FanoutClient.regionUrl(targetAddr, "insertBlock"), tableName, block);
+            }
+            List<String> deleted = new ArrayList<>();
+            for (String key : batch) {
+                if (!present.contains(key)) {
+                    deleted.add(key);
+                }
+            }
+            deleteOnTarget(deleted);
+            progress.replayed(batch.size());
+        }
+        return keys.size();
+    }
+
+    /**
+     * 重新拷贝整个区间，并删除目标上源已经不存在的行
+     */
+    private int resync() throws Exception {
+        logger.info("Untracked writes on " + tableName + " during migration, resync range [" + start + "," + end + ")");
+        List<String> sent = new RangeTransfer(databaseConnection, bucketIndex, throttle, restTemplate, tableName, primaryName, start, end,
+                FanoutClient.regionUrl(targetAddr, "insertBlock"), progress).run();
+        JSONObject params = new JSONObject();
+        params.put("tableName", tableName);
+        params.put("primaryName", primaryName);
+        params.put("start", start);
+        params.put("end", end);
+        Set<String> present = new HashSet<>(sent);
+        List<String> deleted = new ArrayList<>();
+        for (Object key : post("rangeKeys", params).getJSONArray("keys")) {
+            if (!present.contains(String.valueOf(key))) {
+                deleted.add(String.valueOf(key));
+            }
+        }
+        deleteOnTarget(deleted);
+        return sent.size() + deleted.size();
+    }
+
+    /**
+     * @return 这些主键在源上的当前行，present中记录仍然存在的主键
+     */
+    private RowBlockCodec.Builder selectRows(List<String> keys, Set<String> present) throws SQLException {
+        try (Connection conn = databaseConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT * FROM " + tableName + " WHERE " + primaryName + " IN ("
+                     + String.join(",", Collections.nCopies(keys.size(), "?")) + ")")) {
+            for (int i = 0; i < keys.size(); i++) {
+                ps.setString(i + 1, keys.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                int primaryIndex = RangeTransfer.primaryIndex(rs.getMetaData(), primaryName);
+                RowBlockCodec.Builder rows = RowBlockCodec.Builder.of(rs.getMetaData());
+                while (rs.next()) {
+                    present.add(rs.getString(primaryIndex));
+                    rows.add(rs);
+                }
+                return rows;
+            }
+        }
+    }
+
+    private void deleteOnTarget(List<String> keys) throws Exception {
+        for (int i = 0; i < keys.size(); i += Configs.migrationBatchRows) {
+            JSONObject params = new JSONObject();
+            params.put("tableName", tableName);
+            params.put("primaryName", primaryName);
+            params.put("keys", keys.subList(i, Math.min(keys.size(), i + Configs.migrationBatchRows)));
+            post("deleteRows", params);
+        }
+    }
+
+    private JSONObject post(String type, JSONObject params) throws Exception {
+        JSONObject res = restTemplate.postForObject(FanoutClient.regionUrl(targetAddr, type), params, JSONObject.class);
+        if (res == null || !"200".equals(res.getString("status"))) {
+            throw new Exception("Target rejected " + type + ": " + (res == null ? "no response" : res.getString("msg")));
+        }
+        return res;
+    }
+}
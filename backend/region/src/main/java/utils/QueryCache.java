@@ -0,0 +1,298 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: QueryCache
+ * @description: 查询结果缓存。以规范化后的SQL为键，缓存项记录查询时涉及的每张表的写版本，
+ *               任何一张表被写过之后缓存项即失效；按字节数限制大小，LRU淘汰并用TinyLFU决定是否接纳新项
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class QueryCache {
+
+    private static final Pattern TABLE = Pattern.compile("\\b(?:FROM|JOIN)\\s+`?(\\w+)`?", Pattern.CASE_INSENSITIVE);
+
+    private final long maxBytes;
+    //按访问顺序排列，头部是最久未访问的项
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch = new FrequencySketch(4096);
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 去掉末尾的分号，把引号外连续的空白合并为一个空格
+     */
+    public static String normalize(String sql) {
+        String s = sql.trim();
+        while (s.endsWith(";")) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == '\\' && i + 1 < s.length()) {
+                    sb.append(s.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 查询涉及的表：请求中的表以及SQL中FROM/JOIN之后的表
+     */
+    public static Set<String> tablesOf(String tableName, String sql) {
+        Set<String> tables = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        if (tableName != null) {
+            tables.add(tableName);
+        }
+        Matcher m = TABLE.matcher(sql);
+        while (m.find()) {
+            tables.add(m.group(1));
+        }
+        return tables;
+    }
+
+    /**
+     * 表被写之后调用，使涉及该表的缓存项失效
+     */
+    public void bump(String tableName) {
+        versions.computeIfAbsent(tableName.toUpperCase(Locale.ROOT), k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * 清空所有缓存项（例如slave从master全量拷贝之后）
+     */
+    public synchronized void invalidateAll() {
+        for (AtomicLong version : versions.values()) {
+            version.incrementAndGet();
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * 查询前读取涉及的表的当前版本，查询结束后与结果一起放入缓存
+     */
+    public Map<String, Long> versionsOf(Set<String> tables) {
+        Map<String, Long> snapshot = new HashMap<>();
+        for (String table : tables) {
+            String key = table.toUpperCase(Locale.ROOT);
+            snapshot.put(key, versions.computeIfAbsent(key, k -> new AtomicLong()).get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return 缓存的结果，不存在或者涉及的表已经被写过时返回null
+     */
+    public synchronized JSONObject get(String key) {
+        sketch.increment(key);
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (!isCurrent(entry)) {
+            remove(key, entry);
+            stale.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * 放入查询结果。空间不足时从最久未访问的项开始淘汰，但只有新项的访问频率高于所有被淘汰的项时才接纳
+     *
+     * @param versions 查询前读取的表版本
+     */
+    public synchronized void put(String key, JSONObject value, Map<String, Long> versions) {
+        CacheEntry entry = new CacheEntry(value, versions, estimateSize(key, value));
+        if (!isCurrent(entry) || entry.size > maxBytes / 4) {
+            rejected.incrementAndGet();
+            return;
+        }
+        CacheEntry old = entries.get(key);
+        if (old != null) {
+            remove(key, old);
+        }
+        if (bytes + entry.size > maxBytes) {
+            List<Map.Entry<String, CacheEntry>> victims = new ArrayList<>();
+            long freed = 0;
+            int frequency = sketch.frequency(key);
+            for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+                if (bytes - freed + entry.size <= maxBytes) {
+                    break;
+                }
+                //已经失效的项直接淘汰，不参与频率比较
+                if (isCurrent(e.getValue()) && sketch.frequency(e.getKey()) >= frequency) {
+                    rejected.incrementAndGet();
+                    return;
+                }
+                victims.add(e);
+                freed += e.getValue().size;
+            }
+            for (Map.Entry<String, CacheEntry> victim : victims) {
+                remove(victim.getKey(), victim.getValue());
+                evictions.incrementAndGet();
+            }
+        }
+        entries.put(key, entry);
+        bytes += entry.size;
+        puts.incrementAndGet();
+    }
+
+    private void remove(String key, CacheEntry entry) {
+        entries.remove(key);
+        bytes -= entry.size;
+    }
+
+    private boolean isCurrent(CacheEntry entry) {
+        for (Map.Entry<String, Long> version : entry.versions.entrySet()) {
+            AtomicLong current = versions.get(version.getKey());
+            if (current == null || current.get() != version.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 粗略估计缓存项占用的字节数：字符串按每字符2字节计算，加上固定开销
+     */
+    private static long estimateSize(String key, JSONObject value) {
+        long size = 64 + 2L * key.length();
+        for (Map.Entry<String, Object> e : value.entrySet()) {
+            size += 48 + 2L * e.getKey().length() + 2L * String.valueOf(e.getValue()).length();
+        }
+        return size;
+    }
+
+    public synchronized JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount));
+        stats.put("stale", stale.get());
+        stats.put("puts", puts.get());
+        stats.put("rejected", rejected.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private static class CacheEntry {
+        private final JSONObject value;
+        private final Map<String, Long> versions;
+        private final long size;
+
+        CacheEntry(JSONObject value, Map<String, Long> versions, long size) {
+            this.value = value;
+            this.versions = versions;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Count-Min Sketch估计访问频率，计数上限15；累计访问次数达到阈值后所有计数减半，使旧的热点逐渐冷却
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final long[] SEEDS = {0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0x27d4eb2f165667c5L};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int width) {
+            int w = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+            this.table = new byte[DEPTH][w];
+            this.mask = w - 1;
+            this.sampleSize = 10 * w;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int i = 0; i < DEPTH; i++) {
+                int index = index(hash, i);
+                if (table[i][index] < 15) {
+                    table[i][index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h ^= h >>> 32;
+            return (int) h & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
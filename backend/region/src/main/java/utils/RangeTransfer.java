@@ -0,0 +1,308 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: RangeTransfer
+ * @description: 把一张表中主键哈希落在[start, end)内的行迁移到目标Region。用服务端游标扫描一遍表（有路由哈希列时只扫描区间），
+ *               符合条件的行按行数和字节数组成有界的批次并编码为RowBlockCodec块，经有界队列交给发送线程写到目标的/insertBlock，
+ *               发送线程按块的传输字节数由MigrationThrottle限速，发送跟不上时扫描会阻塞。
+ *               设置了检查点时按migrationSliceHashes把区间切片，每片发送完后记录行数和行摘要之和；
+ *               重试同一个区间时，源和目标都与检查点一致的切片直接跳过，其余切片清空目标后重新发送
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class RangeTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(RangeTransfer.class);
+
+    private static final Batch END = new Batch();
+
+    private final DatabaseConnection databaseConnection;
+    private final HashBucketIndex bucketIndex;
+    private final MigrationThrottle throttle;
+    private final RestTemplate restTemplate;
+    private final String tableName;
+    private final String primaryName;
+    private final int start;
+    private final int end;
+    private final String targetUrl;
+    private final TransferProgress progress;
+    private CopyCheckpoint checkpoint;
+    private String targetAddr;
+
+    public RangeTransfer(DatabaseConnection databaseConnection, HashBucketIndex bucketIndex, MigrationThrottle throttle, RestTemplate restTemplate, String tableName, String primaryName,
+                         int start, int end, String targetUrl, TransferProgress progress) {
+        this.databaseConnection = databaseConnection;
+        this.bucketIndex = bucketIndex;
+        this.throttle = throttle;
+        this.restTemplate = restTemplate;
+        this.tableName = tableName;
+        this.primaryName = primaryName;
+        this.start = start;
+        this.end = end;
+        this.targetUrl = targetUrl;
+        this.progress = progress;
+    }
+
+    /**
+     * 按切片记录检查点，中断后用同一个检查点重试时从未完成的切片继续
+     *
+     * @param targetAddr 目标Region的地址，用于比较和清理目标上的切片
+     */
+    public RangeTransfer resumable(CopyCheckpoint checkpoint, String targetAddr) {
+        this.checkpoint = checkpoint;
+        this.targetAddr = targetAddr;
+        return this;
+    }
+
+    /**
+     * @return 已经写到目标的行的主键
+     */
+    public List<String> run() throws Exception {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(Math.max(1, Configs.migrationQueueBatches));
+        List<String> keys = new ArrayList<>();
+        List<String> skippedKeys = new ArrayList<>();
+        ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "transfer-" + tableName);
+            t.setDaemon(true);
+            return t;
+        });
+        //发送失败时Future.get()抛出ExecutionException
+        Future<?> sending = sender.submit(() -> {
+            while (true) {
+                Batch batch = queue.take();
+                if (batch == END) {
+                    return null;
+                }
+                if (batch.block == null) {
+                    //切片的所有批次都已写到目标
+                    checkpoint.done(batch.slice);
+                    continue;
+                }
+                throttle.acquire(batch.rows, batch.block.length);
+                send(batch);
+                keys.addAll(batch.keys);
+                if (batch.slice != null) {
+                    checkpoint.advance(batch.slice, null, batch.rows, batch.sum);
+                }
+            }
+        });
+        try {
+            if (checkpoint == null) {
+                scan(queue, sending, start, end, null);
+            } else {
+                for (CopyCheckpoint.Chunk slice : slices()) {
+                    int from = Integer.parseInt(slice.getLower());
+                    int to = Integer.parseInt(slice.getUpper());
+                    if (prepareResume(slice, from, to)) {
+                        skippedKeys.addAll(bucketIndex.keysInRange(tableName, primaryName, from, to));
+                        progress.skipped();
+                        continue;
+                    }
+                    scan(queue, sending, from, to, slice);
+                    put(queue, new Batch(slice), sending);
+                }
+            }
+            put(queue, END, sending);
+            sending.get();
+        } catch (IllegalStateException e) {
+            //发送线程失败导致扫描停止，报告发送线程的错误
+            if (sending.isDone()) {
+                sending.get();
+            }
+            throw e;
+        } finally {
+            sending.cancel(true);
+            sender.shutdownNow();
+        }
+        keys.addAll(skippedKeys);
+        return keys;
+    }
+
+    /**
+     * @return 检查点中的切片，第一次迁移该区间时新建
+     */
+    private List<CopyCheckpoint.Chunk> slices() {
+        List<CopyCheckpoint.Chunk> slices = checkpoint.get(tableName);
+        if (slices != null) {
+            return slices;
+        }
+        slices = new ArrayList<>();
+        int width = Math.max(1, Configs.migrationSliceHashes);
+        for (long from = start; from < end; from += width) {
+            slices.add(new CopyCheckpoint.Chunk(String.valueOf(from), String.valueOf(Math.min(end, from + width))));
+        }
+        checkpoint.put(tableName, slices);
+        return slices;
+    }
+
+    /**
+     * 续传前检查切片：已完成且源和目标都与检查点一致时跳过；否则清空目标上的该切片，整片重新发送
+     *
+     * @return 切片是否可以跳过
+     */
+    private boolean prepareResume(CopyCheckpoint.Chunk slice, int from, int to) throws Exception {
+        if (!checkpoint.isResumed()) {
+            return false;
+        }
+        JSONObject params = new JSONObject();
+        params.put("tableName", tableName);
+        params.put("primaryName", primaryName);
+        params.put("start", from);
+        params.put("end", to);
+        JSONObject target = post("rangeChecksum", params);
+        long targetRows = target.getLongValue("rows");
+        if (slice.isDone() && targetRows == slice.getRows() && target.getLongValue("sum") == slice.getSum()) {
+            long[] source = bucketIndex.rangeChecksum(tableName, primaryName, from, to);
+            if (source[0] == slice.getRows() && source[1] == slice.getSum()) {
+                return true;
+            }
+        }
+        if (targetRows > 0) {
+            List<String> stale = post("rangeKeys", params).getJSONArray("keys").toJavaList(String.class);
+            for (int i = 0; i < stale.size(); i += Configs.migrationBatchRows) {
+                JSONObject delete = new JSONObject();
+                delete.put("tableName", tableName);
+                delete.put("primaryName", primaryName);
+                delete.put("keys", stale.subList(i, Math.min(stale.size(), i + Configs.migrationBatchRows)));
+                post("deleteRows", delete);
+            }
+        }
+        checkpoint.reset(slice);
+        return false;
+    }
+
+    private JSONObject post(String type, JSONObject params) throws Exception {
+        JSONObject res = restTemplate.postForObject(FanoutClient.regionUrl(targetAddr, type), params, JSONObject.class);
+        if (res == null || !"200".equals(res.getString("status"))) {
+            throw new Exception("Target rejected " + type + ": " + (res == null ? "no response" : res.getString("msg")));
+        }
+        return res;
+    }
+
+    private void scan(BlockingQueue<Batch> queue, Future<?> sending, int from, int to, CopyCheckpoint.Chunk slice) throws SQLException {
+        //有路由哈希列时只扫描区间内的索引范围，仍然逐行检查哈希
+        String sql = "SELECT * FROM " + tableName;
+        if (bucketIndex.ensure(tableName)) {
+            sql += " WHERE " + HashBucketIndex.rangeCondition(from, to);
+        }
+        databaseConnection.stream(sql, Configs.queryFetchSize, rs -> {
+            int primaryIndex = primaryIndex(rs.getMetaData(), primaryName);
+            int columns = rs.getMetaData().getColumnCount();
+            RowBlockCodec.Builder builder = RowBlockCodec.Builder.of(rs.getMetaData());
+            List<String> keys = new ArrayList<>();
+            long sum = 0;
+            while (rs.next()) {
+                progress.scanned();
+                String key = rs.getString(primaryIndex);
+                int hash = Configs.hash(String.valueOf(key));
+                if (hash < from || hash >= to) {
+                    continue;
+                }
+                builder.add(rs);
+                keys.add(key);
+                if (slice != null) {
+                    sum += TableDigest.rowHash(rs, columns);
+                }
+                if (builder.size() >= Configs.migrationBatchRows || builder.bytes() >= Configs.migrationBatchBytes) {
+                    put(queue, new Batch(builder, keys, slice, sum), sending);
+                    builder = RowBlockCodec.Builder.of(rs.getMetaData());
+                    keys = new ArrayList<>();
+                    sum = 0;
+                }
+            }
+            if (!builder.isEmpty()) {
+                put(queue, new Batch(builder, keys, slice, sum), sending);
+            }
+            return null;
+        });
+    }
+
+    static int primaryIndex(ResultSetMetaData meta, String primaryName) throws SQLException {
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            if (meta.getColumnName(i).equalsIgnoreCase(primaryName)) {
+                return i;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * 把一个块写到目标Region的/insertBlock
+     */
+    static void sendBlock(RestTemplate restTemplate, String url, String tableName, byte[] block) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        JSONObject res = restTemplate.postForObject(url + "?tableName=" + tableName, new HttpEntity<>(block, headers), JSONObject.class);
+        if (res == null || !"200".equals(res.getString("status"))) {
+            throw new Exception("Target rejected block: " + (res == null ? "no response" : res.getString("msg")));
+        }
+    }
+
+    /**
+     * 队列满时阻塞，发送线程失败时停止扫描
+     */
+    private void put(BlockingQueue<Batch> queue, Batch batch, Future<?> sending) {
+        try {
+            while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (sending.isDone()) {
+                    throw new IllegalStateException("sender stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted");
+        }
+    }
+
+    private void send(Batch batch) throws Exception {
+        sendBlock(restTemplate, targetUrl, tableName, batch.block);
+        progress.sent(batch.rows, batch.block.length);
+        logger.info("Transferred " + progress.getSentRows() + " rows of " + tableName + " to " + targetUrl);
+    }
+
+    private static class Batch {
+        private final byte[] block;
+        private final int rows;
+        private final List<String> keys;
+        private final CopyCheckpoint.Chunk slice;
+        private final long sum;
+
+        Batch() {
+            this(null);
+        }
+
+        //切片结束的标记
+        Batch(CopyCheckpoint.Chunk slice) {
+            this.block = null;
+            this.rows = 0;
+            this.keys = null;
+            this.slice = slice;
+            this.sum = 0;
+        }
+
+        //在扫描线程中编码，发送线程只负责传输
+        Batch(RowBlockCodec.Builder builder, List<String> keys, CopyCheckpoint.Chunk slice, long sum) {
+            this.block = builder.encode();
+            this.rows = builder.size();
+            this.keys = keys;
+            this.slice = slice;
+            this.sum = sum;
+        }
+    }
+}
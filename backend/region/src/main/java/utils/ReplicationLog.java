@@ -0,0 +1,278 @@
+package utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: ReplicationLog
+ * @description: Region内写操作的复制日志。master为每条写操作分配递增的序号，slave按序号顺序执行并确认；
+ *               日志持久化在本地磁盘，所有slave确认后截断
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class ReplicationLog {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationLog.class);
+
+    //累计截断这么多条后才重写日志文件
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    private final Path logFile;
+    //日志的标识，master切换后新master沿用，用于判断slave的序号是否有意义
+    private String logId;
+    //序号<=baseSeq的日志已经被截断
+    private long baseSeq;
+    //最后一条追加（master）或执行（slave）的日志序号
+    private long lastSeq;
+    private final TreeMap<Long, Entry> entries = new TreeMap<>();
+    private final Map<String, Long> slaveAcks = new ConcurrentHashMap<>();
+    private int truncatedSinceCompact;
+    private Writer writer;
+    private FileOutputStream out;
+
+    public ReplicationLog(String dataDir) {
+        this.logFile = Paths.get(dataDir, "replication.log");
+    }
+
+    /**
+     * 从磁盘加载日志，不存在则新建
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(logFile.getParent());
+        logId = UUID.randomUUID().toString();
+        baseSeq = 0;
+        if (Files.exists(logFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                String line = reader.readLine();
+                if (line != null) {
+                    JSONObject header = JSON.parseObject(line);
+                    logId = header.getString("logId");
+                    baseSeq = header.getLongValue("baseSeq");
+                }
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty())
+                        continue;
+                    try {
+                        Entry entry = Entry.fromJSON(JSON.parseObject(line));
+                        if (entry.getSeq() > baseSeq)
+                            entries.put(entry.getSeq(), entry);
+                    } catch (Exception e) {
+                        //最后一行可能因为宕机只写了一半
+                        logger.warn("Skip broken replication log line: " + line);
+                    }
+                }
+            }
+        }
+        lastSeq = entries.isEmpty() ? baseSeq : entries.lastKey();
+        rewrite();
+        logger.info("Replication log " + logId + " opened, base " + baseSeq + ", last " + lastSeq);
+    }
+
+    /**
+     * master追加一条新的写操作
+     */
+    public synchronized Entry append(String type, String tableName, List<String> sqlList, Long digest) throws IOException {
+        Entry entry = new Entry(lastSeq + 1, type, tableName, sqlList, digest);
+        write(entry);
+        return entry;
+    }
+
+    /**
+     * slave执行完master的日志后追加到本地日志
+     */
+    public synchronized void appendReplicated(Entry entry) throws IOException {
+        if (entry.getSeq() != lastSeq + 1) {
+            throw new IllegalStateException("Replication log expects " + (lastSeq + 1) + " but got " + entry.getSeq());
+        }
+        write(entry);
+    }
+
+    private void write(Entry entry) throws IOException {
+        writer.write(entry.toJSON().toJSONString());
+        writer.write("\n");
+        writer.flush();
+        out.getChannel().force(false);
+        entries.put(entry.getSeq(), entry);
+        lastSeq = entry.getSeq();
+    }
+
+    /**
+     * @return 序号在[from, to]之间且尚未截断的日志，from已被截断时返回null
+     */
+    public synchronized List<Entry> entriesBetween(long from, long to) {
+        if (from <= baseSeq) {
+            return null;
+        }
+        return new ArrayList<>(entries.subMap(from, true, to, true).values());
+    }
+
+    public void ack(String slave, long seq) {
+        slaveAcks.merge(slave, seq, Math::max);
+    }
+
+    /**
+     * 截断当前所有slave都已确认的日志，最近的replicationRetainEntries条保留给重新加入的slave追赶
+     *
+     * @param slaves 当前Region内的slave
+     */
+    public synchronized void truncateAcked(List<String> slaves) {
+        if (slaves == null || slaves.isEmpty()) {
+            return;
+        }
+        slaveAcks.keySet().retainAll(slaves);
+        long minAck = Long.MAX_VALUE;
+        for (String slave : slaves) {
+            minAck = Math.min(minAck, slaveAcks.getOrDefault(slave, 0L));
+        }
+        truncate(Math.min(minAck, lastSeq - Configs.replicationRetainEntries));
+    }
+
+    /**
+     * 截断序号<=seq的日志
+     */
+    public synchronized void truncate(long seq) {
+        seq = Math.min(seq, lastSeq);
+        if (seq <= baseSeq) {
+            return;
+        }
+        SortedMap<Long, Entry> truncated = entries.headMap(seq, true);
+        truncatedSinceCompact += truncated.size();
+        truncated.clear();
+        baseSeq = seq;
+        if (truncatedSinceCompact >= COMPACT_THRESHOLD) {
+            try {
+                rewrite();
+            } catch (IOException e) {
+                logger.error("Failed to compact replication log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 丢弃本地日志，从指定日志的指定位置开始（slave从master全量拷贝数据之后调用）
+     */
+    public synchronized void reset(String logId, long seq) throws IOException {
+        this.logId = logId;
+        this.baseSeq = seq;
+        this.lastSeq = seq;
+        entries.clear();
+        slaveAcks.clear();
+        rewrite();
+        logger.info("Replication log reset to " + logId + " at " + seq);
+    }
+
+    /**
+     * 用header加保留的日志重写日志文件
+     */
+    private void rewrite() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        Path tmp = Paths.get(logFile.toString() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            JSONObject header = new JSONObject();
+            header.put("logId", logId);
+            header.put("baseSeq", baseSeq);
+            w.write(header.toJSONString());
+            w.write("\n");
+            for (Entry entry : entries.values()) {
+                w.write(entry.toJSON().toJSONString());
+                w.write("\n");
+            }
+        }
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = new FileOutputStream(logFile.toFile(), true);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        truncatedSinceCompact = 0;
+    }
+
+    public synchronized String getLogId() {
+        return logId;
+    }
+
+    public synchronized long getBaseSeq() {
+        return baseSeq;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public synchronized void close() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to close replication log: " + e.getMessage());
+        }
+    }
+
+    public static class Entry {
+        private final long seq;
+        private final String type;
+        private final String tableName;
+        private final List<String> sqlList;
+        //master执行完这条日志后表的摘要，摘要不可用时为null
+        private final Long digest;
+
+        public Entry(long seq, String type, String tableName, List<String> sqlList, Long digest) {
+            this.seq = seq;
+            this.type = type;
+            this.tableName = tableName;
+            this.sqlList = sqlList;
+            this.digest = digest;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public List<String> getSqlList() {
+            return sqlList;
+        }
+
+        public Long getDigest() {
+            return digest;
+        }
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("seq", seq);
+            json.put("type", type);
+            json.put("tableName", tableName);
+            JSONArray sqls = new JSONArray();
+            sqls.addAll(sqlList);
+            json.put("sqlList", sqls);
+            json.put("digest", digest);
+            return json;
+        }
+
+        public static Entry fromJSON(JSONObject json) {
+            return new Entry(json.getLongValue("seq"), json.getString("type"), json.getString("tableName"),
+                    json.getJSONArray("sqlList").toJavaList(String.class), json.getLong("digest"));
+        }
+    }
+}
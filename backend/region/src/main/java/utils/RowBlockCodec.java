@@ -0,0 +1,404 @@
+package utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: RowBlockCodec
+ * @description: Region之间传输行的二进制块格式。块头为魔数、标志、原始长度、负载长度和原始负载的CRC32，
+ *               负载依次是列名和列类型、行数、每行的空值位图和非空值；整数按zigzag变长编码，浮点数8字节，
+ *               字符串和二进制按变长长度前缀。负载超过transferCompressMinBytes时用Deflater压缩
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class RowBlockCodec {
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final int MAGIC = 0x52424B31; // "RBK1"
+    private static final int FLAG_DEFLATE = 1;
+
+    public static final byte LONG = 1;
+    public static final byte DOUBLE = 2;
+    public static final byte STRING = 3;
+    public static final byte BYTES = 4;
+
+    private RowBlockCodec() {
+    }
+
+    /**
+     * 解码后的块
+     */
+    public static class Block {
+        private final List<String> columns;
+        private final byte[] types;
+        private final List<List<Object>> rows;
+
+        Block(List<String> columns, byte[] types, List<List<Object>> rows) {
+            this.columns = columns;
+            this.types = types;
+            this.rows = rows;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public byte[] getTypes() {
+            return types;
+        }
+
+        /**
+         * @return 每行的值为Long、Double、String、byte[]或null
+         */
+        public List<List<Object>> getRows() {
+            return rows;
+        }
+    }
+
+    /**
+     * 按行追加并编码为一个块，行直接写入缓冲区，不保留中间对象
+     */
+    public static class Builder {
+        private final List<String> columns;
+        private final byte[] types;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(buffer);
+        private int rows;
+
+        public Builder(List<String> columns, byte[] types) {
+            this.columns = columns;
+            this.types = types;
+        }
+
+        /**
+         * 按JDBC列类型选择编码：整数（无符号BIGINT除外）按整数、浮点数按双精度、二进制按字节，其余按字符串
+         */
+        public static Builder of(ResultSetMetaData meta) throws SQLException {
+            int count = meta.getColumnCount();
+            List<String> columns = new ArrayList<>(count);
+            byte[] types = new byte[count];
+            for (int i = 1; i <= count; i++) {
+                columns.add(meta.getColumnName(i));
+                types[i - 1] = typeOf(meta.getColumnType(i), meta.isSigned(i));
+            }
+            return new Builder(columns, types);
+        }
+
+        /**
+         * 所有列都按字符串编码
+         */
+        public static Builder ofStrings(List<String> columns) {
+            byte[] types = new byte[columns.size()];
+            Arrays.fill(types, STRING);
+            return new Builder(columns, types);
+        }
+
+        /**
+         * 追加结果集的当前行
+         *
+         * @return 编码后的字节数
+         */
+        public long add(ResultSet rs) throws SQLException {
+            int before = buffer.size();
+            try {
+                byte[] nulls = new byte[(types.length + 7) / 8];
+                Object[] values = new Object[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    switch (types[i]) {
+                        case LONG:
+                            long l = rs.getLong(i + 1);
+                            values[i] = rs.wasNull() ? null : l;
+                            break;
+                        case DOUBLE:
+                            double d = rs.getDouble(i + 1);
+                            values[i] = rs.wasNull() ? null : d;
+                            break;
+                        case BYTES:
+                            values[i] = rs.getBytes(i + 1);
+                            break;
+                        default:
+                            values[i] = rs.getString(i + 1);
+                    }
+                    if (values[i] == null) {
+                        nulls[i / 8] |= (byte) (1 << (i % 8));
+                    }
+                }
+                writeRow(nulls, values);
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+            return buffer.size() - before;
+        }
+
+        /**
+         * 追加一行，值的类型需与列类型一致
+         *
+         * @return 编码后的字节数
+         */
+        public long add(Object[] row) {
+            int before = buffer.size();
+            byte[] nulls = new byte[(types.length + 7) / 8];
+            for (int i = 0; i < types.length; i++) {
+                if (row[i] == null) {
+                    nulls[i / 8] |= (byte) (1 << (i % 8));
+                }
+            }
+            try {
+                writeRow(nulls, row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return buffer.size() - before;
+        }
+
+        private void writeRow(byte[] nulls, Object[] values) throws IOException {
+            out.write(nulls);
+            for (int i = 0; i < types.length; i++) {
+                Object value = values[i];
+                if (value == null) {
+                    continue;
+                }
+                switch (types[i]) {
+                    case LONG:
+                        writeVarLong(out, zigzag(((Number) value).longValue()));
+                        break;
+                    case DOUBLE:
+                        out.writeDouble(((Number) value).doubleValue());
+                        break;
+                    case BYTES:
+                        writeBytes(out, (byte[]) value);
+                        break;
+                    default:
+                        writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            rows++;
+        }
+
+        public int size() {
+            return rows;
+        }
+
+        public boolean isEmpty() {
+            return rows == 0;
+        }
+
+        /**
+         * @return 目前行数据的字节数
+         */
+        public long bytes() {
+            return buffer.size();
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public byte[] encode() {
+            try {
+                ByteArrayOutputStream raw = new ByteArrayOutputStream(buffer.size() + 64 * columns.size());
+                DataOutputStream payload = new DataOutputStream(raw);
+                writeVarLong(payload, columns.size());
+                for (int i = 0; i < columns.size(); i++) {
+                    writeBytes(payload, columns.get(i).getBytes(StandardCharsets.UTF_8));
+                    payload.writeByte(types[i]);
+                }
+                writeVarLong(payload, rows);
+                buffer.writeTo(payload);
+                return frame(raw.toByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public static Block decode(byte[] data) throws IOException {
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a row block");
+        }
+        int flags = header.readByte();
+        int rawLength = header.readInt();
+        int payloadLength = header.readInt();
+        long checksum = header.readLong();
+        int offset = 4 + 1 + 4 + 4 + 8;
+        if (data.length != offset + payloadLength) {
+            throw new IOException("Truncated row block");
+        }
+        byte[] raw;
+        if ((flags & FLAG_DEFLATE) != 0) {
+            raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, offset, payloadLength);
+                int inflated = 0;
+                while (inflated < rawLength && !inflater.finished()) {
+                    int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+                if (inflated != rawLength) {
+                    throw new IOException("Corrupted row block");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted row block", e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            raw = Arrays.copyOfRange(data, offset, offset + payloadLength);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        if (crc.getValue() != checksum) {
+            throw new IOException("Row block checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        int count = (int) readVarLong(in);
+        List<String> columns = new ArrayList<>(count);
+        byte[] types = new byte[count];
+        for (int i = 0; i < count; i++) {
+            columns.add(new String(readBytes(in), StandardCharsets.UTF_8));
+            types[i] = in.readByte();
+        }
+        int rowCount = (int) readVarLong(in);
+        List<List<Object>> rows = new ArrayList<>(rowCount);
+        byte[] nulls = new byte[(count + 7) / 8];
+        for (int r = 0; r < rowCount; r++) {
+            in.readFully(nulls);
+            List<Object> row = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if ((nulls[i / 8] & (1 << (i % 8))) != 0) {
+                    row.add(null);
+                    continue;
+                }
+                switch (types[i]) {
+                    case LONG:
+                        long v = readVarLong(in);
+                        row.add((v >>> 1) ^ -(v & 1));
+                        break;
+                    case DOUBLE:
+                        row.add(in.readDouble());
+                        break;
+                    case BYTES:
+                        row.add(readBytes(in));
+                        break;
+                    default:
+                        row.add(new String(readBytes(in), StandardCharsets.UTF_8));
+                }
+            }
+            rows.add(row);
+        }
+        return new Block(columns, types, rows);
+    }
+
+    private static byte[] frame(byte[] raw) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        byte[] payload = raw;
+        int flags = 0;
+        if (Configs.transferCompression && raw.length >= Configs.transferCompressMinBytes) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2);
+                byte[] chunk = new byte[8192];
+                while (!deflater.finished()) {
+                    compressed.write(chunk, 0, deflater.deflate(chunk));
+                }
+                //压缩后没有变小时按原样发送
+                if (compressed.size() < raw.length) {
+                    payload = compressed.toByteArray();
+                    flags |= FLAG_DEFLATE;
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(payload.length + 21);
+        DataOutputStream out = new DataOutputStream(framed);
+        out.writeInt(MAGIC);
+        out.writeByte(flags);
+        out.writeInt(raw.length);
+        out.writeInt(payload.length);
+        out.writeLong(crc.getValue());
+        out.write(payload);
+        return framed.toByteArray();
+    }
+
+    private static byte typeOf(int sqlType, boolean signed) {
+        switch (sqlType) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return LONG;
+            case Types.BIGINT:
+                return signed ? LONG : STRING;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return BYTES;
+            default:
+                return STRING;
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,56 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: ServerLoad
+ * @description: 本Server前台查询的负载：正在执行的请求数、延迟的指数移动平均和失败次数，
+ *               由master定期拉取，用于在Region内选择处理查询的slave
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class ServerLoad {
+    private static final double ALPHA = 0.2;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    //延迟的指数移动平均（毫秒），-1表示还没有请求
+    private double latency = -1;
+
+    public void begin() {
+        inflight.incrementAndGet();
+    }
+
+    /**
+     * 请求结束时调用，与begin()成对出现
+     */
+    public void end(long nanos, boolean ok) {
+        inflight.decrementAndGet();
+        requests.incrementAndGet();
+        if (!ok) {
+            failures.incrementAndGet();
+        }
+        double ms = nanos / 1e6;
+        synchronized (this) {
+            latency = latency < 0 ? ms : latency * (1 - ALPHA) + ms * ALPHA;
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("inflight", inflight.get());
+        synchronized (this) {
+            json.put("latencyMs", latency);
+        }
+        json.put("requests", requests.get());
+        json.put("failures", failures.get());
+        return json;
+    }
+}
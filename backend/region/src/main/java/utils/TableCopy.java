@@ -4,6 +4,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @projectName: region
@@ -22,6 +25,8 @@ public class TableCopy {
 
     private final String sourceTable;
     private final String targetTable;
+    //chunks()读出的主键名，null表示没有主键
+    private String primaryName;
 
     public TableCopy(DatabaseConnection sourceDataSource, DatabaseConnection targetDataSource, String sourceTable, String targetTable){
         this.sourceDataSource = sourceDataSource;
@@ -30,37 +35,234 @@ public class TableCopy {
         this.targetTable = targetTable;
     }
 
+    /**
+     * 在目标数据库创建表并按主键分块依次拷贝
+     */
     public void copy(){
+        CopyProgress progress = new CopyProgress();
         try{
-            Connection sourceConnection = sourceDataSource.getConnection();
-            Connection targetConnection = targetDataSource.getConnection();
-            //先在目标数据库创建表结构
-            PreparedStatement sourceStmt = sourceConnection.prepareStatement("SELECT * FROM " + sourceTable);
-            ResultSet rs = sourceStmt.executeQuery();
-            ResultSetMetaData rsmeta = rs.getMetaData();
+            if(!createTable())
+                return;
+            List<CopyCheckpoint.Chunk> chunks = chunks();
+            progress.table(chunks.size());
+            for(CopyCheckpoint.Chunk chunk : chunks)
+                copyChunk(chunk, progress, null);
+        }catch (Exception e){
+            e.printStackTrace();
+            logger.info("Failed to copy data from " + sourceTable + " to " + targetTable);
+        }
+        progress.finish();
+    }
 
-            PreparedStatement targetStmt_Create = targetConnection.prepareStatement(generateCreateStatment(sourceConnection, sourceTable));
+    /**
+     * 先在目标数据库创建表结构
+     *
+     * @return 表已经存在时返回false
+     */
+    public boolean createTable() throws SQLException {
+        try(Connection sourceConnection = sourceDataSource.getConnection();
+            Connection targetConnection = targetDataSource.getConnection();
+            PreparedStatement targetStmt_Create = targetConnection.prepareStatement(generateCreateStatment(sourceConnection, sourceTable))){
             targetStmt_Create.executeUpdate();
+            return true;
+        }catch (SQLException e){
+            if(e.getMessage() != null && e.getMessage().contains("already exists")) {
+                logger.info("Table " + targetTable + " already exists");
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 按主键顺序只读主键，每bootstrapChunkRows行取一个分界点
+     *
+     * @return 分块的主键区间[lower, upper)，null表示不限；没有主键的表只有一个分块
+     */
+    public List<CopyCheckpoint.Chunk> chunks() throws SQLException {
+        List<CopyCheckpoint.Chunk> chunks = new ArrayList<>();
+        try(Connection sourceConnection = sourceDataSource.getConnection()){
+            primaryName = primaryName(sourceConnection);
+            if(primaryName == null){
+                chunks.add(new CopyCheckpoint.Chunk(null, null));
+                return chunks;
+            }
+            String lower = null;
+            try(PreparedStatement ps = sourceConnection.prepareStatement("SELECT " + primaryName + " FROM " + sourceTable + " ORDER BY " + primaryName,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)){
+                ps.setFetchSize(Integer.MIN_VALUE);
+                try(ResultSet rs = ps.executeQuery()){
+                    long n = 0;
+                    while(rs.next()){
+                        if(++n % Math.max(1, Configs.bootstrapChunkRows) == 0){
+                            String upper = rs.getString(1);
+                            chunks.add(new CopyCheckpoint.Chunk(lower, upper));
+                            lower = upper;
+                        }
+                    }
+                }
+            }
+            chunks.add(new CopyCheckpoint.Chunk(lower, null));
+        }
+        return chunks;
+    }
 
-            int columns = rsmeta.getColumnCount();
-            PreparedStatement targetStmt_Insert = targetConnection.prepareStatement(generateInsertStatment(rsmeta));
+    /**
+     * 续传前核对目标上的分块：已完成的分块与检查点的行数和摘要不一致时重新拷贝，
+     * 未完成的分块核对到最后一个主键为止的部分，并删除目标上最后一个主键之后、检查点之前写入的行
+     *
+     * @return 分块是否已经完成
+     */
+    public boolean prepareResume(CopyCheckpoint.Chunk chunk, CopyCheckpoint checkpoint) throws SQLException {
+        try(Connection sourceConnection = sourceDataSource.getConnection()){
+            primaryName = primaryName(sourceConnection);
+        }
+        if(primaryName == null && !chunk.isDone()){
+            checkpoint.reset(chunk);
+        }
+        if(chunk.isDone() || chunk.getLastKey() != null){
+            String upper = chunk.isDone() ? chunk.getUpper() : chunk.getLastKey();
+            long[] target = targetChecksum(chunk.getLower(), upper, !chunk.isDone());
+            if(target[0] != chunk.getRows() || target[1] != chunk.getSum()){
+                logger.info("Chunk [" + chunk.getLower() + ", " + upper + ") of " + targetTable + " doesn't match its checkpoint, copy it again");
+                checkpoint.reset(chunk);
+            }
+        }
+        if(chunk.isDone())
+            return true;
+        //最后一个主键之后的行可能已经写入但没有记录到检查点，删除后从最后一个主键继续
+        List<Object> params = new ArrayList<>();
+        String where = rangeCondition(chunk.getLastKey() != null ? chunk.getLastKey() : chunk.getLower(), chunk.getLastKey() != null, chunk.getUpper(), false, params);
+        try(Connection targetConnection = targetDataSource.getConnection();
+            PreparedStatement ps = targetConnection.prepareStatement("DELETE FROM " + targetTable + where)){
+            for(int i = 0; i < params.size(); i++)
+                ps.setObject(i + 1, params.get(i));
+            ps.executeUpdate();
+        }
+        return false;
+    }
 
-            while(rs.next()){
-                for(int i = 1; i <= columns; i++){
-                    targetStmt_Insert.setObject(i, rs.getObject(i));
+    /**
+     * @return 目标上分块内的{行数, 行摘要之和}，upperInclusive为真时包含上界
+     */
+    private long[] targetChecksum(String lower, String upper, boolean upperInclusive) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String where = rangeCondition(lower, false, upper, upperInclusive, params);
+        long[] result = new long[2];
+        try(Connection targetConnection = targetDataSource.getConnection();
+            PreparedStatement ps = targetConnection.prepareStatement("SELECT * FROM " + targetTable + where,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)){
+            ps.setFetchSize(Integer.MIN_VALUE);
+            for(int i = 0; i < params.size(); i++)
+                ps.setObject(i + 1, params.get(i));
+            try(ResultSet rs = ps.executeQuery()){
+                int columns = rs.getMetaData().getColumnCount();
+                while(rs.next()){
+                    result[0]++;
+                    result[1] += TableDigest.rowHash(rs, columns);
                 }
-                targetStmt_Insert.addBatch();
             }
-            targetStmt_Insert.executeBatch();
-        }catch (Exception e){
-            if(e.getMessage().contains("already exists")) {
-                logger.info("Table " + targetTable + " already exists");
+        }
+        return result;
+    }
+
+    /**
+     * 用服务端游标按主键顺序读出一个分块，按bootstrapBatchRows和bootstrapBatchBytes组成多行INSERT写入目标；
+     * 有检查点时从最后一个主键继续，每写完一批记录一次
+     *
+     * @param chunk      chunks()返回的分块
+     * @param checkpoint 可以为null
+     */
+    public void copyChunk(CopyCheckpoint.Chunk chunk, CopyProgress progress, CopyCheckpoint checkpoint) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        boolean resume = checkpoint != null && chunk.getLastKey() != null;
+        String sql = "SELECT * FROM " + sourceTable
+                + rangeCondition(resume ? chunk.getLastKey() : chunk.getLower(), resume, chunk.getUpper(), false, params)
+                + (primaryName != null ? " ORDER BY " + primaryName : "");
+        boolean ok = false;
+        try(Connection sourceConnection = sourceDataSource.getConnection();
+            Connection targetConnection = targetDataSource.getConnection();
+            PreparedStatement ps = sourceConnection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)){
+            ps.setFetchSize(Integer.MIN_VALUE);
+            for(int i = 0; i < params.size(); i++)
+                ps.setObject(i + 1, params.get(i));
+            try(ResultSet rs = ps.executeQuery()){
+                ResultSetMetaData rsmeta = rs.getMetaData();
+                int columns = rsmeta.getColumnCount();
+                int primaryIndex = primaryName == null ? 1 : RangeTransfer.primaryIndex(rsmeta, primaryName);
+                String prefix = generateBatchInsertStatment(rsmeta);
+                List<Object[]> batch = new ArrayList<>();
+                long bytes = 0, sum = 0;
+                String lastKey = null;
+                while(rs.next()){
+                    Object[] row = new Object[columns];
+                    for(int i = 1; i <= columns; i++){
+                        row[i - 1] = rs.getObject(i);
+                        bytes += row[i - 1] == null ? 4 : String.valueOf(row[i - 1]).length();
+                    }
+                    batch.add(row);
+                    if(checkpoint != null){
+                        sum += TableDigest.rowHash(rs, columns);
+                        lastKey = rs.getString(primaryIndex);
+                    }
+                    if(batch.size() >= Configs.bootstrapBatchRows || bytes >= Configs.bootstrapBatchBytes){
+                        insertBatch(targetConnection, prefix, columns, batch);
+                        progress.copied(batch.size(), bytes);
+                        if(checkpoint != null)
+                            checkpoint.advance(chunk, primaryName == null ? null : lastKey, batch.size(), sum);
+                        batch.clear();
+                        bytes = 0;
+                        sum = 0;
+                    }
+                }
+                if(!batch.isEmpty()){
+                    insertBatch(targetConnection, prefix, columns, batch);
+                    progress.copied(batch.size(), bytes);
+                    if(checkpoint != null)
+                        checkpoint.advance(chunk, primaryName == null ? null : lastKey, batch.size(), sum);
+                }
             }
-            else{
-                e.printStackTrace();
-                logger.info("Failed to copy data from " + sourceTable + " to " + targetTable);
+            if(checkpoint != null)
+                checkpoint.done(chunk);
+            ok = true;
+        }finally {
+            progress.chunkDone(ok);
+        }
+    }
+
+    /**
+     * @return 主键在区间内的WHERE子句，参数加到params中；没有主键或两端都不限时为空串
+     */
+    private String rangeCondition(String lower, boolean lowerExclusive, String upper, boolean upperInclusive, List<Object> params){
+        if(primaryName == null)
+            return "";
+        List<String> conditions = new ArrayList<>();
+        if(lower != null){
+            conditions.add(primaryName + (lowerExclusive ? " > ?" : " >= ?"));
+            params.add(lower);
+        }
+        if(upper != null){
+            conditions.add(primaryName + (upperInclusive ? " <= ?" : " < ?"));
+            params.add(upper);
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private void insertBatch(Connection conn, String prefix, int columns, List<Object[]> batch) throws SQLException {
+        String row = "(" + String.join(",", Collections.nCopies(columns, "?")) + ")";
+        try(PreparedStatement ps = conn.prepareStatement(prefix + String.join(",", Collections.nCopies(batch.size(), row)))){
+            int index = 1;
+            for(Object[] values : batch){
+                for(Object value : values)
+                    ps.setObject(index++, value);
             }
+            ps.executeUpdate();
+        }
+    }
 
+    private String primaryName(Connection conn) throws SQLException {
+        try(ResultSet primaryKeys = conn.getMetaData().getPrimaryKeys(null, null, sourceTable)){
+            return primaryKeys.next() ? primaryKeys.getString("COLUMN_NAME") : null;
         }
     }
 
@@ -89,7 +291,14 @@ public class TableCopy {
 
     public String generateBatchInsertStatment(ResultSetMetaData metaData) throws SQLException {
         StringBuilder sb = new StringBuilder();
-        sb.append("INSERT INTO ").append(targetTable).append(" VALUES ");
+        sb.append("INSERT INTO ").append(targetTable).append(" (");
+        for(int i = 1; i <= metaData.getColumnCount(); i++){
+            sb.append(metaData.getColumnName(i));
+            if(i < metaData.getColumnCount()){
+                sb.append(",");
+            }
+        }
+        sb.append(") VALUES ");
         return sb.toString();
     }
 }
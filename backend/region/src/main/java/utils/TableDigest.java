@@ -0,0 +1,586 @@
+package utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: TableDigest
+ * @description: 按哈希桶增量维护的表摘要。每个桶的摘要是桶内所有行哈希之和，与行的顺序无关，
+ *               写操作只更新它影响到的行所在的桶，master与slave比较摘要即可定位不一致的桶
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class TableDigest {
+    private static final Logger logger = LoggerFactory.getLogger(TableDigest.class);
+
+    //把0..MAX_HASH的哈希空间等分为BUCKETS个桶
+    public static final int BUCKETS = 256;
+    //IN列表的最大长度
+    private static final int IN_BATCH = 1000;
+
+    private final DatabaseConnection databaseConnection;
+    //写操作之后维护路由哈希列，按桶选取行时走索引
+    private final HashBucketIndex bucketIndex;
+    //在线迁移期间向它报告受影响的主键
+    private final ChangeCapture changeCapture;
+    //按受影响的主键统计访问次数
+    private final AccessHistogram accessHistogram;
+    //不存在的表摘要在下次使用时全表重建
+    private final Map<String, Digest> digests = new ConcurrentHashMap<>();
+    private final Map<String, TableKey> tableKeys = new ConcurrentHashMap<>();
+
+    public TableDigest(DatabaseConnection databaseConnection, HashBucketIndex bucketIndex, ChangeCapture changeCapture, AccessHistogram accessHistogram) {
+        this.databaseConnection = databaseConnection;
+        this.bucketIndex = bucketIndex;
+        this.changeCapture = changeCapture;
+        this.accessHistogram = accessHistogram;
+    }
+
+    public static int bucketOf(int hash) {
+        return (int) ((long) Math.floorMod(hash, Configs.MAX_HASH) * BUCKETS / Configs.MAX_HASH);
+    }
+
+    /**
+     * @return 桶对应的哈希区间[start, end)
+     */
+    public static int[] bucketRange(int bucket) {
+        return new int[]{(int) ((long) bucket * Configs.MAX_HASH / BUCKETS), (int) ((long) (bucket + 1) * Configs.MAX_HASH / BUCKETS)};
+    }
+
+    /**
+     * 执行写操作并增量更新摘要：执行前后分别读出受影响的行，从桶中减去旧行、加上新行。
+     * 无法确定影响范围的语句直接执行，并让该表的摘要失效
+     *
+     * @param tableName 请求中的表名
+     * @param sqlList   写操作
+     */
+    public void execute(String tableName, List<String> sqlList) throws SQLException {
+        try (Connection conn = databaseConnection.getConnection()) {
+            execute(conn, tableName, sqlList);
+        }
+    }
+
+    /**
+     * 在调用者的连接（例如组提交的事务）上执行写操作并增量更新摘要
+     */
+    public void execute(Connection conn, String tableName, List<String> sqlList) throws SQLException {
+        List<WriteStatement> statements = new ArrayList<>();
+        boolean insertOnly = true;
+        for (String sql : sqlList) {
+            WriteStatement ws = WriteStatement.parse(sql);
+            statements.add(ws);
+            insertOnly &= ws.getKind() == WriteStatement.Kind.INSERT || ws.getKind() == WriteStatement.Kind.REPLACE;
+        }
+        //只有INSERT的批量写操作合并成一次前后镜像查询
+        if (insertOnly && sqlList.size() > 1 && sameTable(statements)) {
+            executeInserts(conn, statements, sqlList);
+            afterWrite(conn, statements.get(0).getTableName(), statements.get(0));
+            return;
+        }
+        for (int i = 0; i < sqlList.size(); i++) {
+            WriteStatement ws = statements.get(i);
+            String table = ws.getTableName() == null ? tableName : ws.getTableName();
+            bucketIndex.beforeWrite(conn, table, ws);
+            executeTracked(conn, tableName, sqlList.get(i), ws);
+            afterWrite(conn, table, ws);
+        }
+    }
+
+    /**
+     * 路由哈希列维护失败不影响已经执行的写操作，未补齐的行在下次按桶选取前补齐
+     */
+    private void afterWrite(Connection conn, String table, WriteStatement ws) {
+        try {
+            bucketIndex.afterWrite(conn, table, ws);
+        } catch (SQLException e) {
+            logger.warn("Can't maintain hash bucket of " + table + ": " + e.getMessage());
+        }
+    }
+
+    private void executeInserts(Connection conn, List<WriteStatement> statements, List<String> sqlList) throws SQLException {
+        String table = statements.get(0).getTableName();
+        List<String> keys = new ArrayList<>();
+        for (WriteStatement ws : statements) {
+            List<String> k = insertedKeys(conn, ws);
+            if (k == null) {
+                keys = null;
+                break;
+            }
+            keys.addAll(k);
+        }
+        if (keys != null && digests.containsKey(table)) {
+            List<Row> before = selectByKeys(conn, table, keys);
+            executeBatch(conn, sqlList);
+            changeCapture.record(table, keys);
+            accessHistogram.record(table, keys);
+            apply(table, before, selectByKeys(conn, table, keys));
+            return;
+        }
+        executeBatch(conn, sqlList);
+        changeCapture.record(table, keys);
+        accessHistogram.record(table, keys);
+        invalidate(table);
+    }
+
+    private void executeTracked(Connection conn, String tableName, String sql, WriteStatement ws) throws SQLException {
+        String table = ws.getTableName() == null ? tableName : ws.getTableName();
+        switch (ws.getKind()) {
+            case CREATE:
+                execute(conn, sql);
+                tableKeys.remove(table);
+                digests.put(table, new Digest());
+                changeCapture.record(table, null);
+                return;
+            case DROP:
+            case OTHER:
+                execute(conn, sql);
+                invalidate(table);
+                changeCapture.record(table, null);
+                return;
+            default:
+                break;
+        }
+        boolean tracked = digests.containsKey(table);
+        if (!tracked && !changeCapture.isCapturing(table)) {
+            execute(conn, sql);
+            return;
+        }
+        List<Row> before;
+        List<String> keys;
+        try {
+            TableKey key = tableKey(conn, table);
+            if (ws.getKind() == WriteStatement.Kind.INSERT || ws.getKind() == WriteStatement.Kind.REPLACE) {
+                keys = insertedKeys(conn, ws);
+                before = keys == null ? null : tracked ? selectByKeys(conn, table, keys) : Collections.emptyList();
+            } else if (ws.getWhereClause() == null || ws.setsColumn(key.primaryName)) {
+                //没有WHERE或者修改了主键，影响范围无法按主键追踪
+                before = null;
+                keys = null;
+            } else {
+                before = select(conn, table, "SELECT * FROM " + table + " WHERE " + ws.getWhereClause(), null);
+                keys = new ArrayList<>();
+                for (Row row : before) {
+                    keys.add(row.key);
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Can't track rows of " + table + ": " + e.getMessage());
+            before = null;
+            keys = null;
+        }
+        execute(conn, sql);
+        changeCapture.record(table, keys);
+        accessHistogram.record(table, keys);
+        if (before == null) {
+            invalidate(table);
+            return;
+        }
+        if (!tracked) {
+            return;
+        }
+        List<Row> after = ws.getKind() == WriteStatement.Kind.DELETE ? Collections.emptyList() : selectByKeys(conn, table, keys);
+        apply(table, before, after);
+    }
+
+    private boolean sameTable(List<WriteStatement> statements) {
+        String table = statements.get(0).getTableName();
+        for (WriteStatement ws : statements) {
+            if (!ws.getTableName().equals(table)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return INSERT语句插入的主键值，主键不在插入的列中时返回null
+     */
+    private List<String> insertedKeys(Connection conn, WriteStatement ws) throws SQLException {
+        TableKey key = tableKey(conn, ws.getTableName());
+        int index = key.primaryIndex;
+        if (ws.getColumns() != null) {
+            index = -1;
+            for (int i = 0; i < ws.getColumns().size(); i++) {
+                if (ws.getColumns().get(i).equalsIgnoreCase(key.primaryName)) {
+                    index = i;
+                }
+            }
+        }
+        if (index < 0) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>();
+        for (List<String> row : ws.getRows()) {
+            if (index >= row.size()) {
+                return null;
+            }
+            String value = WriteStatement.literalValue(row.get(index));
+            if (value != null) {
+                keys.add(value);
+            }
+        }
+        return keys;
+    }
+
+    private void apply(String table, List<Row> before, List<Row> after) {
+        Digest digest = digests.get(table);
+        if (digest == null) {
+            return;
+        }
+        for (Row row : before) {
+            digest.remove(row.bucket, row.hash);
+        }
+        for (Row row : after) {
+            digest.add(row.bucket, row.hash);
+        }
+    }
+
+    public void invalidate(String table) {
+        digests.remove(table);
+        tableKeys.remove(table);
+    }
+
+    public void invalidateAll() {
+        digests.clear();
+        tableKeys.clear();
+    }
+
+    /**
+     * @return 表的各个桶的摘要，摘要失效时全表重建
+     */
+    public long[] getBuckets(String table) throws SQLException {
+        return digest(table).sums.clone();
+    }
+
+    /**
+     * @return 表的各个桶的行数
+     */
+    public long[] getCounts(String table) throws SQLException {
+        return digest(table).counts.clone();
+    }
+
+    /**
+     * @return 整张表的摘要，用于master与slave快速比较
+     */
+    public long getCombined(String table) throws SQLException {
+        return digest(table).combined();
+    }
+
+    private Digest digest(String table) throws SQLException {
+        Digest digest = digests.get(table);
+        if (digest == null) {
+            digest = rebuild(table);
+        }
+        return digest;
+    }
+
+    private Digest rebuild(String table) throws SQLException {
+        logger.info("Rebuilding digest of table " + table);
+        Digest digest = new Digest();
+        try (Connection conn = databaseConnection.getConnection()) {
+            if (tableExists(conn, table)) {
+                for (Row row : select(conn, table, "SELECT * FROM " + table, null)) {
+                    digest.add(row.bucket, row.hash);
+                }
+            }
+        }
+        digests.put(table, digest);
+        return digest;
+    }
+
+    /**
+     * 用master的数据替换本地若干个桶内的所有行，并重新计算这些桶的摘要
+     *
+     * @param buckets 需要修复的桶
+     * @param rows    master上这些桶内的所有行
+     */
+    public void replaceBuckets(String table, Set<Integer> buckets, List<String[]> rows) throws SQLException {
+        TableKey key;
+        List<String> localKeys = new ArrayList<>();
+        try (Connection conn = databaseConnection.getConnection()) {
+            key = tableKey(conn, table);
+            try (PreparedStatement ps = conn.prepareStatement("SELECT " + key.primaryName + " FROM " + table + bucketFilter(conn, table, buckets));
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String value = rs.getString(1);
+                    if (buckets.contains(bucketOf(Configs.hash(value)))) {
+                        localKeys.add(value);
+                    }
+                }
+            }
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                for (int i = 0; i < localKeys.size(); i += IN_BATCH) {
+                    List<String> batch = localKeys.subList(i, Math.min(localKeys.size(), i + IN_BATCH));
+                    try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + table + " WHERE " + key.primaryName + " IN (" + placeholders(batch.size()) + ")")) {
+                        for (int j = 0; j < batch.size(); j++) {
+                            ps.setString(j + 1, batch.get(j));
+                        }
+                        ps.executeUpdate();
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + table + " VALUES (" + placeholders(rows.get(0).length) + ")")) {
+                        for (String[] row : rows) {
+                            for (int j = 0; j < row.length; j++) {
+                                ps.setString(j + 1, row[j]);
+                            }
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        Digest digest = digests.get(table);
+        if (digest != null) {
+            for (int bucket : buckets) {
+                digest.sums[bucket] = 0;
+                digest.counts[bucket] = 0;
+            }
+            for (String[] row : rows) {
+                digest.add(bucketOf(Configs.hash(row[key.primaryIndex])), rowHash(row));
+            }
+        }
+        logger.info("Replaced " + localKeys.size() + " local rows with " + rows.size() + " rows in " + buckets.size() + " buckets of " + table);
+    }
+
+    /**
+     * 读出若干个桶内的所有行，按字符串编码为一个块，保证slave上重新计算的摘要与master一致
+     */
+    public RowBlockCodec.Builder selectBuckets(String table, Set<Integer> buckets) throws SQLException {
+        try (Connection conn = databaseConnection.getConnection()) {
+            TableKey key = tableKey(conn, table);
+            try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM " + table + bucketFilter(conn, table, buckets));
+                 ResultSet rs = ps.executeQuery()) {
+                int columns = rs.getMetaData().getColumnCount();
+                List<String> names = new ArrayList<>(columns);
+                for (int i = 1; i <= columns; i++) {
+                    names.add(rs.getMetaData().getColumnName(i));
+                }
+                RowBlockCodec.Builder rows = RowBlockCodec.Builder.ofStrings(names);
+                while (rs.next()) {
+                    if (buckets.contains(bucketOf(Configs.hash(rs.getString(key.primaryIndex + 1))))) {
+                        String[] row = new String[columns];
+                        for (int i = 0; i < columns; i++) {
+                            row[i] = rs.getString(i + 1);
+                        }
+                        rows.add(row);
+                    }
+                }
+                return rows;
+            }
+        }
+    }
+
+    /**
+     * @return 表有路由哈希列时只扫描这些桶的索引范围，否则为空串，由调用者逐行计算哈希过滤
+     */
+    private String bucketFilter(Connection conn, String table, Set<Integer> buckets) throws SQLException {
+        return bucketIndex.ensure(conn, table) ? " WHERE " + HashBucketIndex.bucketsCondition(buckets) : "";
+    }
+
+    /**
+     * @return 两份桶摘要中不相同的桶
+     */
+    public static Set<Integer> diff(long[] mine, long[] theirs) {
+        Set<Integer> buckets = new TreeSet<>();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mine[i] != theirs[i]) {
+                buckets.add(i);
+            }
+        }
+        return buckets;
+    }
+
+    private List<Row> selectByKeys(Connection conn, String table, List<String> keys) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        TableKey key = tableKey(conn, table);
+        for (int i = 0; i < keys.size(); i += IN_BATCH) {
+            List<String> batch = keys.subList(i, Math.min(keys.size(), i + IN_BATCH));
+            rows.addAll(select(conn, table, "SELECT * FROM " + table + " WHERE " + key.primaryName + " IN (" + placeholders(batch.size()) + ")", batch));
+        }
+        return rows;
+    }
+
+    private List<Row> select(Connection conn, String table, String sql, List<String> params) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        TableKey key = tableKey(conn, table);
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (params != null) {
+                for (int i = 0; i < params.size(); i++) {
+                    ps.setString(i + 1, params.get(i));
+                }
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    String value = rs.getString(key.primaryIndex + 1);
+                    rows.add(new Row(value, bucketOf(Configs.hash(String.valueOf(value))), rowHash(rs, columns)));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+
+    private void executeBatch(Connection conn, List<String> sqlList) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : sqlList)
+                stmt.addBatch(sql);
+            stmt.executeBatch();
+        }
+    }
+
+    private boolean tableExists(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(null, null, table, null)) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * @return 表的主键名及其在SELECT *中的位置，没有主键时使用第一列
+     */
+    private TableKey tableKey(Connection conn, String table) throws SQLException {
+        TableKey key = tableKeys.get(table);
+        if (key != null) {
+            return key;
+        }
+        String primaryName = null;
+        try (ResultSet primaryKeys = conn.getMetaData().getPrimaryKeys(null, null, table)) {
+            if (primaryKeys.next()) {
+                primaryName = primaryKeys.getString("COLUMN_NAME");
+            }
+        }
+        int primaryIndex = 0;
+        try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM " + table + " LIMIT 0");
+             ResultSet rs = ps.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            if (primaryName == null) {
+                primaryName = meta.getColumnName(1);
+            }
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                if (meta.getColumnName(i).equalsIgnoreCase(primaryName)) {
+                    primaryIndex = i - 1;
+                }
+            }
+        }
+        key = new TableKey(primaryName, primaryIndex);
+        tableKeys.put(table, key);
+        return key;
+    }
+
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 行哈希：按列顺序对字符串值做FNV-1a，再做一次混合使各行哈希之和分布均匀
+     */
+    static long rowHash(ResultSet rs, int columns) throws SQLException {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 1; i <= columns; i++) {
+            h = fnv(h, rs.getString(i));
+        }
+        return mix(h);
+    }
+
+    static long rowHash(String[] row) {
+        long h = 0xcbf29ce484222325L;
+        for (String value : row) {
+            h = fnv(h, value);
+        }
+        return mix(h);
+    }
+
+    private static long fnv(long h, String value) {
+        if (value == null) {
+            h ^= 0xff;
+            h *= 0x100000001b3L;
+        } else {
+            for (int j = 0; j < value.length(); j++) {
+                h ^= value.charAt(j);
+                h *= 0x100000001b3L;
+            }
+        }
+        //列分隔符
+        h ^= 0x1f;
+        h *= 0x100000001b3L;
+        return h;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static class Digest {
+        private final long[] sums = new long[BUCKETS];
+        private final long[] counts = new long[BUCKETS];
+
+        void add(int bucket, long hash) {
+            sums[bucket] += hash;
+            counts[bucket]++;
+        }
+
+        void remove(int bucket, long hash) {
+            sums[bucket] -= hash;
+            counts[bucket]--;
+        }
+
+        long combined() {
+            long sum = 0, count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                sum += sums[i];
+                count += counts[i];
+            }
+            return mix(sum) ^ count;
+        }
+    }
+
+    private static class Row {
+        private final String key;
+        private final int bucket;
+        private final long hash;
+
+        Row(String key, int bucket, long hash) {
+            this.key = key;
+            this.bucket = bucket;
+            this.hash = hash;
+        }
+    }
+
+    private static class TableKey {
+        private final String primaryName;
+        private final int primaryIndex;
+
+        TableKey(String primaryName, int primaryIndex) {
+            this.primaryName = primaryName;
+            this.primaryIndex = primaryIndex;
+        }
+    }
+}
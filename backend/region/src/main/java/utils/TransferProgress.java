@@ -0,0 +1,131 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: TransferProgress
+ * @description: 一次表迁移的进度：扫描行数、已发送的行数和字节数以及速率，在线迁移时还有追赶的行数和切换耗时
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class TransferProgress {
+
+    public enum State {
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String tableName;
+    private final String target;
+    private final int start;
+    private final int end;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt;
+    private volatile State state = State.RUNNING;
+    //在线迁移的阶段：COPY、CATCH_UP、CUTOVER
+    private volatile String phase = "COPY";
+    private volatile long cutoverMs = -1;
+    private volatile String error;
+
+    private final AtomicLong scannedRows = new AtomicLong();
+    private final AtomicLong sentRows = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong deletedRows = new AtomicLong();
+    private final AtomicLong replayedRows = new AtomicLong();
+    private final AtomicLong skippedSlices = new AtomicLong();
+
+    public TransferProgress(String tableName, String target, int start, int end) {
+        this.tableName = tableName;
+        this.target = target;
+        this.start = start;
+        this.end = end;
+    }
+
+    public void scanned() {
+        scannedRows.incrementAndGet();
+    }
+
+    public void sent(int rows, long bytes) {
+        sentRows.addAndGet(rows);
+        sentBytes.addAndGet(bytes);
+        batches.incrementAndGet();
+    }
+
+    public void deleted(int rows) {
+        deletedRows.addAndGet(rows);
+    }
+
+    public void replayed(int rows) {
+        replayedRows.addAndGet(rows);
+    }
+
+    /**
+     * 续传时一个哈希切片在目标上已经完整，不再发送
+     */
+    public void skipped() {
+        skippedSlices.incrementAndGet();
+    }
+
+    public void phase(String phase) {
+        this.phase = phase;
+    }
+
+    public void cutover(long ms) {
+        cutoverMs = ms;
+    }
+
+    public void done() {
+        finishedAt = System.currentTimeMillis();
+        state = State.DONE;
+    }
+
+    public void failed(String error) {
+        finishedAt = System.currentTimeMillis();
+        this.error = error;
+        state = State.FAILED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getSentRows() {
+        return sentRows.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        long elapsed = Math.max(1, (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt);
+        json.put("tableName", tableName);
+        json.put("target", target);
+        json.put("range", start + "," + end);
+        json.put("state", state.name());
+        json.put("scannedRows", scannedRows.get());
+        json.put("sentRows", sentRows.get());
+        json.put("sentBytes", sentBytes.get());
+        json.put("batches", batches.get());
+        json.put("deletedRows", deletedRows.get());
+        json.put("phase", phase);
+        json.put("replayedRows", replayedRows.get());
+        json.put("skippedSlices", skippedSlices.get());
+        json.put("cutoverMs", cutoverMs);
+        json.put("elapsedMs", elapsed);
+        json.put("rowsPerSec", sentRows.get() * 1000.0 / elapsed);
+        json.put("bytesPerSec", sentBytes.get() * 1000.0 / elapsed);
+        if (error != null) {
+            json.put("error", error);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,95 @@
+package utils;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: VoteStats
+ * @description: 读操作表决中每个slave的响应延迟、与本机结果不一致的次数以及失败和被取消的次数
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class VoteStats {
+
+    private final AtomicLong votes = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Map<String, SlaveStats> slaves = new ConcurrentHashMap<>();
+
+    public void voteFinished(boolean result) {
+        votes.incrementAndGet();
+        (result ? passed : failed).incrementAndGet();
+    }
+
+    public void agreed(String slave, long latencyMs) {
+        SlaveStats stats = slave(slave);
+        stats.agrees.incrementAndGet();
+        stats.latency(latencyMs);
+    }
+
+    public void disagreed(String slave, long latencyMs) {
+        SlaveStats stats = slave(slave);
+        stats.disagrees.incrementAndGet();
+        stats.latency(latencyMs);
+    }
+
+    public void error(String slave) {
+        slave(slave).errors.incrementAndGet();
+    }
+
+    public void cancelled(String slave) {
+        slave(slave).cancelled.incrementAndGet();
+    }
+
+    private SlaveStats slave(String slave) {
+        return slaves.computeIfAbsent(slave, k -> new SlaveStats());
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("votes", votes.get());
+        json.put("passed", passed.get());
+        json.put("failed", failed.get());
+        JSONObject slaveJson = new JSONObject();
+        slaves.forEach((slave, stats) -> slaveJson.put(slave, stats.toJSON()));
+        json.put("slaves", slaveJson);
+        return json;
+    }
+
+    private static class SlaveStats {
+        private final AtomicLong agrees = new AtomicLong();
+        private final AtomicLong disagrees = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong cancelled = new AtomicLong();
+        private final AtomicLong responses = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private volatile long lastLatency;
+
+        void latency(long latencyMs) {
+            responses.incrementAndGet();
+            totalLatency.addAndGet(latencyMs);
+            maxLatency.accumulateAndGet(latencyMs, Math::max);
+            lastLatency = latencyMs;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            long count = responses.get();
+            json.put("agrees", agrees.get());
+            json.put("disagrees", disagrees.get());
+            json.put("errors", errors.get());
+            json.put("cancelled", cancelled.get());
+            json.put("avgLatencyMs", count == 0 ? 0 : (double) totalLatency.get() / count);
+            json.put("maxLatencyMs", maxLatency.get());
+            json.put("lastLatencyMs", lastLatency);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @projectName: region
+ * @package: utils
+ * @className: WriteStatement
+ * @description: 对写操作SQL做简单的解析，得到操作的表、插入的值以及WHERE条件，用于判断写操作影响了哪些行
+ * @date: 2026/10/18
+ * @version: 1.0
+ */
+
+public class WriteStatement {
+
+    public enum Kind {
+        INSERT,
+        REPLACE,
+        UPDATE,
+        DELETE,
+        CREATE,
+        DROP,
+        //无法解析或者影响范围未知的语句
+        OTHER
+    }
+
+    private static final Pattern INSERT = Pattern.compile(
+            "^(INSERT|REPLACE)\\s+(?:IGNORE\\s+)?INTO\\s+`?(\\w+)`?\\s*(?:\\(([^)]*)\\))?\\s*VALUES\\s*(.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern UPDATE = Pattern.compile(
+            "^UPDATE\\s+`?(\\w+)`?\\s+SET\\s+(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DELETE = Pattern.compile(
+            "^DELETE\\s+FROM\\s+`?(\\w+)`?(\\s+.*)?$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DDL = Pattern.compile(
+            "^(CREATE|DROP)\\s+TABLE\\s+(?:IF\\s+(?:NOT\\s+)?EXISTS\\s+)?`?(\\w+)`?.*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern IDENTIFIER = Pattern.compile("\\w+");
+
+    private Kind kind = Kind.OTHER;
+    private String tableName;
+    //INSERT指定的列名，未指定时为null
+    private List<String> columns;
+    //INSERT的每一行的值（SQL字面量）
+    private List<List<String>> rows;
+    private String setClause;
+    //WHERE之后的部分，没有WHERE时为null
+    private String whereClause;
+
+    private WriteStatement() {
+    }
+
+    public static WriteStatement parse(String sql) {
+        WriteStatement ws = new WriteStatement();
+        String stmt = sql.trim();
+        while (stmt.endsWith(";")) {
+            stmt = stmt.substring(0, stmt.length() - 1).trim();
+        }
+        Matcher m;
+        if ((m = INSERT.matcher(stmt)).matches()) {
+            ws.tableName = m.group(2).toUpperCase(Locale.ROOT);
+            if (m.group(3) != null) {
+                ws.columns = new ArrayList<>();
+                for (String column : m.group(3).split(",")) {
+                    ws.columns.add(column.trim().replace("`", ""));
+                }
+            }
+            ws.rows = parseTuples(m.group(4));
+            if (ws.rows != null) {
+                ws.kind = m.group(1).equalsIgnoreCase("REPLACE") ? Kind.REPLACE : Kind.INSERT;
+            }
+        } else if ((m = UPDATE.matcher(stmt)).matches()) {
+            ws.tableName = m.group(1).toUpperCase(Locale.ROOT);
+            String rest = m.group(2);
+            int where = indexOfKeyword(rest, "WHERE");
+            ws.setClause = where < 0 ? rest : rest.substring(0, where);
+            ws.whereClause = where < 0 ? null : rest.substring(where + "WHERE".length()).trim();
+            ws.kind = Kind.UPDATE;
+        } else if ((m = DELETE.matcher(stmt)).matches()) {
+            ws.tableName = m.group(1).toUpperCase(Locale.ROOT);
+            String rest = m.group(2) == null ? "" : m.group(2).trim();
+            if (rest.isEmpty()) {
+                ws.kind = Kind.DELETE;
+            } else if (indexOfKeyword(rest, "WHERE") == 0) {
+                ws.whereClause = rest.substring("WHERE".length()).trim();
+                ws.kind = Kind.DELETE;
+            }
+        } else if ((m = DDL.matcher(stmt)).matches()) {
+            ws.tableName = m.group(2).toUpperCase(Locale.ROOT);
+            ws.kind = m.group(1).equalsIgnoreCase("CREATE") ? Kind.CREATE : Kind.DROP;
+        }
+        return ws;
+    }
+
+    /**
+     * 解析VALUES之后的(...),(...)，不能解析（例如INSERT ... SELECT）时返回null
+     */
+    private static List<List<String>> parseTuples(String values) {
+        List<List<String>> tuples = new ArrayList<>();
+        int i = 0, n = values.length();
+        while (true) {
+            while (i < n && Character.isWhitespace(values.charAt(i))) i++;
+            if (i >= n || values.charAt(i) != '(') {
+                return null;
+            }
+            List<String> tuple = new ArrayList<>();
+            int depth = 0;
+            StringBuilder item = new StringBuilder();
+            i++;
+            for (; i < n; i++) {
+                char c = values.charAt(i);
+                if (c == '\'' || c == '"') {
+                    int end = skipQuoted(values, i);
+                    item.append(values, i, end);
+                    i = end - 1;
+                } else if (c == '(') {
+                    depth++;
+                    item.append(c);
+                } else if (c == ')' && depth > 0) {
+                    depth--;
+                    item.append(c);
+                } else if (c == ')') {
+                    tuple.add(item.toString().trim());
+                    break;
+                } else if (c == ',' && depth == 0) {
+                    tuple.add(item.toString().trim());
+                    item.setLength(0);
+                } else {
+                    item.append(c);
+                }
+            }
+            if (i >= n) {
+                return null;
+            }
+            tuples.add(tuple);
+            i++;
+            while (i < n && Character.isWhitespace(values.charAt(i))) i++;
+            if (i < n && values.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            //剩余部分只允许是ON DUPLICATE KEY UPDATE
+            String rest = values.substring(i).trim();
+            if (rest.isEmpty() || rest.toUpperCase(Locale.ROOT).startsWith("ON DUPLICATE KEY UPDATE")) {
+                return tuples;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return 从引号开始位置跳过整个字符串字面量后的位置
+     */
+    private static int skipQuoted(String s, int start) {
+        char quote = s.charAt(start);
+        int i = start + 1;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == quote) {
+                if (i + 1 < s.length() && s.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return s.length();
+    }
+
+    /**
+     * 在引号和括号之外查找关键字
+     *
+     * @return 关键字的位置，不存在时返回-1
+     */
+    public static int indexOfKeyword(String s, String keyword) {
+        int depth = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\'' || c == '"') {
+                i = skipQuoted(s, i) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && s.regionMatches(true, i, keyword, 0, keyword.length())
+                    && (i == 0 || !Character.isLetterOrDigit(s.charAt(i - 1)) && s.charAt(i - 1) != '_')
+                    && (i + keyword.length() == s.length() || !Character.isLetterOrDigit(s.charAt(i + keyword.length())) && s.charAt(i + keyword.length()) != '_')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 把SQL字面量转换为值，NULL返回null
+     */
+    public static String literalValue(String literal) {
+        if (literal.equalsIgnoreCase("NULL")) {
+            return null;
+        }
+        if (literal.length() >= 2 && (literal.charAt(0) == '\'' || literal.charAt(0) == '"')) {
+            char quote = literal.charAt(0);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 1; i < literal.length() - 1; i++) {
+                char c = literal.charAt(i);
+                if (c == '\\' && i + 1 < literal.length() - 1) {
+                    sb.append(literal.charAt(++i));
+                } else if (c == quote && literal.charAt(i + 1) == quote) {
+                    sb.append(c);
+                    i++;
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+        return literal;
+    }
+
+    /**
+     * 把值转换为SQL字面量，是literalValue的逆操作
+     */
+    public static String toLiteral(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "1" : "0";
+        }
+        if (value instanceof byte[]) {
+            StringBuilder hex = new StringBuilder(((byte[]) value).length * 2 + 3).append("X'");
+            for (byte b : (byte[]) value) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.append('\'').toString();
+        }
+        String s = value.toString();
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('\'');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\'' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('\'').toString();
+    }
+
+    /**
+     * 生成多行INSERT（或REPLACE）语句，表名和列名来自请求，不是合法标识符时拒绝
+     */
+    public static String insertSql(String verb, String tableName, List<String> columns, List<? extends List<?>> rows) {
+        if (!IDENTIFIER.matcher(tableName).matches()) {
+            throw new IllegalArgumentException("Illegal table name " + tableName);
+        }
+        for (String column : columns) {
+            if (!IDENTIFIER.matcher(column).matches()) {
+                throw new IllegalArgumentException("Illegal column name " + column);
+            }
+        }
+        StringBuilder sb = new StringBuilder(verb).append(" INTO ").append(tableName).append(" (")
+                .append(String.join(",", columns)).append(") VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('(');
+            List<?> row = rows.get(i);
+            for (int j = 0; j < row.size(); j++) {
+                if (j > 0) {
+                    sb.append(',');
+                }
+                sb.append(toLiteral(row.get(j)));
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * SET子句是否修改了指定的列
+     */
+    public boolean setsColumn(String column) {
+        if (setClause == null) {
+            return false;
+        }
+        for (String assignment : setClause.split(",")) {
+            int eq = assignment.indexOf('=');
+            if (eq > 0 && assignment.substring(0, eq).trim().replace("`", "").equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 是否是可以在事务中回滚的行级写操作
+     */
+    public boolean isDml() {
+        return kind == Kind.INSERT || kind == Kind.REPLACE || kind == Kind.UPDATE || kind == Kind.DELETE;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<List<String>> getRows() {
+        return rows;
+    }
+
+    public String getWhereClause() {
+        return whereClause;
+    }
+}
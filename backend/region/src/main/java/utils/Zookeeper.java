@@ -2,17 +2,21 @@ package utils;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.CuratorCache;
 import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.System.exit;
 
@@ -38,10 +42,20 @@ public class Zookeeper {
     private final Integer maxServers;
 
     private MasterListener masterListener;
+    //本Region目录的本地缓存
+    private RegionCache regionCache;
+    //路由纪元节点的本地缓存，-1表示还没有收到节点数据
+    private CuratorCache epochCache;
+    private volatile long cachedEpoch = -1;
+    //slave加入时保留了本地数据
+    private boolean rejoining = false;
+    //最近一次从master全量拷贝的进度
+    private volatile CopyProgress copyProgress;
 
     //master目录监听器
     private Boolean isMaster;
-    private Boolean isReady;
+    //加入Region并启动本地缓存后计数归零
+    private final CountDownLatch ready = new CountDownLatch(1);
     //regionID是本Server所属的Region的ID
     private Integer regionID;
     //serverID是本Server在对应Region中的ID，通过/regiin+regionID/server+serverID来唯一标识Zookeeper中的一个节点
@@ -55,7 +69,6 @@ public class Zookeeper {
         this.zkServerAddr = zkServerAddr;
         this.databaseConnection = databaseConnection;
         this.isMaster = false;
-        this.isReady = false;
         this.maxRegions = maxRegions;
         this.maxServers = maxServers;
     }
@@ -119,7 +132,13 @@ public class Zookeeper {
                 logger.error("Region server " + localaddr + " failed to add to zkserver");
             }
         }
-        isReady = true;
+        //加入Region后监听整个Region目录，之后的元数据查询都读本地缓存
+        if(regionID != null){
+            regionCache = new RegionCache();
+            regionCache.start();
+            startEpochCache();
+        }
+        ready.countDown();
     }
 
     public void masterInit(Integer regionID, String localaddr) throws Exception {
@@ -166,15 +185,33 @@ public class Zookeeper {
         //2.从master处拷贝数据
         this.isMaster = false;
         String masterAddr = getMasterAddr();
-        logger.info("Copy from master db: " + masterAddr+ "...");
-        CLearDB();
-        CopyFromRemoteDB(masterAddr);
+        //上次从同一个master的全量拷贝中断时按检查点续传；否则本地已有数据时保留，由RegionApplication按日志或摘要增量同步
+        CopyCheckpoint checkpoint = CopyCheckpoint.open("bootstrap", masterAddr);
+        rejoining = Configs.incrementalRejoin && !checkpoint.isResumed() && !DatabaseCopy.listTables(databaseConnection).isEmpty();
+        if(rejoining){
+            logger.info("Keep local data and resync incrementally from master db: " + masterAddr);
+        }
+        else{
+            //续传时保留检查点里的表，拷贝完成后按摘要与master对齐
+            if(checkpoint.isResumed()){
+                logger.info("Resume interrupted copy from master db: " + masterAddr + "...");
+                CLearDB(checkpoint.tables());
+            }
+            else{
+                logger.info("Copy from master db: " + masterAddr+ "...");
+                CLearDB(Collections.emptySet());
+            }
+            CopyFromRemoteDB(masterAddr, checkpoint);
+            rejoining = checkpoint.isResumed();
+        }
         //3. 注册master的监听器
         masterListener = new MasterListener();
         masterListener.startlistening();
     }
 
     public String getMasterAddr(){
+        if(regionCache != null && regionCache.isInitialized())
+            return regionCache.view().master;
         try{
             return new String(client.getData().forPath("/region" + regionID + "/master"));
         }catch(Exception e){
@@ -184,13 +221,17 @@ public class Zookeeper {
     }
 
 
-    public void CLearDB(){
-        try{
-            Connection conn = databaseConnection.getConnection();
+    /**
+     * @param keep 保留的表
+     */
+    public void CLearDB(Set<String> keep){
+        try(Connection conn = databaseConnection.getConnection()){
             PreparedStatement ps = conn.prepareStatement("show tables");
             ResultSet rs = ps.executeQuery();
             while(rs.next()){
                 String tableName = rs.getString(1);
+                if(keep.contains(tableName))
+                    continue;
                 logger.info("Clear table: " + tableName);
                 ps = conn.prepareStatement("drop table " + tableName);
                 ps.executeUpdate();
@@ -202,8 +243,7 @@ public class Zookeeper {
     }
 
     public void WriteTableMeta(){
-        try{
-            Connection conn = databaseConnection.getConnection();
+        try(Connection conn = databaseConnection.getConnection()){
             DatabaseMetaData dbmd = conn.getMetaData();
             PreparedStatement ps = conn.prepareStatement("show tables");
             ResultSet rs2 = ps.executeQuery();
@@ -241,6 +281,8 @@ public class Zookeeper {
                     tableHashRange = min_range + "," + max_range;
                     client.create().withMode(CreateMode.PERSISTENT).forPath("/region" + regionID + "/tables/" + tableName, tableHashRange.getBytes());
                 }
+                ensureEpoch();
+                client.setData().forPath(EPOCH_PATH, new byte[0]);
             }
 
 
@@ -251,9 +293,71 @@ public class Zookeeper {
         }
     }
 
+    /**
+     * 路由纪元节点，所有改变表的区间的操作都在同一个事务中更新它，节点的版本号即纪元
+     */
+    private static final String EPOCH_PATH = "/epoch";
+
+    private void ensureEpoch() throws Exception{
+        if(client.checkExists().forPath(EPOCH_PATH) == null){
+            try{
+                client.create().withMode(CreateMode.PERSISTENT).forPath(EPOCH_PATH, new byte[0]);
+            }catch(KeeperException.NodeExistsException ignored){
+            }
+        }
+    }
+
+    private CuratorOp bumpEpoch() throws Exception{
+        return client.transactionOp().setData().forPath(EPOCH_PATH, new byte[0]);
+    }
+
+    /**
+     * 监听路由纪元节点，每个带纪元的请求都要比较纪元，不能每次都读zk
+     */
+    private void startEpochCache(){
+        try{
+            ensureEpoch();
+        }catch(Exception e){
+            logger.warn("Can't create routing epoch node: " + e.getMessage());
+        }
+        epochCache = CuratorCache.build(client, EPOCH_PATH, CuratorCache.Options.SINGLE_NODE_CACHE);
+        epochCache.listenable().addListener((type, oldData, data) -> {
+            if(data != null && data.getStat() != null)
+                cachedEpoch = data.getStat().getVersion();
+        });
+        epochCache.start();
+    }
+
+    /**
+     * @return 当前的路由纪元，优先读本地缓存；节点不存在或读取失败时为0
+     */
+    public long getRoutingEpoch(){
+        if(cachedEpoch >= 0)
+            return cachedEpoch;
+        try{
+            Stat stat = client.checkExists().forPath(EPOCH_PATH);
+            return stat == null ? 0 : stat.getVersion();
+        }catch(Exception e){
+            logger.warn("Can't read routing epoch: " + e.getMessage());
+            return 0;
+        }
+    }
+
     public void addTable(String name){
+        addTable(name, "0,65536");
+    }
+
+    /**
+     * @param ranges 新表负责的哈希区间，迁移的目标Region建表时为空，切换路由时再并入迁移的区间
+     */
+    public void addTable(String name, String ranges){
         try{
-            client.create().withMode(CreateMode.PERSISTENT).forPath("/region" + regionID + "/tables/" + name, "0,65536".getBytes());
+            ensureEpoch();
+            client.transaction().forOperations(
+                    client.transactionOp().create().withMode(CreateMode.PERSISTENT).forPath("/region" + regionID + "/tables/" + name, ranges.getBytes()),
+                    bumpEpoch());
+            if(regionCache != null)
+                regionCache.putTable(name, ranges);
         }catch(Exception e){
             e.printStackTrace();
             logger.error("Error: Master can't add table information to zkserver");
@@ -262,14 +366,47 @@ public class Zookeeper {
 
     public void updateTable(String name, String target_regionID, String new_hash_range){
         try{
-            client.setData().forPath("/region" + target_regionID + "/tables/" + name, new_hash_range.getBytes());
+            ensureEpoch();
+            client.transaction().forOperations(
+                    client.transactionOp().setData().forPath("/region" + target_regionID + "/tables/" + name, new_hash_range.getBytes()),
+                    bumpEpoch());
         }catch(Exception e){
             e.printStackTrace();
             logger.error("Error: Master can't add table information to zkserver");
         }
     }
 
+    /**
+     * 把表的哈希区间moved从源Region移到目标Region：源减去moved，目标并入moved，两个节点和路由纪元在同一个事务中更新，
+     * 表节点按版本更新，版本冲突时重读重试
+     */
+    public void moveRanges(String name, String source_regionID, String target_regionID, HashRanges moved) throws Exception{
+        String sourcePath = "/region" + source_regionID + "/tables/" + name;
+        String targetPath = "/region" + target_regionID + "/tables/" + name;
+        ensureEpoch();
+        for(int attempt = 0; ; attempt++){
+            Stat sourceStat = new Stat();
+            Stat targetStat = new Stat();
+            HashRanges source = HashRanges.parse(new String(client.getData().storingStatIn(sourceStat).forPath(sourcePath))).remove(moved);
+            HashRanges target = HashRanges.parse(new String(client.getData().storingStatIn(targetStat).forPath(targetPath))).add(moved);
+            try{
+                client.transaction().forOperations(
+                        client.transactionOp().setData().withVersion(sourceStat.getVersion()).forPath(sourcePath, source.toString().getBytes()),
+                        client.transactionOp().setData().withVersion(targetStat.getVersion()).forPath(targetPath, target.toString().getBytes()),
+                        bumpEpoch());
+                logger.info("Moved " + name + " ranges " + moved + ": region" + source_regionID + " -> " + source + ", region" + target_regionID + " -> " + target);
+                return;
+            }catch(KeeperException.BadVersionException e){
+                if(attempt >= 3)
+                    throw e;
+                logger.info("Ranges of " + name + " changed concurrently, retry");
+            }
+        }
+    }
+
     public boolean isTableExist(String name){
+        if(regionCache != null && regionCache.isInitialized())
+            return regionCache.view().tables.containsKey(name);
         try{
             if(client.checkExists().forPath("/region" + regionID + "/tables/" + name) != null){
                 return true;
@@ -282,28 +419,85 @@ public class Zookeeper {
 
     public void removeTable(String name){
         try{
-            client.delete().forPath("/region" + regionID + "/tables/" + name);
+            ensureEpoch();
+            client.transaction().forOperations(
+                    client.transactionOp().delete().forPath("/region" + regionID + "/tables/" + name),
+                    bumpEpoch());
+            if(regionCache != null)
+                regionCache.removeTable(name);
         }catch(Exception e){
             logger.error("Error: Master can't delete table information to zkserver");
         }
     }
 
-    public void CopyFromRemoteTable(String addr, String tablename) throws SQLException {
-        DatabaseConnection SourceDatabaseConnection = new DatabaseConnection("jdbc:mysql://"+ addr.substring(0, addr.indexOf(":")) +":3306/DISTRIBUTED", databaseConnection.getUsername(), databaseConnection.getPassword());
+    /**
+     * 保留本地数据，只对齐表的集合：删除master上没有的表，从master拷贝本地没有的表
+     *
+     * @return 两边都有的表，由调用者按摘要比较
+     */
+    public List<String> AlignTablesWithRemoteDB(String addr) throws SQLException {
+        DatabaseConnection SourceDatabaseConnection = new DatabaseConnection(sourceUrl(addr), databaseConnection.getUsername(), databaseConnection.getPassword(), 1, Configs.bootstrapThreads + 1);
         SourceDatabaseConnection.connect();
-        //清除旧表
-        Connection conn = SourceDatabaseConnection.getConnection();
-        PreparedStatement ps = conn.prepareStatement("drop table " + tablename);
-        ps.executeUpdate();
-        TableCopy tableCopy = new TableCopy(SourceDatabaseConnection, databaseConnection,  tablename, tablename);
-        tableCopy.copy();
+        try{
+            List<String> remoteTables = DatabaseCopy.listTables(SourceDatabaseConnection);
+            List<String> localTables = DatabaseCopy.listTables(databaseConnection);
+            List<String> common = new ArrayList<>();
+            for(String table : localTables){
+                if(remoteTables.contains(table)){
+                    common.add(table);
+                }
+                else{
+                    logger.info("Drop table not on master: " + table);
+                    databaseConnection.update("drop table " + table);
+                }
+            }
+            List<String> missing = new ArrayList<>(remoteTables);
+            missing.removeAll(localTables);
+            if(!missing.isEmpty()){
+                logger.info("Copy tables missing locally: " + missing);
+                DatabaseCopy databaseCopy = new DatabaseCopy(SourceDatabaseConnection, databaseConnection);
+                copyProgress = databaseCopy.getProgress();
+                databaseCopy.copyTables(missing);
+            }
+            return common;
+        }finally {
+            SourceDatabaseConnection.close();
+        }
+    }
+
+    /**
+     * 从master的数据库拷贝时开启MySQL协议压缩，减少全量拷贝传输的字节数
+     */
+    private static String sourceUrl(String addr){
+        String url = "jdbc:mysql://"+ addr.substring(0, addr.indexOf(":")) +":3306/DISTRIBUTED";
+        return Configs.transferCompression ? url + "?useCompression=true" : url;
     }
 
-    public void CopyFromRemoteDB(String addr) throws SQLException {
-        DatabaseConnection SourceDatabaseConnection = new DatabaseConnection("jdbc:mysql://"+ addr.substring(0, addr.indexOf(":")) +":3306/DISTRIBUTED", databaseConnection.getUsername(), databaseConnection.getPassword());
+    public void CopyFromRemoteDB(String addr, CopyCheckpoint checkpoint) throws SQLException {
+        //每个拷贝线程各用一个源连接，另外一个用于读取表和分块
+        DatabaseConnection SourceDatabaseConnection = new DatabaseConnection(sourceUrl(addr), databaseConnection.getUsername(), databaseConnection.getPassword(), 1, Configs.bootstrapThreads + 1);
         SourceDatabaseConnection.connect();
-        DatabaseCopy databaseCopy = new DatabaseCopy(SourceDatabaseConnection, databaseConnection);
-        databaseCopy.copy();
+        try{
+            DatabaseCopy databaseCopy = new DatabaseCopy(SourceDatabaseConnection, databaseConnection);
+            copyProgress = databaseCopy.getProgress();
+            databaseCopy.copyTables(DatabaseCopy.listTables(SourceDatabaseConnection), checkpoint);
+        }finally {
+            SourceDatabaseConnection.close();
+        }
+    }
+
+    /**
+     * @return 是否以保留本地数据的方式加入，需要增量同步
+     */
+    public boolean isRejoining(){
+        return rejoining;
+    }
+
+    /**
+     * @return 最近一次从master全量拷贝的进度，没有拷贝过时返回null
+     */
+    public CopyProgress getCopyProgress(){
+        return copyProgress;
     }
 
     public boolean isMaster(){
@@ -311,7 +505,24 @@ public class Zookeeper {
     }
 
     public boolean isReady(){
-        return isReady;
+        return ready.getCount() == 0;
+    }
+
+    /**
+     * 阻塞到zookeeper初始化完成，被中断时继续等待并在返回前恢复中断状态
+     */
+    public void awaitReady(){
+        boolean interrupted = false;
+        while(true){
+            try{
+                ready.await();
+                break;
+            }catch (InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
     }
 
     public Integer getRegionID(){
@@ -331,6 +542,8 @@ public class Zookeeper {
     }
 
     public Integer getServerNumber(){
+        if(regionCache != null && regionCache.isInitialized())
+            return regionCache.view().number;
         try{
             return Integer.parseInt(new String(client.getData().forPath("/region" + regionID + "/number")));
         }catch(Exception e){
@@ -340,6 +553,8 @@ public class Zookeeper {
     }
 
     public List<String> getSlaves(){
+        if(regionCache != null && regionCache.isInitialized())
+            return new ArrayList<>(regionCache.view().slaves);
         try{
             Integer number = Integer.parseInt(new String(client.getData().forPath("/region" + regionID + "/number")));
             ArrayList<String> list = new ArrayList<String>();
@@ -356,8 +571,35 @@ public class Zookeeper {
     }
 
 
+    /**
+     * @return 本地元数据缓存的版本，每收到一次Region目录的变化加一；调用者比较前后两次的版本即可判断元数据是否变化
+     */
+    public long getMetadataVersion(){
+        return regionCache == null ? 0 : regionCache.view().version;
+    }
+
+    /**
+     * @return 本Region中所有表的哈希范围
+     */
+    public Map<String, String> getTables(){
+        if(regionCache != null && regionCache.isInitialized())
+            return regionCache.view().tables;
+        Map<String, String> tables = new HashMap<>();
+        try{
+            for(String table : client.getChildren().forPath("/region" + regionID + "/tables"))
+                tables.put(table, new String(client.getData().forPath("/region" + regionID + "/tables/" + table)));
+        }catch(Exception e){
+            logger.error("Error: Can't get table information");
+        }
+        return tables;
+    }
+
     public void close(){
         logger.info("Region server " + localaddr + " is disconneting to zkServer: "+ zkServerAddr + " ......");
+        if(regionCache != null)
+            regionCache.close();
+        if(epochCache != null)
+            epochCache.close();
         if(client != null){
             //1. 更新zk信息
             try{
@@ -410,6 +652,120 @@ public class Zookeeper {
     }
 
 
+    /**
+     * 用CuratorCache监听/regionN整个子树，每次变化后重建一份不可变的视图，读操作只读取视图
+     */
+    class RegionCache {
+        private CuratorCache cache;
+        private final String root = "/region" + regionID;
+        private final CountDownLatch initialized = new CountDownLatch(1);
+        private volatile RegionView view = new RegionView(null, 0, Collections.emptyList(), Collections.emptyMap(), 0);
+        //本Server写入但监听事件还没有到达的表，null表示已删除
+        private final Map<String, String> pendingTables = new HashMap<>();
+
+        public void start(){
+            cache = CuratorCache.build(client, root);
+            cache.listenable().addListener(new CuratorCacheListener() {
+                @Override
+                public void event(Type type, ChildData oldData, ChildData data) {
+                    if(initialized.getCount() == 0)
+                        rebuild();
+                }
+
+                @Override
+                public void initialized() {
+                    rebuild();
+                    initialized.countDown();
+                    logger.info("Region cache of " + root + " initialized");
+                }
+            });
+            cache.start();
+            try{
+                if(!initialized.await(10, TimeUnit.SECONDS))
+                    logger.warn("Region cache of " + root + " is not initialized yet, read from zkserver directly");
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public boolean isInitialized(){
+            return initialized.getCount() == 0;
+        }
+
+        public RegionView view(){
+            return view;
+        }
+
+        private synchronized void rebuild(){
+            String master = null;
+            int number = 0;
+            TreeMap<String, String> slaves = new TreeMap<>();
+            Map<String, String> tables = new HashMap<>();
+            for(ChildData child : (Iterable<ChildData>) cache.stream()::iterator){
+                String path = child.getPath();
+                String data = child.getData() == null ? null : new String(child.getData());
+                if(path.equals(root + "/master"))
+                    master = data;
+                else if(path.equals(root + "/number") && data != null)
+                    number = Integer.parseInt(data.trim());
+                else if(path.startsWith(root + "/slaves/"))
+                    slaves.put(path, data);
+                else if(path.startsWith(root + "/tables/"))
+                    tables.put(path.substring((root + "/tables/").length()), data);
+            }
+            //事件到达之前保留本地写入的结果，避免视图短暂回退
+            Iterator<Map.Entry<String, String>> it = pendingTables.entrySet().iterator();
+            while(it.hasNext()){
+                Map.Entry<String, String> pending = it.next();
+                if(tables.containsKey(pending.getKey()) == (pending.getValue() != null))
+                    it.remove();
+                else if(pending.getValue() != null)
+                    tables.put(pending.getKey(), pending.getValue());
+                else
+                    tables.remove(pending.getKey());
+            }
+            view = new RegionView(master, number, new ArrayList<>(slaves.values()), tables, view.version + 1);
+        }
+
+        /**
+         * 本Server自己写入的表立即反映到视图中，不必等待监听事件
+         */
+        public synchronized void putTable(String name, String range){
+            Map<String, String> tables = new HashMap<>(view.tables);
+            tables.put(name, range);
+            pendingTables.put(name, range);
+            view = new RegionView(view.master, view.number, view.slaves, tables, view.version + 1);
+        }
+
+        public synchronized void removeTable(String name){
+            Map<String, String> tables = new HashMap<>(view.tables);
+            tables.remove(name);
+            pendingTables.put(name, null);
+            view = new RegionView(view.master, view.number, view.slaves, tables, view.version + 1);
+        }
+
+        public void close(){
+            if(cache != null)
+                cache.close();
+        }
+    }
+
+    static class RegionView {
+        final String master;
+        final int number;
+        final List<String> slaves;
+        final Map<String, String> tables;
+        final long version;
+
+        RegionView(String master, int number, List<String> slaves, Map<String, String> tables, long version){
+            this.master = master;
+            this.number = number;
+            this.slaves = Collections.unmodifiableList(slaves);
+            this.tables = Collections.unmodifiableMap(tables);
+            this.version = version;
+        }
+    }
+
     class MasterListener {
         private CuratorCache cache;
         MasterListener(){
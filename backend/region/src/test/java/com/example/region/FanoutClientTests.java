@@ -0,0 +1,75 @@
+package com.example.region;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import utils.FanoutClient;
+import utils.FanoutClient.AckPolicy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FanoutClientTests {
+
+    private final FanoutClient client = new FanoutClient(1, 200, 1000);
+
+    @AfterEach
+    void close() {
+        client.close();
+    }
+
+    @Test
+    void requiredAcksPerPolicy() {
+        AckPolicy all = AckPolicy.parse("ALL");
+        assertEquals("all", all.toString());
+        assertEquals(0, all.required(0));
+        assertEquals(3, all.required(3));
+
+        AckPolicy majority = AckPolicy.parse("majority");
+        assertEquals(0, majority.required(0));
+        assertEquals(1, majority.required(1));
+        assertEquals(1, majority.required(2));
+        assertEquals(2, majority.required(3));
+        assertEquals(2, majority.required(4));
+
+        AckPolicy first = AckPolicy.parse("first-2");
+        assertEquals("first-2", first.toString());
+        assertEquals(1, first.required(1));
+        assertEquals(2, first.required(5));
+        assertEquals(2, AckPolicy.parse("2").required(5));
+    }
+
+    @Test
+    void unknownPolicyFallsBackToAll() {
+        assertEquals("all", AckPolicy.parse(null).toString());
+        assertEquals("all", AckPolicy.parse("quorum").toString());
+        assertEquals(4, AckPolicy.parse("first-x").required(4));
+    }
+
+    @Test
+    void awaitAcksReturnsOnceEnoughSucceeded() {
+        CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        List<CompletableFuture<Boolean>> acks = List.of(CompletableFuture.completedFuture(true), pending,
+                CompletableFuture.completedFuture(true));
+        assertTrue(client.awaitAcks(acks, 2));
+        assertFalse(pending.isDone());
+    }
+
+    @Test
+    void awaitAcksFailsFastWhenQuorumIsUnreachable() {
+        CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        List<CompletableFuture<Boolean>> acks = List.of(CompletableFuture.completedFuture(false), pending,
+                CompletableFuture.failedFuture(new RuntimeException("refused")));
+        long begin = System.nanoTime();
+        assertFalse(client.awaitAcks(acks, 2));
+        assertTrue(System.nanoTime() - begin < 150_000_000L, "should not wait for the timeout");
+    }
+
+    @Test
+    void awaitAcksTimesOut() {
+        assertFalse(client.awaitAcks(List.of(new CompletableFuture<>()), 1));
+        assertTrue(client.awaitAcks(List.of(new CompletableFuture<>()), 0));
+        assertFalse(client.awaitAcks(List.of(CompletableFuture.completedFuture(true)), 2));
+    }
+}
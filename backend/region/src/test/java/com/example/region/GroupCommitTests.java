@@ -0,0 +1,90 @@
+package com.example.region;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.Test;
+import utils.GroupCommit;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitTests {
+
+    @Test
+    void nextGroupCommitsWhilePreviousIsReplicating() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingQueue<String> committed = new LinkedBlockingQueue<>();
+        GroupCommit groupCommit = new GroupCommit(0, 1, 2, group -> {
+            committed.add(group.get(0).getSql());
+            return () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                group.forEach(request -> request.complete("200", "ok"));
+            };
+        });
+        try {
+            CompletableFuture<JSONObject> first = groupCommit.submit("t", "first");
+            CompletableFuture<JSONObject> second = groupCommit.submit("t", "second");
+            assertEquals("first", committed.poll(5, TimeUnit.SECONDS));
+            assertEquals("second", committed.poll(5, TimeUnit.SECONDS));
+            assertFalse(first.isDone());
+            assertEquals(2, groupCommit.getStats().getIntValue("replicating"));
+
+            release.countDown();
+            assertEquals("200", first.get(5, TimeUnit.SECONDS).getString("status"));
+            assertEquals("200", second.get(5, TimeUnit.SECONDS).getString("status"));
+        } finally {
+            release.countDown();
+            groupCommit.close();
+        }
+    }
+
+    @Test
+    void pendingGroupsAreBounded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingQueue<String> committed = new LinkedBlockingQueue<>();
+        GroupCommit groupCommit = new GroupCommit(0, 1, 1, group -> {
+            committed.add(group.get(0).getSql());
+            return () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                group.forEach(request -> request.complete("200", "ok"));
+            };
+        });
+        try {
+            groupCommit.submit("t", "first");
+            CompletableFuture<JSONObject> second = groupCommit.submit("t", "second");
+            assertEquals("first", committed.poll(5, TimeUnit.SECONDS));
+            assertNull(committed.poll(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertEquals("second", committed.poll(5, TimeUnit.SECONDS));
+            assertEquals("200", second.get(5, TimeUnit.SECONDS).getString("status"));
+        } finally {
+            release.countDown();
+            groupCommit.close();
+        }
+    }
+
+    @Test
+    void requestsWithoutResultFail() throws Exception {
+        GroupCommit groupCommit = new GroupCommit(0, 4, 1, group -> {
+            throw new IllegalStateException("boom");
+        });
+        try {
+            JSONObject res = groupCommit.submit("t", "x").get(5, TimeUnit.SECONDS);
+            assertEquals("500", res.getString("status"));
+            CompletableFuture<JSONObject> next = groupCommit.submit("t", "y");
+            assertEquals("500", next.get(5, TimeUnit.SECONDS).getString("status"));
+        } finally {
+            groupCommit.close();
+        }
+    }
+}
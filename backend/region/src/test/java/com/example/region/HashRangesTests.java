@@ -0,0 +1,67 @@
+package com.example.region;
+
+import org.junit.jupiter.api.Test;
+import utils.HashRanges;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRangesTests {
+
+    @Test
+    void parseAndToStringRoundTrip() {
+        assertEquals("0,100;200,300", HashRanges.parse("200,300; 0,100").toString());
+        assertEquals("0,65536", HashRanges.parse("0,65536").toString());
+        assertTrue(HashRanges.parse("").isEmpty());
+        assertTrue(HashRanges.parse(null).isEmpty());
+    }
+
+    @Test
+    void containsIsHalfOpen() {
+        HashRanges ranges = HashRanges.parse("10,20;30,40");
+        assertFalse(ranges.contains(9));
+        assertTrue(ranges.contains(10));
+        assertTrue(ranges.contains(19));
+        assertFalse(ranges.contains(20));
+        assertFalse(ranges.contains(29));
+        assertTrue(ranges.contains(30));
+        assertFalse(ranges.contains(40));
+    }
+
+    @Test
+    void addMergesOverlappingAndAdjacentRanges() {
+        HashRanges ranges = new HashRanges(10, 20).add(30, 40);
+        assertEquals("10,20;30,40", ranges.toString());
+        assertEquals("10,40", ranges.add(20, 30).toString());
+        assertEquals("0,50", ranges.add(0, 15).add(35, 50).toString());
+        assertEquals("0,50;60,70", ranges.add(60, 70).toString());
+        assertEquals("0,50;60,70", ranges.add(5, 5).toString());
+    }
+
+    @Test
+    void addSpanningSeveralRanges() {
+        HashRanges ranges = HashRanges.parse("0,10;20,30;40,50;60,70");
+        assertEquals("0,10;15,55;60,70", ranges.add(15, 55).toString());
+    }
+
+    @Test
+    void removeSplitsAndTrimsRanges() {
+        HashRanges ranges = new HashRanges(0, 100);
+        assertEquals("0,40;60,100", ranges.remove(40, 60).toString());
+        assertEquals("0,30;70,100", ranges.remove(30, 45).remove(55, 70).toString());
+        assertEquals("0,30;70,100", ranges.remove(30, 70).toString());
+        assertEquals("10,20;90,100", ranges.remove(0, 10).remove(20, 90).toString());
+        assertTrue(ranges.remove(0, 65536).isEmpty());
+    }
+
+    @Test
+    void addAndRemoveAreInverseForDisjointRanges() {
+        HashRanges owned = HashRanges.parse("0,32768");
+        HashRanges moved = HashRanges.parse("100,200;16384,32768");
+        HashRanges rest = HashRanges.parse(owned.toString()).remove(moved);
+        assertEquals("0,100;200,16384", rest.toString());
+        assertEquals(owned.toString(), rest.add(moved).toString());
+        for (int[] range : moved.ranges()) {
+            assertFalse(rest.remove(moved).contains(range[0]));
+        }
+    }
+}
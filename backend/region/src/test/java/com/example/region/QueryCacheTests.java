@@ -0,0 +1,123 @@
+package com.example.region;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.Test;
+import utils.QueryCache;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryCacheTests {
+
+    private static JSONObject result(String value) {
+        JSONObject res = new JSONObject();
+        res.put("v", value);
+        return res;
+    }
+
+    private static void put(QueryCache cache, String table, String key) {
+        cache.put(key, result("x"), cache.versionsOf(Set.of(table)));
+    }
+
+    @Test
+    void normalizeAndTablesOf() {
+        assertEquals("SELECT * FROM t WHERE a = ' x  y '", QueryCache.normalize("  SELECT *\n  FROM t\tWHERE a = ' x  y ' ;;"));
+        assertEquals(Set.of("T", "ORDERS", "USERS"),
+                Set.copyOf(QueryCache.tablesOf("t", "select * from `orders` o join users u on o.uid = u.id").stream()
+                        .map(String::toUpperCase).toList()));
+    }
+
+    @Test
+    void writeToAnyTableInvalidatesEntry() {
+        QueryCache cache = new QueryCache(1 << 20);
+        String sql = "SELECT * FROM orders JOIN users";
+        cache.put(sql, result("x"), cache.versionsOf(QueryCache.tablesOf("orders", sql)));
+        assertNotNull(cache.get(sql));
+
+        cache.bump("Users");
+        assertNull(cache.get(sql));
+        assertEquals(1, cache.getStats().getLongValue("stale"));
+        assertEquals(0, cache.getStats().getLongValue("entries"));
+    }
+
+    @Test
+    void resultReadBeforeWriteIsNotCached() {
+        QueryCache cache = new QueryCache(1 << 20);
+        Map<String, Long> versions = cache.versionsOf(Set.of("t"));
+        cache.bump("t");
+        cache.put("q", result("old"), versions);
+        assertNull(cache.get("q"));
+        assertEquals(1, cache.getStats().getLongValue("rejected"));
+    }
+
+    @Test
+    void invalidateAllDropsEntriesAndPendingResults() {
+        QueryCache cache = new QueryCache(1 << 20);
+        put(cache, "a", "q1");
+        Map<String, Long> pending = cache.versionsOf(Set.of("a"));
+        cache.invalidateAll();
+        assertNull(cache.get("q1"));
+        cache.put("q2", result("x"), pending);
+        assertNull(cache.get("q2"));
+        assertEquals(0, cache.getStats().getLongValue("bytes"));
+    }
+
+    @Test
+    void coldNewcomerIsNotAdmittedWhenFull() {
+        QueryCache cache = new QueryCache(1000); // 每项约120字节，最多放下8项
+        for (int i = 1; i <= 8; i++) {
+            put(cache, "t", "k" + i);
+            cache.get("k" + i);
+        }
+        put(cache, "t", "k9");
+        assertNull(cache.get("k9"));
+        for (int i = 1; i <= 8; i++) {
+            assertNotNull(cache.get("k" + i));
+        }
+        assertEquals(0, cache.getStats().getLongValue("evictions"));
+    }
+
+    @Test
+    void frequentNewcomerEvictsLeastRecentlyUsed() {
+        QueryCache cache = new QueryCache(1000);
+        for (int i = 1; i <= 8; i++) {
+            put(cache, "t", "k" + i);
+        }
+        for (int i = 2; i <= 8; i++) {
+            cache.get("k" + i);
+        }
+        for (int i = 0; i < 3; i++) {
+            cache.get("k9");
+        }
+        put(cache, "t", "k9");
+        assertNotNull(cache.get("k9"));
+        assertNull(cache.get("k1"));
+        assertEquals(1, cache.getStats().getLongValue("evictions"));
+        assertTrue(cache.getStats().getLongValue("bytes") <= 1000);
+    }
+
+    @Test
+    void staleEntriesAreEvictedRegardlessOfFrequency() {
+        QueryCache cache = new QueryCache(1000);
+        put(cache, "cold", "k1");
+        for (int i = 0; i < 5; i++) {
+            cache.get("k1");
+        }
+        for (int i = 2; i <= 8; i++) {
+            put(cache, "t", "k" + i);
+        }
+        cache.bump("cold");
+        put(cache, "t", "k9");
+        assertNotNull(cache.get("k9"));
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    void oversizedResultIsRejected() {
+        QueryCache cache = new QueryCache(1000);
+        cache.put("big", result("x".repeat(200)), cache.versionsOf(Set.of("t")));
+        assertNull(cache.get("big"));
+    }
+}
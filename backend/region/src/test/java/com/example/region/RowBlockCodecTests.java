@@ -0,0 +1,100 @@
+package com.example.region;
+
+import org.junit.jupiter.api.Test;
+import utils.RowBlockCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowBlockCodecTests {
+
+    private static final List<String> COLUMNS = Arrays.asList("id", "score", "name", "data");
+    private static final byte[] TYPES = {RowBlockCodec.LONG, RowBlockCodec.DOUBLE, RowBlockCodec.STRING, RowBlockCodec.BYTES};
+
+    private static RowBlockCodec.Builder builder() {
+        return new RowBlockCodec.Builder(COLUMNS, TYPES);
+    }
+
+    @Test
+    void roundTripKeepsValuesAndNulls() throws IOException {
+        RowBlockCodec.Builder builder = builder();
+        builder.add(new Object[]{Long.MIN_VALUE, -1.5, "区域'1'", new byte[]{0, -1, 127}});
+        builder.add(new Object[]{null, null, null, null});
+        builder.add(new Object[]{Long.MAX_VALUE, 0.0, "", new byte[0]});
+        builder.add(new Object[]{-7L, Double.NaN, null, new byte[]{42}});
+
+        RowBlockCodec.Block block = RowBlockCodec.decode(builder.encode());
+
+        assertEquals(COLUMNS, block.getColumns());
+        assertArrayEquals(TYPES, block.getTypes());
+        List<List<Object>> rows = block.getRows();
+        assertEquals(4, rows.size());
+        assertEquals(Arrays.asList(Long.MIN_VALUE, -1.5, "区域'1'"), rows.get(0).subList(0, 3));
+        assertArrayEquals(new byte[]{0, -1, 127}, (byte[]) rows.get(0).get(3));
+        assertEquals(Arrays.asList(null, null, null, null), rows.get(1));
+        assertEquals(Arrays.asList(Long.MAX_VALUE, 0.0, ""), rows.get(2).subList(0, 3));
+        assertArrayEquals(new byte[0], (byte[]) rows.get(2).get(3));
+        assertEquals(-7L, rows.get(3).get(0));
+        assertTrue(Double.isNaN((Double) rows.get(3).get(1)));
+        assertNull(rows.get(3).get(2));
+    }
+
+    @Test
+    void roundTripOfCompressedBlock() throws IOException {
+        RowBlockCodec.Builder builder = builder();
+        for (long i = 0; i < 1000; i++) {
+            builder.add(new Object[]{i, i / 2.0, "row-" + (i % 10), new byte[16]});
+        }
+        byte[] encoded = builder.encode();
+        assertTrue(encoded.length < builder.bytes(), "repetitive rows should be deflated");
+
+        List<List<Object>> rows = RowBlockCodec.decode(encoded).getRows();
+        assertEquals(1000, rows.size());
+        assertEquals(999L, rows.get(999).get(0));
+        assertEquals(499.5, rows.get(999).get(1));
+        assertEquals("row-9", rows.get(999).get(2));
+    }
+
+    @Test
+    void emptyBlock() throws IOException {
+        RowBlockCodec.Block block = RowBlockCodec.decode(RowBlockCodec.Builder.ofStrings(List.of("a", "b")).encode());
+        assertEquals(List.of("a", "b"), block.getColumns());
+        assertTrue(block.getRows().isEmpty());
+    }
+
+    @Test
+    void corruptedBlockFailsChecksum() {
+        RowBlockCodec.Builder builder = builder();
+        builder.add(new Object[]{1L, 2.0, "abc", new byte[]{1, 2, 3}});
+        byte[] encoded = builder.encode();
+        encoded[encoded.length - 2] ^= 0x01;
+
+        IOException e = assertThrows(IOException.class, () -> RowBlockCodec.decode(encoded));
+        assertEquals("Row block checksum mismatch", e.getMessage());
+    }
+
+    @Test
+    void corruptedCompressedBlockIsRejected() {
+        RowBlockCodec.Builder builder = builder();
+        for (long i = 0; i < 1000; i++) {
+            builder.add(new Object[]{i, 0.0, "row", null});
+        }
+        byte[] encoded = builder.encode();
+        encoded[encoded.length / 2] ^= 0x10;
+
+        assertThrows(IOException.class, () -> RowBlockCodec.decode(encoded));
+    }
+
+    @Test
+    void truncatedBlockIsRejected() {
+        RowBlockCodec.Builder builder = builder();
+        builder.add(new Object[]{1L, 2.0, "abc", null});
+        byte[] encoded = builder.encode();
+
+        IOException e = assertThrows(IOException.class, () -> RowBlockCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertEquals("Truncated row block", e.getMessage());
+    }
+}
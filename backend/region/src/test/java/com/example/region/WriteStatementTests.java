@@ -0,0 +1,117 @@
+package com.example.region;
+
+import org.junit.jupiter.api.Test;
+import utils.WriteStatement;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteStatementTests {
+
+    @Test
+    void parseMultiRowInsert() {
+        WriteStatement ws = WriteStatement.parse("insert into `users` (`id`, name) values (1, 'a,b'), (2, 'it''s (x)');");
+        assertEquals(WriteStatement.Kind.INSERT, ws.getKind());
+        assertEquals("USERS", ws.getTableName());
+        assertEquals(List.of("id", "name"), ws.getColumns());
+        assertEquals(List.of(List.of("1", "'a,b'"), List.of("2", "'it''s (x)'")), ws.getRows());
+        assertTrue(ws.isDml());
+    }
+
+    @Test
+    void parseInsertWithoutColumnsAndFunctionValues() {
+        WriteStatement ws = WriteStatement.parse("REPLACE INTO t VALUES (CONCAT('a', 'b'), NOW()) ON DUPLICATE KEY UPDATE x = 1");
+        assertEquals(WriteStatement.Kind.REPLACE, ws.getKind());
+        assertNull(ws.getColumns());
+        assertEquals(List.of(List.of("CONCAT('a', 'b')", "NOW()")), ws.getRows());
+    }
+
+    @Test
+    void insertSelectIsNotRowLevel() {
+        WriteStatement ws = WriteStatement.parse("INSERT INTO t (id) VALUES (1) SELECT * FROM s");
+        assertEquals(WriteStatement.Kind.OTHER, ws.getKind());
+        assertFalse(ws.isDml());
+        assertEquals(WriteStatement.Kind.OTHER, WriteStatement.parse("INSERT INTO t (id) SELECT id FROM s").getKind());
+    }
+
+    @Test
+    void parseUpdate() {
+        WriteStatement ws = WriteStatement.parse("UPDATE t SET name = 'where', `id` = 3 WHERE id IN (1, 2)");
+        assertEquals(WriteStatement.Kind.UPDATE, ws.getKind());
+        assertEquals("T", ws.getTableName());
+        assertEquals("id IN (1, 2)", ws.getWhereClause());
+        assertTrue(ws.setsColumn("ID"));
+        assertTrue(ws.setsColumn("name"));
+        assertFalse(ws.setsColumn("age"));
+        assertNull(WriteStatement.parse("UPDATE t SET a = 1").getWhereClause());
+    }
+
+    @Test
+    void parseDelete() {
+        WriteStatement ws = WriteStatement.parse("DELETE FROM t WHERE name = 'x'");
+        assertEquals(WriteStatement.Kind.DELETE, ws.getKind());
+        assertEquals("name = 'x'", ws.getWhereClause());
+        assertEquals(WriteStatement.Kind.DELETE, WriteStatement.parse("delete from t").getKind());
+        assertEquals(WriteStatement.Kind.OTHER, WriteStatement.parse("DELETE FROM t LIMIT 1").getKind());
+    }
+
+    @Test
+    void parseDdl() {
+        WriteStatement create = WriteStatement.parse("CREATE TABLE IF NOT EXISTS `orders` (id INT PRIMARY KEY)");
+        assertEquals(WriteStatement.Kind.CREATE, create.getKind());
+        assertEquals("ORDERS", create.getTableName());
+        assertFalse(create.isDml());
+        WriteStatement drop = WriteStatement.parse("DROP TABLE IF EXISTS orders");
+        assertEquals(WriteStatement.Kind.DROP, drop.getKind());
+        assertEquals("ORDERS", drop.getTableName());
+    }
+
+    @Test
+    void indexOfKeywordSkipsQuotesParenthesesAndIdentifiers() {
+        assertEquals(-1, WriteStatement.indexOfKeyword("a = 'WHERE' AND f(WHERE)", "WHERE"));
+        assertEquals(-1, WriteStatement.indexOfKeyword("nowhere = 1, where_x = 2", "WHERE"));
+        assertEquals(6, WriteStatement.indexOfKeyword("a = 1 where b = 2", "WHERE"));
+    }
+
+    @Test
+    void literalValue() {
+        assertNull(WriteStatement.literalValue("NULL"));
+        assertEquals("42", WriteStatement.literalValue("42"));
+        assertEquals("it's", WriteStatement.literalValue("'it''s'"));
+        assertEquals("a'b\\c", WriteStatement.literalValue("'a\\'b\\\\c'"));
+        assertEquals("x", WriteStatement.literalValue("\"x\""));
+    }
+
+    @Test
+    void toLiteralIsInverseOfLiteralValue() {
+        assertEquals("NULL", WriteStatement.toLiteral(null));
+        assertEquals("-3", WriteStatement.toLiteral(-3L));
+        assertEquals("1", WriteStatement.toLiteral(true));
+        assertEquals("X'00ff10'", WriteStatement.toLiteral(new byte[]{0, -1, 16}));
+        for (String value : List.of("", "plain", "it's", "back\\slash", "混合'\\'")) {
+            assertEquals(value, WriteStatement.literalValue(WriteStatement.toLiteral(value)));
+        }
+    }
+
+    @Test
+    void insertSqlParsesBackToSameRows() {
+        List<List<?>> rows = List.of(List.of(1L, "a'b"), Arrays.asList(2L, null));
+        String sql = WriteStatement.insertSql("REPLACE", "t", List.of("id", "name"), rows);
+        assertEquals("REPLACE INTO t (id,name) VALUES (1,'a\\'b'),(2,NULL)", sql);
+
+        WriteStatement ws = WriteStatement.parse(sql);
+        assertEquals(WriteStatement.Kind.REPLACE, ws.getKind());
+        assertEquals(List.of("id", "name"), ws.getColumns());
+        assertEquals("a'b", WriteStatement.literalValue(ws.getRows().get(0).get(1)));
+        assertNull(WriteStatement.literalValue(ws.getRows().get(1).get(1)));
+    }
+
+    @Test
+    void insertSqlRejectsIllegalIdentifiers() {
+        List<List<?>> rows = List.of(List.of(1L));
+        assertThrows(IllegalArgumentException.class, () -> WriteStatement.insertSql("INSERT", "t; DROP TABLE t", List.of("id"), rows));
+        assertThrows(IllegalArgumentException.class, () -> WriteStatement.insertSql("INSERT", "t", List.of("id) VALUES (1); --"), rows));
+    }
+}